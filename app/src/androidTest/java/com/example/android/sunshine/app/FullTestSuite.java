@@ -21,9 +21,15 @@ import junit.framework.Test;
 import junit.framework.TestSuite;
 
 public class FullTestSuite extends TestSuite {
+    // The benchmarks take minutes and only report numbers, so they are run on their own with
+    // "-e package com.example.android.sunshine.app.perf".
+    static final String PERF_PACKAGE = "com.example.android.sunshine.app.perf";
+
     public static Test suite() {
         return new TestSuiteBuilder(FullTestSuite.class)
-                .includeAllPackagesUnderHere().build();
+                .includeAllPackagesUnderHere()
+                .excludePackages(PERF_PACKAGE)
+                .build();
     }
 
     public FullTestSuite() {
@@ -20,6 +20,7 @@ import android.database.Cursor;
 import android.test.AndroidTestCase;
 
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.utils.StubForecastServer;
 
 public class TestFetchWeatherTask extends AndroidTestCase{
     static final String ADD_LOCATION_SETTING = "Sunnydale, CA";
@@ -101,4 +102,112 @@ public class TestFetchWeatherTask extends AndroidTestCase{
                 acquireContentProviderClient(WeatherContract.LocationEntry.CONTENT_URI).
                 getLocalContentProvider().shutdown();
     }
+
+    static final String STUB_LOCATION_SETTING = "Stubville, CA";
+
+    private void deleteLocation(String locationSetting) {
+        getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " IN (SELECT " +
+                        WeatherContract.LocationEntry._ID + " FROM " +
+                        WeatherContract.LocationEntry.TABLE_NAME + " WHERE " +
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?)",
+                new String[]{locationSetting});
+        getContext().getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI,
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting});
+    }
+
+    /*
+        The first refresh downloads the forecast gzipped and stores its validators.  The second
+        sends them back, gets a 304 and must neither download nor parse anything.
+     */
+    @TargetApi(11)
+    public void testConditionalFetch() throws Exception {
+        deleteLocation(STUB_LOCATION_SETTING);
+        StubForecastServer server =
+                new StubForecastServer(StubForecastServer.buildForecast(14), 0);
+        try {
+            FetchWeatherTask fwt = new FetchWeatherTask(getContext(),
+                    new ForecastFetcher(server.getUrl()));
+
+            fwt.doInBackground(STUB_LOCATION_SETTING);
+            assertEquals(1, server.getRequestCount());
+            assertEquals("Error: the first request should not carry validators",
+                    null, server.getLastRequestHeader("if-none-match"));
+            assertEquals("Error: the forecast should have been requested gzipped",
+                    1, server.getGzipCount());
+            assertEquals(1, fwt.getParseCount());
+            long firstBytes = server.getBodyBytesSent();
+            assertTrue("Error: the gzipped body should be smaller than the document",
+                    firstBytes > 0 && firstBytes < server.getBodySize());
+
+            Cursor weatherCursor = getContext().getContentResolver().query(
+                    WeatherContract.WeatherEntry.buildWeatherLocation(STUB_LOCATION_SETTING),
+                    null, null, null, null);
+            assertEquals("Error: the fetched forecast was not stored",
+                    14, weatherCursor.getCount());
+            weatherCursor.close();
+
+            Cursor locationCursor = getContext().getContentResolver().query(
+                    WeatherContract.LocationEntry.CONTENT_URI,
+                    new String[]{
+                            WeatherContract.LocationEntry.COLUMN_ETAG,
+                            WeatherContract.LocationEntry.COLUMN_LAST_MODIFIED},
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                    new String[]{STUB_LOCATION_SETTING},
+                    null);
+            assertTrue(locationCursor.moveToFirst());
+            assertEquals(StubForecastServer.ETAG, locationCursor.getString(0));
+            assertEquals(StubForecastServer.LAST_MODIFIED, locationCursor.getString(1));
+            locationCursor.close();
+
+            fwt.doInBackground(STUB_LOCATION_SETTING);
+            assertEquals(2, server.getRequestCount());
+            assertEquals(StubForecastServer.ETAG, server.getLastRequestHeader("if-none-match"));
+            assertEquals(StubForecastServer.LAST_MODIFIED,
+                    server.getLastRequestHeader("if-modified-since"));
+            assertEquals(1, server.getNotModifiedCount());
+            assertEquals("Error: a 304 should not transfer a body",
+                    firstBytes, server.getBodyBytesSent());
+            assertEquals("Error: a 304 should not be parsed", 1, fwt.getParseCount());
+        } finally {
+            server.shutdown();
+            deleteLocation(STUB_LOCATION_SETTING);
+        }
+    }
+
+    /*
+        Several locations in one refresh: each is fetched once and every one of them ends up
+        with its own forecast.
+     */
+    @TargetApi(11)
+    public void testRefreshSeveralLocations() throws Exception {
+        String[] settings = {STUB_LOCATION_SETTING + " 1", STUB_LOCATION_SETTING + " 2",
+                STUB_LOCATION_SETTING + " 3"};
+        StubForecastServer server =
+                new StubForecastServer(StubForecastServer.buildForecast(14), 0);
+        try {
+            WeatherRefreshEngine engine = new WeatherRefreshEngine(getContext(),
+                    new ForecastFetcher(server.getUrl()), 2, 2);
+            WeatherRefreshEngine.Report report = engine.refresh(settings);
+
+            assertEquals(3, server.getRequestCount());
+            assertEquals(3, report.fetched);
+            assertEquals(0, report.failed);
+            assertEquals(3 * 14, report.rowsWritten);
+            for (String setting : settings) {
+                Cursor weatherCursor = getContext().getContentResolver().query(
+                        WeatherContract.WeatherEntry.buildWeatherLocation(setting),
+                        null, null, null, null);
+                assertEquals("Error: no forecast stored for " + setting,
+                        14, weatherCursor.getCount());
+                weatherCursor.close();
+            }
+        } finally {
+            server.shutdown();
+            for (String setting : settings) {
+                deleteLocation(setting);
+            }
+        }
+    }
 }
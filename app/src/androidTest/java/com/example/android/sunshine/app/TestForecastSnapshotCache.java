@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.database.MatrixCursor;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.ForecastSnapshotCache.ForecastDay;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.util.concurrent.Callable;
+
+public class TestForecastSnapshotCache extends AndroidTestCase {
+
+    private static final long TIMEOUT = 3000;
+    private static final String LOCATION = "99705";
+
+    // December 20th, 2014, 00:00 UTC
+    private static final long TEST_DATE = 1419033600000L;
+    private static final long DAY_IN_MILLIS = 1000L * 60 * 60 * 24;
+
+    private ForecastSnapshotCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCache = ForecastSnapshotCache.get(mContext);
+        mCache.invalidate();
+    }
+
+    private static MatrixCursor createPage(int days) {
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+                WeatherEntry._ID,
+                WeatherEntry.COLUMN_DATE,
+                WeatherEntry.COLUMN_SHORT_DESC,
+                WeatherEntry.COLUMN_MAX_TEMP,
+                WeatherEntry.COLUMN_MIN_TEMP});
+        for (int i = 0; i < days; i++) {
+            cursor.addRow(new Object[]{i,
+                    WeatherContract.normalizeDate(TEST_DATE + i * DAY_IN_MILLIS),
+                    "Asteroids", 20.0 + i, 10.0 - i});
+        }
+        return cursor;
+    }
+
+    public void testPutAndGet() {
+        MatrixCursor page = createPage(10);
+        mCache.putRows(LOCATION, page, mCache.getGeneration());
+        page.close();
+
+        for (int i = 0; i < 10; i++) {
+            ForecastDay day = mCache.getDay(LOCATION, TEST_DATE + i * DAY_IN_MILLIS);
+            assertNotNull("Error: day " + i + " wasn't cached", day);
+            assertEquals("Asteroids", day.description);
+            assertEquals(20.0 + i, day.maxTemp);
+            assertEquals(10.0 - i, day.minTemp);
+        }
+        assertNull("Error: a day of another location was found",
+                mCache.getDay("94043", TEST_DATE));
+        assertNull("Error: a day that wasn't loaded was found",
+                mCache.getDay(LOCATION, TEST_DATE + 10 * DAY_IN_MILLIS));
+    }
+
+    public void testStalePageIsNotCached() {
+        int generation = mCache.getGeneration();
+        mCache.invalidate();
+
+        MatrixCursor page = createPage(1);
+        mCache.putRows(LOCATION, page, generation);
+        page.close();
+        assertNull("Error: a page older than the last change was cached",
+                mCache.getDay(LOCATION, TEST_DATE));
+    }
+
+    public void testChangeNotificationEmptiesCache() {
+        MatrixCursor page = createPage(1);
+        mCache.putRows(LOCATION, page, mCache.getGeneration());
+        page.close();
+        assertNotNull(mCache.getDay(LOCATION, TEST_DATE));
+
+        mContext.getContentResolver().notifyChange(
+                WeatherEntry.buildWeatherLocation(LOCATION), null);
+        PollingCheck.check("Error: a weather change didn't empty the cache", TIMEOUT,
+                new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        return mCache.getDay(LOCATION, TEST_DATE) == null;
+                    }
+                });
+    }
+}
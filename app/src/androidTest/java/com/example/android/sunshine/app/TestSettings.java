@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.util.concurrent.Callable;
+
+public class TestSettings extends AndroidTestCase {
+
+    private static final long TIMEOUT = 3000;
+
+    private SharedPreferences mPrefs;
+    private String mLocation;
+    private String mUnits;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mLocation = Settings.get(mContext).location;
+        mUnits = Settings.get(mContext).units;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPrefs.edit()
+                .putString(mContext.getString(R.string.pref_location_key), mLocation)
+                .putString(mContext.getString(R.string.pref_units_key), mUnits)
+                .commit();
+        super.tearDown();
+    }
+
+    public void testSnapshotFollowsPreferences() throws Exception {
+        final Settings before = Settings.get(mContext);
+        assertSame("Error: an unchanged snapshot should be handed out again",
+                before, Settings.get(mContext));
+
+        // Flip the units, whichever they are.
+        final String units = mContext.getString(before.isMetric
+                ? R.string.pref_units_imperial : R.string.pref_units_metric);
+        final int generation = Utility.getFormatGeneration();
+        mPrefs.edit()
+                .putString(mContext.getString(R.string.pref_location_key), "10001")
+                .putString(mContext.getString(R.string.pref_units_key), units)
+                .commit();
+
+        // Listeners are told on the main thread.
+        PollingCheck.check("Error: the snapshot wasn't swapped", TIMEOUT,
+                new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        Settings settings = Settings.get(mContext);
+                        return settings != before && "10001".equals(settings.location) &&
+                                units.equals(settings.units);
+                    }
+                });
+        Settings after = Settings.get(mContext);
+        assertEquals(!before.isMetric, after.isMetric);
+        assertEquals("10001", Utility.getPreferredLocation(mContext));
+        assertTrue("Error: changing the units should drop the formatted strings",
+                generation != Utility.getFormatGeneration());
+        // The old snapshot is left as it was.
+        assertEquals(mLocation, before.location);
+    }
+}
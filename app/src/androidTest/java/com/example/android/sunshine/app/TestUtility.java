@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.test.AndroidTestCase;
+
+import java.text.DateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+public class TestUtility extends AndroidTestCase {
+
+    // December 20th, 2014, 00:00 UTC
+    private static final long TEST_DATE = 1419033600000L;
+
+    private TimeZone mDefaultZone;
+    private Locale mDefaultLocale;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDefaultZone = TimeZone.getDefault();
+        mDefaultLocale = Locale.getDefault();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TimeZone.setDefault(mDefaultZone);
+        Locale.setDefault(mDefaultLocale);
+        Utility.invalidateFormatCaches();
+        super.tearDown();
+    }
+
+    public void testFormatTemperature() {
+        StringBuilder builder = new StringBuilder();
+        for (int tenths = -1000; tenths <= 1000; tenths++) {
+            double temperature = tenths / 10.0;
+            for (boolean isMetric : new boolean[]{true, false}) {
+                double temp = isMetric ? temperature : 9*temperature/5+32;
+                String expected = String.format("%.0f", temp);
+                assertEquals("Error: formatting " + temperature, expected,
+                        Utility.formatTemperature(temperature, isMetric));
+
+                builder.setLength(0);
+                assertEquals("Error: appending " + temperature, expected,
+                        Utility.appendTemperature(builder, temperature, isMetric).toString());
+            }
+        }
+        // The cached strings are handed out again, not made again.
+        assertSame(Utility.formatTemperature(21.2, true), Utility.formatTemperature(20.9, true));
+    }
+
+    public void testFormatTemperatureEdges() {
+        double[] temperatures = {0.49999999999999994, -0.49999999999999994, 0.5, -0.5, 2.5,
+                -0.0, 149.5, -100.5, 1e20, Double.NaN, Double.NEGATIVE_INFINITY};
+        for (double temperature : temperatures) {
+            assertEquals("Error: formatting " + temperature,
+                    String.format("%.0f", temperature),
+                    Utility.formatTemperature(temperature, true));
+        }
+    }
+
+    public void testFormatTemperatureInLocaleDigits() {
+        for (String language : new String[]{"ar", "fa", "en"}) {
+            Locale.setDefault(new Locale(language));
+            Utility.invalidateFormatCaches();
+            for (int degrees = -20; degrees <= 40; degrees++) {
+                assertEquals("Error: formatting " + degrees + " in " + language,
+                        String.format("%.0f", (double) degrees),
+                        Utility.formatTemperature(degrees, true));
+            }
+        }
+    }
+
+    public void testFormatDate() {
+        for (int day = 0; day < 100; day++) {
+            long date = TEST_DATE + day * 1000L * 60 * 60 * 24;
+            assertEquals(DateFormat.getDateInstance().format(new Date(date)),
+                    Utility.formatDate(date));
+        }
+        assertSame("Error: the day string wasn't remembered",
+                Utility.formatDate(TEST_DATE), Utility.formatDate(TEST_DATE));
+    }
+
+    public void testInvalidateFormatCaches() {
+        TimeZone.setDefault(TimeZone.getTimeZone("Pacific/Kiritimati"));
+        Utility.invalidateFormatCaches();
+        String east = Utility.formatDate(TEST_DATE);
+
+        // Until the caches are invalidated, the string of the old time zone is kept.
+        TimeZone.setDefault(TimeZone.getTimeZone("Pacific/Pago_Pago"));
+        assertSame(east, Utility.formatDate(TEST_DATE));
+
+        int generation = Utility.getFormatGeneration();
+        Utility.invalidateFormatCaches();
+        assertTrue(generation != Utility.getFormatGeneration());
+        String west = Utility.formatDate(TEST_DATE);
+        assertFalse("Error: the day should differ across the date line", east.equals(west));
+        assertEquals(DateFormat.getDateInstance().format(new Date(TEST_DATE)), west);
+    }
+}
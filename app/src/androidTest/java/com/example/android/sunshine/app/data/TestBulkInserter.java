@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+public class TestBulkInserter extends AndroidTestCase {
+
+    private static final String[] COLUMNS = {
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDb = new WeatherDbHelper(mContext).getWritableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        super.tearDown();
+    }
+
+    private ContentValues[] createRows(int count) {
+        ContentValues[] rows = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            rows[i] = TestUtilities.createWeatherValues(1);
+            rows[i].put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + i);
+        }
+        return rows;
+    }
+
+    public void testChunkBoundaries() {
+        BulkInserter inserter = new BulkInserter(WeatherEntry.TABLE_NAME, COLUMNS,
+                SQLiteDatabase.CONFLICT_NONE, 4);
+        ContentValues[] rows = createRows(10);
+
+        assertEquals(10, inserter.insert(mDb, rows, 0));
+        assertEquals(10, inserter.getCommittedCount());
+
+        int[] boundaries = inserter.getChunkBoundaries();
+        assertEquals("Error: 10 rows in chunks of 4 should commit three chunks", 3, boundaries.length);
+        assertEquals(4, boundaries[0]);
+        assertEquals(8, boundaries[1]);
+        assertEquals(10, boundaries[2]);
+
+        assertEquals(10, DatabaseUtils.queryNumEntries(mDb, WeatherEntry.TABLE_NAME));
+    }
+
+    /*
+        A row that isn't a ContentValues at all makes the second chunk throw.  The first chunk
+        must stay committed, and retrying from getCommittedCount() must finish the job.
+     */
+    public void testRetryFromCommittedChunk() {
+        BulkInserter inserter = new BulkInserter(WeatherEntry.TABLE_NAME, COLUMNS,
+                SQLiteDatabase.CONFLICT_NONE, 4);
+        ContentValues[] rows = createRows(10);
+        ContentValues good = rows[5];
+        rows[5] = null;
+
+        try {
+            inserter.insert(mDb, rows, 0);
+            fail("Error: inserting a null row should have failed");
+        } catch (NullPointerException expected) {
+        }
+        assertEquals("Error: only the first chunk should be committed",
+                4, inserter.getCommittedCount());
+        assertEquals(4, DatabaseUtils.queryNumEntries(mDb, WeatherEntry.TABLE_NAME));
+
+        rows[5] = good;
+        assertEquals(10, inserter.insert(mDb, rows, inserter.getCommittedCount()));
+        assertEquals(10, DatabaseUtils.queryNumEntries(mDb, WeatherEntry.TABLE_NAME));
+    }
+}
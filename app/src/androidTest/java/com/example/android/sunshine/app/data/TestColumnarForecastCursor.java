@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.CursorWindow;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    The columnar cursor must read back exactly what the SQLiteCursor it was copied from did,
+    both directly and through a window filled for another process.
+ */
+public class TestColumnarForecastCursor extends AndroidTestCase {
+
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    private SQLiteDatabase mDb;
+    private long mLocationRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDb = new WeatherDbHelper(mContext).getWritableDatabase();
+        mLocationRowId = mDb.insert(LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        for (ContentValues values : TestProvider.createBulkInsertWeatherValues(mLocationRowId)) {
+            assertTrue(mDb.insert(WeatherEntry.TABLE_NAME, null, values) != -1);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        super.tearDown();
+    }
+
+    private Cursor queryForecast() {
+        return mDb.rawQuery(WeatherProvider.buildLocationSettingQuery(
+                WeatherProvider.WEATHER_WITH_LOCATION, false, FORECAST_COLUMNS,
+                WeatherEntry.COLUMN_DATE + " ASC"), new String[]{Long.toString(mLocationRowId)});
+    }
+
+    public void testSupports() {
+        assertTrue(ColumnarForecastCursor.supports(FORECAST_COLUMNS));
+        assertFalse(ColumnarForecastCursor.supports(null));
+        assertTrue(ColumnarForecastCursor.supports(new String[]{WeatherEntry.COLUMN_DAY}));
+        assertFalse(ColumnarForecastCursor.supports(new String[]{LocationEntry.COLUMN_ETAG}));
+    }
+
+    public void testSameValues() {
+        Cursor expected = queryForecast();
+        Cursor actual = ColumnarForecastCursor.copyOf(queryForecast());
+        assertEquals(expected.getCount(), actual.getCount());
+        assertTrue("Error: the forecast query returned no rows", actual.getCount() > 0);
+        assertEquals(WeatherEntry.COLUMN_SHORT_DESC,
+                actual.getColumnName(actual.getColumnIndexOrThrow(
+                        WeatherEntry.COLUMN_SHORT_DESC)));
+        assertEquals(0, actual.getColumnIndex(WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID));
+
+        while (expected.moveToNext()) {
+            assertTrue(actual.moveToNext());
+            for (int c = 0; c < FORECAST_COLUMNS.length; c++) {
+                String where = "row " + expected.getPosition() + ", column " + c;
+                assertEquals(where, expected.getLong(c), actual.getLong(c));
+                assertEquals(where, expected.getDouble(c), actual.getDouble(c));
+                assertEquals(where, expected.isNull(c), actual.isNull(c));
+            }
+            assertEquals(expected.getString(2), actual.getString(2));
+            assertEquals(expected.getString(5), actual.getString(5));
+            assertEquals(expected.getInt(6), actual.getInt(6));
+        }
+        assertFalse(actual.moveToNext());
+        expected.close();
+        actual.close();
+    }
+
+    @SuppressWarnings("deprecation")
+    public void testFillWindow() {
+        ColumnarForecastCursor cursor = ColumnarForecastCursor.copyOf(queryForecast());
+        CursorWindow window = new CursorWindow(false);
+        cursor.fillWindow(2, window);
+        assertEquals(2, window.getStartPosition());
+        assertEquals(cursor.getCount() - 2, window.getNumRows());
+
+        for (int row = 2; row < cursor.getCount(); row++) {
+            cursor.moveToPosition(row);
+            assertEquals(cursor.getLong(0), window.getLong(row, 0));
+            assertEquals(cursor.getLong(1), window.getLong(row, 1));
+            assertEquals(cursor.getString(2), window.getString(row, 2));
+            assertEquals(cursor.getDouble(3), window.getDouble(row, 3));
+            assertEquals(cursor.getString(5), window.getString(row, 5));
+            assertEquals(cursor.getInt(6), window.getInt(row, 6));
+        }
+        window.close();
+        cursor.close();
+    }
+
+    /*
+        day is nullable: rows written straight to the table leave it null.  A null must read
+        back as null, both directly and through a window, and not as a number.
+     */
+    @SuppressWarnings("deprecation")
+    public void testNullDay() {
+        mDb.execSQL("UPDATE " + WeatherEntry.TABLE_NAME + " SET " + WeatherEntry.COLUMN_DAY +
+                " = NULL");
+        mDb.execSQL("UPDATE " + WeatherEntry.TABLE_NAME + " SET " + WeatherEntry.COLUMN_DAY +
+                " = 2457000 WHERE " + WeatherEntry._ID + " % 2 = 0");
+        String sql = "SELECT " + WeatherEntry._ID + ", " + WeatherEntry.COLUMN_DAY + " FROM " +
+                WeatherEntry.TABLE_NAME + " ORDER BY " + WeatherEntry._ID;
+        Cursor expected = mDb.rawQuery(sql, null);
+        ColumnarForecastCursor actual = ColumnarForecastCursor.copyOf(mDb.rawQuery(sql, null));
+        assertTrue("Error: the query returned too few rows to mix nulls", actual.getCount() > 1);
+        while (expected.moveToNext()) {
+            assertTrue(actual.moveToNext());
+            String where = "row " + expected.getPosition();
+            assertEquals(where, expected.isNull(1), actual.isNull(1));
+            assertEquals(where, expected.getType(1), actual.getType(1));
+            assertEquals(where, expected.getString(1), actual.getString(1));
+            assertEquals(where, expected.getLong(1), actual.getLong(1));
+        }
+        expected.close();
+
+        CursorWindow window = new CursorWindow(false);
+        actual.fillWindow(0, window);
+        for (int row = 0; row < actual.getCount(); row++) {
+            actual.moveToPosition(row);
+            assertEquals(actual.isNull(1), window.isNull(row, 1));
+        }
+        window.close();
+        actual.close();
+    }
+}
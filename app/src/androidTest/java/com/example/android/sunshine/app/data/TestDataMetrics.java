@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.MetricsEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    The histogram has to place every duration within a sixteenth of its value, and the
+    provider has to count the calls made to it under the right URI and operation.
+ */
+public class TestDataMetrics extends AndroidTestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        DataMetrics.getInstance().reset();
+    }
+
+    public void testBuckets() {
+        long previousHighest = -1;
+        for (int bucket = 0; bucket < 30 * LatencyHistogram.SUB_BUCKETS; bucket++) {
+            long highest = LatencyHistogram.highestValueOf(bucket);
+            assertTrue("Error: bucket " + bucket + " is empty", highest > previousHighest);
+            assertEquals(bucket, LatencyHistogram.bucketOf(previousHighest + 1));
+            assertEquals(bucket, LatencyHistogram.bucketOf(highest));
+            previousHighest = highest;
+        }
+    }
+
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 1000; micros++) {
+            histogram.record(micros * 1000);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.count);
+        assertEquals(1000000, snapshot.maxNanos);
+        assertEquals(500500, snapshot.getMeanNanos());
+
+        long[][] expected = {{50, 500000}, {90, 900000}, {99, 990000}, {100, 1000000}};
+        for (long[] percentile : expected) {
+            long value = snapshot.getValueAtPercentile(percentile[0]);
+            assertTrue("Error: p" + percentile[0] + " was " + value,
+                    value >= percentile[1] &&
+                            value <= percentile[1] + percentile[1] / LatencyHistogram.SUB_BUCKETS);
+        }
+    }
+
+    public void testProviderQueryIsRecorded() {
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                TestProvider.createBulkInsertWeatherValues(locationRowId));
+
+        Cursor weather = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, null);
+        int weatherRows = weather.getCount();
+        weather.close();
+
+        Cursor metrics = mContext.getContentResolver().query(
+                MetricsEntry.CONTENT_URI, null, null, null, null);
+        boolean found = false;
+        while (metrics.moveToNext()) {
+            int match = metrics.getInt(metrics.getColumnIndex(MetricsEntry.COLUMN_MATCH));
+            String operation = metrics.getString(
+                    metrics.getColumnIndex(MetricsEntry.COLUMN_OPERATION));
+            if (match == WeatherProvider.WEATHER_WITH_LOCATION && "query".equals(operation)) {
+                found = true;
+                assertEquals(1, metrics.getLong(metrics.getColumnIndex(MetricsEntry.COLUMN_COUNT)));
+                assertEquals(weatherRows,
+                        metrics.getLong(metrics.getColumnIndex(MetricsEntry.COLUMN_ROWS)));
+                assertTrue(metrics.getLong(metrics.getColumnIndex(MetricsEntry.COLUMN_P99)) <=
+                        metrics.getLong(metrics.getColumnIndex(MetricsEntry.COLUMN_MAX)));
+            }
+        }
+        metrics.close();
+        assertTrue("Error: the weather query was not recorded", found);
+    }
+}
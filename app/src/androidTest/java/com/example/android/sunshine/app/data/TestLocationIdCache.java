@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.ContentObserver;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+public class TestLocationIdCache extends AndroidTestCase {
+
+    public void testLeastRecentlyUsedIsDropped() {
+        LocationIdCache cache = new LocationIdCache(2);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        // Touch "a" so that "b" is the least recently used.
+        assertEquals(1, cache.get("a"));
+        cache.put("c", 3);
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.get("a"));
+        assertEquals("Error: the least recently used setting should have been dropped",
+                LocationIdCache.NOT_CACHED, cache.get("b"));
+        assertEquals(3, cache.get("c"));
+    }
+
+    public void testLocationNotificationInvalidates() {
+        final LocationIdCache cache = new LocationIdCache(LocationIdCache.DEFAULT_MAX_ENTRIES);
+        ContentObserver observer = cache.register(mContext.getContentResolver());
+        cache.put("a", 1);
+
+        mContext.getContentResolver().notifyChange(LocationEntry.buildLocationUri(1), null);
+
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return cache.getInvalidationCount() > 0;
+            }
+        }.run();
+        assertEquals(LocationIdCache.NOT_CACHED, cache.get("a"));
+        mContext.getContentResolver().unregisterContentObserver(observer);
+    }
+}
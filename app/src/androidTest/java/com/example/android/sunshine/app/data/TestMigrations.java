@@ -0,0 +1,393 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.PurchaseContract.CustomerEntry;
+import com.example.android.sunshine.app.data.PurchaseContract.CustomerSpendEntry;
+import com.example.android.sunshine.app.data.PurchaseContract.ProductEntry;
+import com.example.android.sunshine.app.data.PurchaseContract.ProductSalesEntry;
+import com.example.android.sunshine.app.data.PurchaseContract.RelationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+/*
+    Builds a weather database as each past version of the app left it, upgrades it with
+    WeatherDbHelper and checks that the rows are still there and that the schema ends up the
+    same as a new install's.  The purchase database gets the same treatment with
+    PurchaseDbHelper.  The past schemas are written out literally here, so that a change to the
+    current constants can't quietly rewrite history.
+ */
+public class TestMigrations extends AndroidTestCase {
+
+    private static final long DAY_IN_MILLIS = 1000*60*60*24;
+    private static final int WEATHER_ROWS = 5;
+
+    // What each version added to the one before it, starting with version 2.
+    private static final String[][] SCHEMA_HISTORY = {
+            // 2
+            {
+                    "CREATE TABLE location (_id INTEGER PRIMARY KEY," +
+                            "location_setting TEXT UNIQUE NOT NULL, city_name TEXT NOT NULL, " +
+                            "coord_lat REAL NOT NULL, coord_long REAL NOT NULL );",
+                    "CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                            "location_id INTEGER NOT NULL, date INTEGER NOT NULL, " +
+                            "short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL," +
+                            "min REAL NOT NULL, max REAL NOT NULL, humidity REAL NOT NULL, " +
+                            "pressure REAL NOT NULL, wind REAL NOT NULL, degrees REAL NOT NULL, " +
+                            " FOREIGN KEY (location_id) REFERENCES location (_id), " +
+                            " UNIQUE (date, location_id) ON CONFLICT REPLACE);"
+            },
+            // 3
+            {
+                    "CREATE INDEX weather_location_date_idx ON weather " +
+                            "(location_id, date, short_desc, max, min, weather_id);"
+            },
+            // 4
+            {
+                    "ALTER TABLE location ADD COLUMN etag TEXT",
+                    "ALTER TABLE location ADD COLUMN last_modified TEXT"
+            },
+            // 5
+            {
+                    "ALTER TABLE weather ADD COLUMN day INTEGER",
+                    "DROP INDEX weather_location_date_idx",
+                    "CREATE INDEX weather_location_day_idx ON weather " +
+                            "(location_id, day, date, short_desc, max, min, weather_id);",
+                    "CREATE TABLE weather_partition (name TEXT PRIMARY KEY, " +
+                            "first_day INTEGER NOT NULL, last_day INTEGER NOT NULL);"
+            },
+            // 6
+            {
+                    "ALTER TABLE location ADD COLUMN retention_days INTEGER"
+            },
+            // 7 only adds triggers for the archive tables there are, and these have none.
+            {
+            }
+    };
+
+    private static final int FIRST_VERSION = 2;
+    private static final int CURRENT_VERSION = FIRST_VERSION + SCHEMA_HISTORY.length - 1;
+
+    // The same for the purchase database, starting with version 1.
+    private static final String[][] PURCHASE_SCHEMA_HISTORY = {
+            // 1
+            {
+                    "CREATE TABLE customer (_id INTEGER PRIMARY KEY,name TEXT NOT NULL  );",
+                    "CREATE TABLE product (_id INTEGER PRIMARY KEY,name TEXT NOT NULL, " +
+                            "price REAL NOT NULL  );",
+                    "CREATE TABLE relation (_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                            "customer_id INTEGER NOT NULL, product_id INTEGER NOT NULL, " +
+                            " FOREIGN KEY (customer_id) REFERENCES customer (_id), " +
+                            " FOREIGN KEY (product_id) REFERENCES product (_id) ); "
+            },
+            // 2
+            {
+                    "CREATE INDEX relation_customer_idx ON relation (customer_id, product_id);",
+                    "CREATE INDEX relation_product_idx ON relation (product_id, customer_id);"
+            },
+            // 3 also added the triggers on relation and product that keep these current.
+            {
+                    "CREATE TABLE customer_spend (customer_id INTEGER PRIMARY KEY, " +
+                            "spend REAL NOT NULL, purchases INTEGER NOT NULL);",
+                    "CREATE TABLE product_sales (product_id INTEGER PRIMARY KEY, " +
+                            "units INTEGER NOT NULL, revenue REAL NOT NULL);",
+                    "CREATE INDEX product_sales_units_idx ON product_sales (units);"
+            }
+    };
+
+    private static final int PURCHASE_FIRST_VERSION = 1;
+    private static final int PURCHASE_CURRENT_VERSION =
+            PURCHASE_FIRST_VERSION + PURCHASE_SCHEMA_HISTORY.length - 1;
+
+    // Customer and product of each purchase, with two customers buying the first product,
+    // one of them twice.
+    private static final long[][] PURCHASES = {{1, 1}, {1, 2}, {2, 1}, {1, 1}};
+    private static final double[] PRICES = {50, 80};
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mContext.deleteDatabase(PurchaseDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testHistoryIsCurrent() {
+        WeatherDbHelper helper = new WeatherDbHelper(mContext);
+        assertEquals("Error: a new schema version needs its entry in SCHEMA_HISTORY",
+                CURRENT_VERSION, helper.getWritableDatabase().getVersion());
+        helper.close();
+    }
+
+    public void testUpgradeFromEveryVersion() {
+        String expectedSchema = describeNewInstall();
+        for (int version = FIRST_VERSION; version < CURRENT_VERSION; version++) {
+            mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+            long[] dates = createDatabase(version);
+
+            WeatherDbHelper helper = new WeatherDbHelper(mContext);
+            SQLiteDatabase db = helper.getWritableDatabase();
+            String error = "upgrading from version " + version + ". ";
+
+            assertEquals("Error: not every step ran " + error,
+                    CURRENT_VERSION - version, helper.getMigrator().getStepMillis().size());
+            assertEquals("Error: the schema differs from a new install's after " + error,
+                    expectedSchema, describeSchema(db));
+            checkData(db, dates, error);
+            helper.close();
+        }
+    }
+
+    public void testPurchaseHistoryIsCurrent() {
+        mContext.deleteDatabase(PurchaseDbHelper.DATABASE_NAME);
+        PurchaseDbHelper helper = new PurchaseDbHelper(mContext);
+        assertEquals("Error: a new schema version needs its entry in PURCHASE_SCHEMA_HISTORY",
+                PURCHASE_CURRENT_VERSION, helper.getWritableDatabase().getVersion());
+        helper.close();
+    }
+
+    public void testUpgradePurchasesFromEveryVersion() {
+        mContext.deleteDatabase(PurchaseDbHelper.DATABASE_NAME);
+        PurchaseDbHelper newInstall = new PurchaseDbHelper(mContext);
+        String expectedSchema = describeSchema(newInstall.getWritableDatabase());
+        newInstall.close();
+
+        for (int version = PURCHASE_FIRST_VERSION; version < PURCHASE_CURRENT_VERSION;
+             version++) {
+            mContext.deleteDatabase(PurchaseDbHelper.DATABASE_NAME);
+            createPurchaseDatabase(version);
+
+            PurchaseDbHelper helper = new PurchaseDbHelper(mContext);
+            SQLiteDatabase db = helper.getWritableDatabase();
+            String error = "upgrading purchases from version " + version + ". ";
+
+            assertEquals("Error: not every step ran " + error,
+                    PURCHASE_CURRENT_VERSION - version,
+                    helper.getMigrator().getStepMillis().size());
+            assertEquals("Error: the schema differs from a new install's after " + error,
+                    expectedSchema, describeSchema(db));
+            checkPurchases(db, error);
+            helper.close();
+        }
+    }
+
+    /*
+        Writes a database of the given version with a location and a few days of weather, and
+        returns the dates of the weather rows.
+     */
+    private long[] createDatabase(int version) {
+        File path = mContext.getDatabasePath(WeatherDbHelper.DATABASE_NAME);
+        path.getParentFile().mkdirs();
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(path, null);
+        for (int v = FIRST_VERSION; v <= version; v++) {
+            for (String sql : SCHEMA_HISTORY[v - FIRST_VERSION]) {
+                db.execSQL(sql);
+            }
+        }
+
+        long locationId = db.insert(LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        long[] dates = new long[WEATHER_ROWS];
+        for (int i = 0; i < WEATHER_ROWS; i++) {
+            dates[i] = WeatherContract.normalizeDate(TestUtilities.TEST_DATE + i * DAY_IN_MILLIS);
+            ContentValues values = TestUtilities.createWeatherValues(locationId);
+            values.put(WeatherEntry.COLUMN_DATE, dates[i]);
+            if (version >= 5) {
+                values.put(WeatherEntry.COLUMN_DAY, DayNormalizer.julianDay(dates[i]));
+            }
+            assertTrue(db.insert(WeatherEntry.TABLE_NAME, null, values) != -1);
+        }
+        db.setVersion(version);
+        db.close();
+        return dates;
+    }
+
+    /*
+        Writes a purchase database of the given version with two customers, two products and
+        the purchases of PURCHASES.
+     */
+    private void createPurchaseDatabase(int version) {
+        File path = mContext.getDatabasePath(PurchaseDbHelper.DATABASE_NAME);
+        path.getParentFile().mkdirs();
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(path, null);
+        for (int v = PURCHASE_FIRST_VERSION; v <= version; v++) {
+            for (String sql : PURCHASE_SCHEMA_HISTORY[v - PURCHASE_FIRST_VERSION]) {
+                db.execSQL(sql);
+            }
+        }
+
+        assertEquals(1, db.insert(CustomerEntry.TABLE_NAME, null,
+                TestPurchaseTables.createJackCustomerValues()));
+        assertEquals(2, db.insert(CustomerEntry.TABLE_NAME, null,
+                TestPurchaseTables.createMaryCustomerValues()));
+        assertEquals(1, db.insert(ProductEntry.TABLE_NAME, null,
+                TestPurchaseTables.createTShirtProductValues()));
+        assertEquals(2, db.insert(ProductEntry.TABLE_NAME, null,
+                TestPurchaseTables.createSkirtProductValues()));
+        for (long[] purchase : PURCHASES) {
+            assertTrue(db.insert(RelationEntry.TABLE_NAME, null,
+                    TestPurchaseTables.createRelationValues(purchase[0], purchase[1])) != -1);
+        }
+        db.setVersion(version);
+        db.close();
+    }
+
+    /*
+        The purchases must all be there, in order, and the aggregates rebuilt from them.
+     */
+    private void checkPurchases(SQLiteDatabase db, String error) {
+        Cursor relation = db.query(RelationEntry.TABLE_NAME, new String[]{
+                RelationEntry.COLUMN_CUSTOMER_KEY, RelationEntry.COLUMN_PRODUCT_KEY},
+                null, null, null, null, RelationEntry._ID);
+        try {
+            assertEquals("Error: purchases were lost " + error, PURCHASES.length,
+                    relation.getCount());
+            for (int i = 0; relation.moveToNext(); i++) {
+                assertEquals("Error: purchase " + i + " changed " + error,
+                        PURCHASES[i][0], relation.getLong(0));
+                assertEquals("Error: purchase " + i + " changed " + error,
+                        PURCHASES[i][1], relation.getLong(1));
+            }
+        } finally {
+            relation.close();
+        }
+
+        double[] spend = new double[2];
+        int[] purchases = new int[2];
+        int[] units = new int[2];
+        for (long[] purchase : PURCHASES) {
+            int customer = (int) purchase[0] - 1;
+            int product = (int) purchase[1] - 1;
+            spend[customer] += PRICES[product];
+            purchases[customer]++;
+            units[product]++;
+        }
+
+        Cursor customerSpend = db.query(CustomerSpendEntry.TABLE_NAME, new String[]{
+                CustomerSpendEntry.COLUMN_CUSTOMER_KEY, CustomerSpendEntry.COLUMN_SPEND,
+                CustomerSpendEntry.COLUMN_PURCHASES},
+                null, null, null, null, CustomerSpendEntry.COLUMN_CUSTOMER_KEY);
+        try {
+            assertEquals("Error: customer_spend wasn't rebuilt " + error, 2,
+                    customerSpend.getCount());
+            for (int i = 0; customerSpend.moveToNext(); i++) {
+                assertEquals(i + 1, customerSpend.getLong(0));
+                assertEquals("Error: wrong spend " + error, spend[i],
+                        customerSpend.getDouble(1), 0.001);
+                assertEquals("Error: wrong purchases " + error, purchases[i],
+                        customerSpend.getInt(2));
+            }
+        } finally {
+            customerSpend.close();
+        }
+
+        Cursor productSales = db.query(ProductSalesEntry.TABLE_NAME, new String[]{
+                ProductSalesEntry.COLUMN_PRODUCT_KEY, ProductSalesEntry.COLUMN_UNITS,
+                ProductSalesEntry.COLUMN_REVENUE},
+                null, null, null, null, ProductSalesEntry.COLUMN_PRODUCT_KEY);
+        try {
+            assertEquals("Error: product_sales wasn't rebuilt " + error, 2,
+                    productSales.getCount());
+            for (int i = 0; productSales.moveToNext(); i++) {
+                assertEquals(i + 1, productSales.getLong(0));
+                assertEquals("Error: wrong units " + error, units[i], productSales.getInt(1));
+                assertEquals("Error: wrong revenue " + error, units[i] * PRICES[i],
+                        productSales.getDouble(2), 0.001);
+            }
+        } finally {
+            productSales.close();
+        }
+        assertEquals("Error: the rebuilt aggregates drifted " + error, 0,
+                PurchaseAggregates.rebuild(db));
+    }
+
+    private void checkData(SQLiteDatabase db, long[] dates, String error) {
+        Cursor location = db.query(LocationEntry.TABLE_NAME, null, null, null, null, null, null);
+        TestUtilities.validateCursor("Error: the location was lost " + error, location,
+                TestUtilities.createNorthPoleLocationValues());
+
+        Cursor weather = db.query(WeatherEntry.TABLE_NAME, null, null, null, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            assertEquals("Error: weather rows were lost " + error, dates.length,
+                    weather.getCount());
+            for (int i = 0; weather.moveToNext(); i++) {
+                ContentValues expected = TestUtilities.createWeatherValues(
+                        weather.getLong(weather.getColumnIndex(WeatherEntry.COLUMN_LOC_KEY)));
+                expected.put(WeatherEntry.COLUMN_DATE, dates[i]);
+                expected.put(WeatherEntry.COLUMN_DAY, DayNormalizer.julianDay(dates[i]));
+                TestUtilities.validateCurrentRecord("Error: weather row " + i + " changed " +
+                        error, weather, expected);
+            }
+        } finally {
+            weather.close();
+        }
+    }
+
+    private String describeNewInstall() {
+        WeatherDbHelper helper = new WeatherDbHelper(mContext);
+        String schema = describeSchema(helper.getWritableDatabase());
+        helper.close();
+        return schema;
+    }
+
+    // The columns of every table and the names of the indexes, sorted.
+    private static String describeSchema(SQLiteDatabase db) {
+        Set<String> tables = new HashSet<String>();
+        Set<String> items = new TreeSet<String>();
+        Cursor master = db.rawQuery("SELECT type, name FROM sqlite_master " +
+                "WHERE name NOT LIKE 'sqlite_%' AND name != 'android_metadata'", null);
+        try {
+            while (master.moveToNext()) {
+                items.add(master.getString(0) + " " + master.getString(1));
+                if ("table".equals(master.getString(0))) {
+                    tables.add(master.getString(1));
+                }
+            }
+        } finally {
+            master.close();
+        }
+        for (String table : tables) {
+            Cursor columns = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+            try {
+                int name = columns.getColumnIndex("name");
+                int type = columns.getColumnIndex("type");
+                while (columns.moveToNext()) {
+                    items.add(table + "." + columns.getString(name) + " " +
+                            columns.getString(type));
+                }
+            } finally {
+                columns.close();
+            }
+        }
+        return items.toString();
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+public class TestNotificationCoalescer extends AndroidTestCase {
+
+    // Long enough that nothing is sent behind the test's back; the tests flush explicitly.
+    private static final long WINDOW_MILLIS = 60 * 1000;
+
+    private NotificationCoalescer mCoalescer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCoalescer = new NotificationCoalescer(mContext.getContentResolver(), WINDOW_MILLIS);
+    }
+
+    public void testChildUrisCollapseIntoParent() {
+        mCoalescer.notifyChange(WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION));
+        mCoalescer.notifyChange(WeatherEntry.buildWeatherLocationWithDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE));
+        mCoalescer.notifyChange(WeatherEntry.CONTENT_URI);
+        mCoalescer.notifyChange(WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION));
+        mCoalescer.notifyChange(LocationEntry.CONTENT_URI);
+        mCoalescer.flush();
+
+        assertEquals(5, mCoalescer.getRequestedCount());
+        assertEquals("Error: only weather and location should have been notified",
+                2, mCoalescer.getDeliveredCount());
+        assertEquals(3, mCoalescer.getSuppressedCount());
+    }
+
+    public void testDuplicatesAreSentOnce() {
+        for (int i = 0; i < 10; i++) {
+            mCoalescer.notifyChange(WeatherEntry.CONTENT_URI);
+        }
+        mCoalescer.flush();
+
+        assertEquals(1, mCoalescer.getDeliveredCount());
+        assertEquals(9, mCoalescer.getSuppressedCount());
+    }
+
+    public void testSuspendHoldsNotifications() {
+        mCoalescer.suspend();
+        mCoalescer.suspend();
+        mCoalescer.notifyChange(LocationEntry.CONTENT_URI);
+        mCoalescer.notifyChange(WeatherEntry.CONTENT_URI);
+
+        mCoalescer.flush();
+        assertEquals("Error: nothing should be sent while suspended",
+                0, mCoalescer.getDeliveredCount());
+
+        mCoalescer.resume();
+        mCoalescer.flush();
+        assertEquals("Error: nothing should be sent until every suspend is resumed",
+                0, mCoalescer.getDeliveredCount());
+
+        mCoalescer.resume();
+        mCoalescer.flush();
+        assertEquals(2, mCoalescer.getDeliveredCount());
+    }
+
+    /*
+        Another thread's changes go out while this one is suspended; this one's wait for its
+        resume.
+     */
+    public void testSuspendIsPerThread() throws InterruptedException {
+        mCoalescer.suspend();
+        mCoalescer.notifyChange(WeatherEntry.CONTENT_URI);
+        Thread other = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mCoalescer.notifyChange(LocationEntry.CONTENT_URI);
+            }
+        });
+        other.start();
+        other.join();
+
+        mCoalescer.flush();
+        assertEquals("Error: only the other thread's change should be sent",
+                1, mCoalescer.getDeliveredCount());
+
+        mCoalescer.resume();
+        mCoalescer.flush();
+        assertEquals(2, mCoalescer.getDeliveredCount());
+    }
+}
@@ -16,6 +16,8 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.pm.PackageManager;
@@ -30,6 +32,8 @@ import android.util.Log;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.util.ArrayList;
+
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
     that at least the basic functionality has been implemented correctly.
@@ -512,4 +516,412 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    /*
+        Only a page or a single day is copied into a columnar cursor; an unpaged forecast stays
+        in the SQLiteCursor's window rather than being held twice.
+     */
+    public void testColumnarCursorOnlyForBoundedQueries() {
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(ContentUris.parseId(locationUri)));
+
+        WeatherProvider provider = (WeatherProvider) mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherEntry.CONTENT_URI).getLocalContentProvider();
+        String[] projection = new String[]{WeatherEntry.COLUMN_DATE, WeatherEntry.COLUMN_DAY};
+
+        Cursor cursor = provider.query(WeatherEntry.buildWeatherLocationWithStartDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE), projection, null, null, null);
+        assertFalse("Error: an unpaged forecast should not be copied",
+                cursor instanceof ColumnarForecastCursor);
+        cursor.close();
+
+        cursor = provider.query(WeatherEntry.buildWeatherLocationPage(TestUtilities.TEST_LOCATION,
+                TestUtilities.TEST_DATE, 0, 0, 4), projection, null, null, null);
+        assertTrue("Error: a page should be copied", cursor instanceof ColumnarForecastCursor);
+        assertEquals(4, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        Reading the forecast a page at a time, each page after the last row of the one before,
+        must return every day once and in order, and then an empty page.
+     */
+    public void testPagedWeatherQuery() {
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        ContentValues[] values = createBulkInsertWeatherValues(ContentUris.parseId(locationUri));
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+
+        final int pageSize = 4;
+        String[] projection = new String[]{WeatherEntry.COLUMN_DATE, WeatherEntry.COLUMN_DAY};
+        int afterDay = 0;
+        long afterDate = 0;
+        int day = 0;
+        while (true) {
+            Uri uri = WeatherEntry.buildWeatherLocationPage(TestUtilities.TEST_LOCATION,
+                    TestUtilities.TEST_DATE, afterDay, afterDate, pageSize);
+            // The sort order asked for is ignored: pages are always in date order.
+            Cursor cursor = mContext.getContentResolver().query(uri, projection, null, null,
+                    WeatherEntry.COLUMN_DATE + " DESC");
+            int count = cursor.getCount();
+            assertEquals("Error: page after day " + day + " has the wrong size",
+                    Math.min(pageSize, BULK_INSERT_RECORDS_TO_INSERT - day), count);
+            while (cursor.moveToNext()) {
+                long date = values[day].getAsLong(WeatherEntry.COLUMN_DATE);
+                assertEquals("Error: day " + day + " is out of place",
+                        WeatherContract.normalizeDate(date), cursor.getLong(0));
+                afterDate = cursor.getLong(0);
+                afterDay = cursor.getInt(1);
+                day++;
+            }
+            cursor.close();
+            if (count == 0) {
+                break;
+            }
+        }
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, day);
+    }
+
+    /*
+        Rows written in another time zone can share a day with the rows written in this one.
+        When a page ends on the first of two rows on a day, the next page must start with the
+        second.
+     */
+    public void testPagedWeatherQuerySameDay() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues[] values = createBulkInsertWeatherValues(locationRowId);
+        long hourInMillis = 60 * 60 * 1000;
+
+        // Written straight to the table, so the provider doesn't normalize the extra date.
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        long[] dates = new long[4];
+        int[] days = new int[4];
+        for (int i = 0; i < dates.length; i++) {
+            // The second and third rows are on the same day, an hour apart.
+            int source = i < 2 ? i : i - 1;
+            long date = WeatherContract.normalizeDate(
+                    values[source].getAsLong(WeatherEntry.COLUMN_DATE));
+            days[i] = DayNormalizer.julianDay(date);
+            dates[i] = i == 2 ? date + hourInMillis : date;
+            ContentValues row = new ContentValues(values[source]);
+            row.put(WeatherEntry.COLUMN_DATE, dates[i]);
+            row.put(WeatherEntry.COLUMN_DAY, days[i]);
+            assertTrue(db.insert(WeatherEntry.TABLE_NAME, null, row) != -1);
+        }
+        db.close();
+
+        String[] projection = new String[]{WeatherEntry.COLUMN_DATE, WeatherEntry.COLUMN_DAY};
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationPage(TestUtilities.TEST_LOCATION,
+                        TestUtilities.TEST_DATE, 0, 0, 2),
+                projection, null, null, null);
+        assertEquals(2, cursor.getCount());
+        assertTrue(cursor.moveToLast());
+        assertEquals("Error: the first page should end on the first row of the shared day",
+                dates[1], cursor.getLong(0));
+        int afterDay = cursor.getInt(1);
+        cursor.close();
+        assertEquals(days[2], afterDay);
+
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationPage(TestUtilities.TEST_LOCATION,
+                        TestUtilities.TEST_DATE, afterDay, dates[1], 2),
+                projection, null, null, null);
+        assertEquals(2, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: the second row of the shared day was skipped",
+                dates[2], cursor.getLong(0));
+        assertTrue(cursor.moveToNext());
+        assertEquals(dates[3], cursor.getLong(0));
+        cursor.close();
+    }
+
+    public void testBulkInsertLocation() {
+        ContentValues northPole = TestUtilities.createNorthPoleLocationValues();
+        ContentValues sunnydale = new ContentValues();
+        sunnydale.put(LocationEntry.COLUMN_LOCATION_SETTING, "Sunnydale, CA");
+        sunnydale.put(LocationEntry.COLUMN_CITY_NAME, "Sunnydale");
+        sunnydale.put(LocationEntry.COLUMN_COORD_LAT, 34.425833);
+        sunnydale.put(LocationEntry.COLUMN_COORD_LONG, -119.714167);
+
+        TestUtilities.TestContentObserver locationObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(LocationEntry.CONTENT_URI, true, locationObserver);
+
+        // The repeated North Pole row breaks the UNIQUE location_setting and must be skipped.
+        int insertCount = mContext.getContentResolver().bulkInsert(LocationEntry.CONTENT_URI,
+                new ContentValues[]{northPole, sunnydale, new ContentValues(northPole)});
+
+        locationObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(locationObserver);
+
+        assertEquals("Error: the duplicate location should not have been inserted", 2, insertCount);
+
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                null, null, null, LocationEntry.COLUMN_LOCATION_SETTING + " ASC");
+        assertEquals(2, cursor.getCount());
+        cursor.moveToFirst();
+        TestUtilities.validateCurrentRecord("testBulkInsertLocation.  Error validating first location.",
+                cursor, northPole);
+        cursor.moveToNext();
+        TestUtilities.validateCurrentRecord("testBulkInsertLocation.  Error validating second location.",
+                cursor, sunnydale);
+        cursor.close();
+    }
+
+    /*
+        A batch that inserts a location and then weather rows that refer back to it.
+     */
+    public void testApplyBatch() throws Exception {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(TestUtilities.createNorthPoleLocationValues())
+                .build());
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(0);
+        for (ContentValues values : weatherValues) {
+            values.remove(WeatherEntry.COLUMN_LOC_KEY);
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(values)
+                    .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0)
+                    .withYieldAllowed(true)
+                    .build());
+        }
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+
+        ContentProviderResult[] results = mContext.getContentResolver()
+                .applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        assertEquals(operations.size(), results.length);
+        long locationRowId = ContentUris.parseId(results[0].uri);
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.moveToFirst();
+        for ( int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext() ) {
+            weatherValues[i].put(WeatherEntry.COLUMN_LOC_KEY, locationRowId);
+            TestUtilities.validateCurrentRecord("testApplyBatch.  Error validating WeatherEntry " + i,
+                    cursor, weatherValues[i]);
+        }
+        cursor.close();
+    }
+
+    /*
+        Syncing the same forecast twice must not touch any row, and a changed day must be
+        updated in place without getting a new _id.
+     */
+    public void testSyncWeather() {
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        WeatherProvider provider = (WeatherProvider) mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherEntry.CONTENT_URI).getLocalContentProvider();
+
+        int written = mContext.getContentResolver().bulkInsert(WeatherEntry.buildWeatherSyncUri(),
+                createBulkInsertWeatherValues(locationRowId));
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, written);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, provider.getLastSyncResult().inserted);
+
+        long[] ids = queryWeatherIds();
+
+        written = mContext.getContentResolver().bulkInsert(WeatherEntry.buildWeatherSyncUri(),
+                createBulkInsertWeatherValues(locationRowId));
+        assertEquals("Error: an unchanged forecast should not write anything", 0, written);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, provider.getLastSyncResult().unchanged);
+
+        ContentValues[] changed = createBulkInsertWeatherValues(locationRowId);
+        changed[3].put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        written = mContext.getContentResolver().bulkInsert(WeatherEntry.buildWeatherSyncUri(), changed);
+        assertEquals(1, written);
+        assertEquals(1, provider.getLastSyncResult().updated);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT - 1, provider.getLastSyncResult().unchanged);
+
+        long[] idsAfterUpdate = queryWeatherIds();
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals("Error: syncing should keep the _id of row " + i, ids[i], idsAfterUpdate[i]);
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        cursor.moveToPosition(3);
+        TestUtilities.validateCurrentRecord("testSyncWeather.  Error validating the updated day.",
+                cursor, changed[3]);
+        cursor.close();
+    }
+
+    /*
+        A row without a location or a date is skipped, as a plain bulk insert skips it, rather
+        than failing the whole sync.
+     */
+    public void testSyncSkipsRowsWithoutKeys() {
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        ContentValues[] values = createBulkInsertWeatherValues(ContentUris.parseId(locationUri));
+        values[1].remove(WeatherEntry.COLUMN_LOC_KEY);
+        values[2].remove(WeatherEntry.COLUMN_DATE);
+
+        WeatherProvider provider = (WeatherProvider) mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherEntry.CONTENT_URI).getLocalContentProvider();
+        int written = mContext.getContentResolver().bulkInsert(WeatherEntry.buildWeatherSyncUri(),
+                values);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT - 2, written);
+        assertEquals(2, provider.getLastSyncResult().skipped);
+    }
+
+    /*
+        Inserting the same location setting twice through the insert-or-get URI must return
+        the same row, only write the validators the second time, and fill the id cache.
+        Deleting the location must empty the cache straight away.
+     */
+    public void testInsertOrGetLocation() {
+        WeatherProvider provider = (WeatherProvider) mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherEntry.CONTENT_URI).getLocalContentProvider();
+        LocationIdCache cache = provider.getLocationIdCache();
+        // Keep the insert's own notification from clearing the cache under the test.
+        provider.getNotificationCoalescer().suspend();
+        try {
+            checkInsertOrGetLocation(cache);
+        } finally {
+            provider.getNotificationCoalescer().resume();
+        }
+    }
+
+    private void checkInsertOrGetLocation(LocationIdCache cache) {
+        ContentValues northPole = TestUtilities.createNorthPoleLocationValues();
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.buildLocationInsertOrGetUri(), northPole));
+        assertTrue("Error: insert-or-get did not insert the location", locationRowId != -1);
+        assertEquals(locationRowId, cache.get(TestUtilities.TEST_LOCATION));
+
+        ContentValues again = new ContentValues(northPole);
+        again.put(LocationEntry.COLUMN_CITY_NAME, "Somewhere else");
+        again.put(LocationEntry.COLUMN_ETAG, "\"v2\"");
+        long againRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.buildLocationInsertOrGetUri(), again));
+        assertEquals("Error: insert-or-get should return the existing row", locationRowId, againRowId);
+
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.moveToFirst();
+        northPole.put(LocationEntry.COLUMN_ETAG, "\"v2\"");
+        TestUtilities.validateCurrentRecord("testInsertOrGetLocation.  Only the validators " +
+                "of an existing location should be written.", cursor, northPole);
+        cursor.close();
+
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        assertEquals("Error: deleting locations should empty the id cache",
+                LocationIdCache.NOT_CACHED, cache.get(TestUtilities.TEST_LOCATION));
+    }
+
+    /*
+        Archiving must not change what the weather URIs return, while a query that starts after
+        the archived days only reads the active table.  Dropping the archive takes its days away.
+     */
+    public void testArchiveWeather() {
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        long locationRowId = ContentUris.parseId(locationUri);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+
+        WeatherProvider provider = (WeatherProvider) mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherEntry.CONTENT_URI).getLocalContentProvider();
+        long millisecondsInADay = 1000*60*60*24;
+        int firstDay = DayNormalizer.julianDay(WeatherContract.normalizeDate(TestUtilities.TEST_DATE));
+        int cutoffDay = firstDay + 4;
+        long cutoffDate = TestUtilities.TEST_DATE + 4 * millisecondsInADay;
+
+        assertEquals("Error: the days before the cutoff should have been archived",
+                4, provider.archiveWeather(cutoffDay));
+
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, countRows(WeatherEntry.CONTENT_URI));
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT,
+                countRows(WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION)));
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, countRows(
+                WeatherEntry.buildWeatherLocationWithStartDate(
+                        TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE)));
+        assertEquals(1, countRows(WeatherEntry.buildWeatherLocationWithDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE + millisecondsInADay)));
+
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT - 4, countRows(
+                WeatherEntry.buildWeatherLocationWithStartDate(
+                        TestUtilities.TEST_LOCATION, cutoffDate)));
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getReadableDatabase();
+        assertEquals("Error: a query after the archived days should only read the weather table",
+                WeatherEntry.TABLE_NAME,
+                provider.getPartitions().getTables(db, cutoffDay, Integer.MAX_VALUE));
+        db.close();
+
+        assertEquals(1, provider.dropWeatherPartitionsBefore(cutoffDay));
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT - 4, countRows(WeatherEntry.CONTENT_URI));
+        assertEquals(0, countRows(WeatherEntry.buildWeatherLocationWithDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE)));
+    }
+
+    /*
+        Writing a day that has already been archived must replace the archived row, not add a
+        second one next to it.
+     */
+    public void testWriteArchivedWeather() {
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        ContentValues[] values = createBulkInsertWeatherValues(ContentUris.parseId(locationUri));
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+
+        WeatherProvider provider = (WeatherProvider) mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherEntry.CONTENT_URI).getLocalContentProvider();
+        int firstDay = DayNormalizer.julianDay(WeatherContract.normalizeDate(TestUtilities.TEST_DATE));
+        assertEquals(4, provider.archiveWeather(firstDay + 4));
+
+        // Every day again, the archived ones with new values, through both kinds of write.
+        for (ContentValues value : values) {
+            value.put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        }
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, values[0]);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+
+        assertEquals("Error: an archived day was read twice",
+                BULK_INSERT_RECORDS_TO_INSERT, countRows(WeatherEntry.CONTENT_URI));
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, countRows(
+                WeatherEntry.buildWeatherLocationWithStartDate(
+                        TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE)));
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                        TestUtilities.TEST_DATE),
+                new String[]{WeatherEntry.COLUMN_SHORT_DESC}, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Meteors", cursor.getString(0));
+        assertFalse(cursor.moveToNext());
+        cursor.close();
+
+        // And the next archive moves them back without leaving anything behind.
+        assertEquals(4, provider.archiveWeather(firstDay + 4));
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, countRows(WeatherEntry.CONTENT_URI));
+    }
+
+    private int countRows(Uri uri) {
+        Cursor cursor = mContext.getContentResolver().query(uri, null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private long[] queryWeatherIds() {
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID}, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        long[] ids = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            ids[i] = cursor.getLong(0);
+        }
+        cursor.close();
+        return ids;
+    }
 }
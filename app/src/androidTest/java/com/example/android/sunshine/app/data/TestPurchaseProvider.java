@@ -0,0 +1,349 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.PurchaseContract.CustomerEntry;
+import com.example.android.sunshine.app.data.PurchaseContract.CustomerSpendEntry;
+import com.example.android.sunshine.app.data.PurchaseContract.ProductEntry;
+import com.example.android.sunshine.app.data.PurchaseContract.ProductSalesEntry;
+import com.example.android.sunshine.app.data.PurchaseContract.RelationEntry;
+
+import java.util.ArrayList;
+
+/*
+    Tests the purchase URIs that WeatherProvider serves through PurchaseRoutes, including the
+    aggregates and the query plans of the joins.
+ */
+public class TestPurchaseProvider extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestPurchaseProvider.class.getSimpleName();
+
+    private ContentResolver mResolver;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mResolver = mContext.getContentResolver();
+        mResolver.delete(RelationEntry.CONTENT_URI, null, null);
+        mResolver.delete(CustomerEntry.CONTENT_URI, null, null);
+        mResolver.delete(ProductEntry.CONTENT_URI, null, null);
+    }
+
+    public void testGetType() {
+        assertEquals(CustomerEntry.CONTENT_TYPE, mResolver.getType(CustomerEntry.CONTENT_URI));
+        assertEquals(CustomerEntry.CONTENT_ITEM_TYPE,
+                mResolver.getType(CustomerEntry.buildCustomerUri(1)));
+        assertEquals(ProductEntry.CONTENT_TYPE,
+                mResolver.getType(CustomerEntry.buildCustomerProductsUri(1)));
+        assertEquals(ProductEntry.CONTENT_TYPE, mResolver.getType(ProductEntry.CONTENT_URI));
+        assertEquals(ProductEntry.CONTENT_ITEM_TYPE,
+                mResolver.getType(ProductEntry.buildProductUri(1)));
+        assertEquals(CustomerEntry.CONTENT_TYPE,
+                mResolver.getType(ProductEntry.buildProductCustomersUri(1)));
+        assertEquals(RelationEntry.CONTENT_TYPE, mResolver.getType(RelationEntry.CONTENT_URI));
+    }
+
+    public void testInsertAndQueryById() {
+        ContentValues jack = TestPurchaseTables.createJackCustomerValues();
+        Uri jackUri = mResolver.insert(CustomerEntry.CONTENT_URI, jack);
+        mResolver.insert(CustomerEntry.CONTENT_URI, TestPurchaseTables.createMaryCustomerValues());
+
+        Cursor cursor = mResolver.query(jackUri, null, null, null, null);
+        TestUtilities.validateCursor("Error: customer by id", cursor, jack);
+
+        ContentValues renamed = new ContentValues();
+        renamed.put(CustomerEntry.COLUMN_CUSTOMER_NAME, "John");
+        assertEquals(1, mResolver.update(jackUri, renamed, null, null));
+        cursor = mResolver.query(jackUri, null, null, null, null);
+        TestUtilities.validateCursor("Error: updated customer by id", cursor, renamed);
+
+        assertEquals(1, mResolver.delete(jackUri, null, null));
+        cursor = mResolver.query(CustomerEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("Error: only Mary should be left", 1, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testJoins() {
+        long jack = insertCustomer(TestPurchaseTables.createJackCustomerValues());
+        long mary = insertCustomer(TestPurchaseTables.createMaryCustomerValues());
+        long shirt = insertProduct(TestPurchaseTables.createTShirtProductValues());
+        long skirt = insertProduct(TestPurchaseTables.createSkirtProductValues());
+
+        mResolver.insert(RelationEntry.CONTENT_URI,
+                TestPurchaseTables.createRelationValues(jack, shirt));
+        mResolver.insert(RelationEntry.CONTENT_URI,
+                TestPurchaseTables.createRelationValues(mary, shirt));
+        mResolver.insert(RelationEntry.CONTENT_URI,
+                TestPurchaseTables.createRelationValues(mary, skirt));
+
+        Cursor cursor = mResolver.query(CustomerEntry.buildCustomerProductsUri(mary), null, null,
+                null, ProductEntry.COLUMN_PRODUCT_NAME + " ASC");
+        try {
+            assertEquals("Error: Mary bought two products", 2, cursor.getCount());
+            int idIndex = cursor.getColumnIndex(ProductEntry._ID);
+            int nameIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_NAME);
+            assertTrue(cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_PRICE) != -1);
+            cursor.moveToFirst();
+            assertEquals("T-shirt", cursor.getString(nameIndex));
+            assertEquals("Error: the join returned the relation id", shirt,
+                    cursor.getLong(idIndex));
+            cursor.moveToNext();
+            assertEquals("skirt", cursor.getString(nameIndex));
+        } finally {
+            cursor.close();
+        }
+
+        cursor = mResolver.query(ProductEntry.buildProductCustomersUri(shirt), null, null, null,
+                CustomerEntry.COLUMN_CUSTOMER_NAME + " ASC");
+        try {
+            assertEquals("Error: two customers bought the T-shirt", 2, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals(jack, cursor.getLong(cursor.getColumnIndex(CustomerEntry._ID)));
+        } finally {
+            cursor.close();
+        }
+
+        // A selection narrows the join further.
+        cursor = mResolver.query(CustomerEntry.buildCustomerProductsUri(mary), null,
+                ProductEntry.COLUMN_PRODUCT_PRICE + " > ?", new String[]{"60"}, null);
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testBulkInsert() {
+        ContentValues[] products = new ContentValues[20];
+        for (int i = 0; i < products.length; i++) {
+            products[i] = new ContentValues();
+            products[i].put(ProductEntry.COLUMN_PRODUCT_NAME, "product " + i);
+            products[i].put(ProductEntry.COLUMN_PRODUCT_PRICE, i);
+        }
+        assertEquals(products.length, mResolver.bulkInsert(ProductEntry.CONTENT_URI, products));
+
+        Cursor cursor = mResolver.query(ProductEntry.CONTENT_URI, null, null, null, null);
+        assertEquals(products.length, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        A row that fails takes the whole array with it: the rows before it must not be stored.
+     */
+    public void testBulkInsertIsOneTransaction() {
+        ContentValues[] products = new ContentValues[20];
+        for (int i = 0; i < products.length; i++) {
+            products[i] = new ContentValues();
+            products[i].put(ProductEntry.COLUMN_PRODUCT_NAME, "product " + i);
+            products[i].put(ProductEntry.COLUMN_PRODUCT_PRICE, i);
+        }
+        products[15] = null;
+        try {
+            mResolver.bulkInsert(ProductEntry.CONTENT_URI, products);
+            fail("Error: inserting a null row should have failed");
+        } catch (NullPointerException expected) {
+        }
+
+        Cursor cursor = mResolver.query(ProductEntry.CONTENT_URI, null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        An item URI can't take an insert, and must not store the row before saying so.
+     */
+    public void testInsertToItemUriIsRejected() {
+        long jackId = insertCustomer(TestPurchaseTables.createJackCustomerValues());
+        try {
+            mResolver.insert(CustomerEntry.buildCustomerUri(jackId),
+                    TestPurchaseTables.createMaryCustomerValues());
+            fail("Error: inserting to a customer's uri should have failed");
+        } catch (UnsupportedOperationException expected) {
+        }
+        try {
+            mResolver.insert(ProductEntry.buildProductUri(1),
+                    TestPurchaseTables.createTShirtProductValues());
+            fail("Error: inserting to a product's uri should have failed");
+        } catch (UnsupportedOperationException expected) {
+        }
+
+        Cursor cursor = mResolver.query(CustomerEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("Error: only Jack should be stored", 1, cursor.getCount());
+        cursor.close();
+        cursor = mResolver.query(ProductEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("Error: no product should be stored", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testApplyBatch() throws Exception {
+        ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(CustomerEntry.CONTENT_URI)
+                .withValues(TestPurchaseTables.createJackCustomerValues()).build());
+        operations.add(ContentProviderOperation.newInsert(ProductEntry.CONTENT_URI)
+                .withValues(TestPurchaseTables.createSkirtProductValues()).build());
+        operations.add(ContentProviderOperation.newInsert(RelationEntry.CONTENT_URI)
+                .withValueBackReference(RelationEntry.COLUMN_CUSTOMER_KEY, 0)
+                .withValueBackReference(RelationEntry.COLUMN_PRODUCT_KEY, 1)
+                .build());
+
+        ContentProviderResult[] results =
+                mResolver.applyBatch(PurchaseContract.CONTENT_AUTHORITY, operations);
+        long jack = ContentUris.parseId(results[0].uri);
+
+        Cursor cursor = mResolver.query(CustomerEntry.buildCustomerProductsUri(jack), null, null,
+                null, null);
+        try {
+            assertTrue("Error: the batch relation didn't join", cursor.moveToFirst());
+            assertEquals(ContentUris.parseId(results[1].uri),
+                    cursor.getLong(cursor.getColumnIndex(ProductEntry._ID)));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testAggregates() {
+        long jack = insertCustomer(TestPurchaseTables.createJackCustomerValues());
+        long mary = insertCustomer(TestPurchaseTables.createMaryCustomerValues());
+        long shirt = insertProduct(TestPurchaseTables.createTShirtProductValues());
+        long skirt = insertProduct(TestPurchaseTables.createSkirtProductValues());
+
+        mResolver.insert(RelationEntry.CONTENT_URI,
+                TestPurchaseTables.createRelationValues(jack, shirt));
+        mResolver.insert(RelationEntry.CONTENT_URI,
+                TestPurchaseTables.createRelationValues(mary, shirt));
+        mResolver.insert(RelationEntry.CONTENT_URI,
+                TestPurchaseTables.createRelationValues(mary, skirt));
+        Uri secondSkirt = mResolver.insert(RelationEntry.CONTENT_URI,
+                TestPurchaseTables.createRelationValues(mary, skirt));
+        assertSpend(mary, 210, 3);
+        assertSpend(jack, 50, 1);
+
+        Cursor top = mResolver.query(ProductSalesEntry.buildTopProductsUri(1), null, null, null,
+                null);
+        try {
+            assertTrue(top.moveToFirst());
+            assertEquals("Error: the skirt sold most", skirt,
+                    top.getLong(top.getColumnIndex(ProductSalesEntry.COLUMN_PRODUCT_KEY)));
+            assertEquals(2, top.getInt(top.getColumnIndex(ProductSalesEntry.COLUMN_UNITS)));
+            assertEquals(1, top.getCount());
+        } finally {
+            top.close();
+        }
+
+        // A new price moves every total that depends on the product.
+        ContentValues price = new ContentValues();
+        price.put(ProductEntry.COLUMN_PRODUCT_PRICE, 100);
+        mResolver.update(ProductEntry.buildProductUri(skirt), price, null, null);
+        assertSpend(mary, 250, 3);
+
+        mResolver.delete(RelationEntry.CONTENT_URI, RelationEntry._ID + " = ?",
+                new String[]{Long.toString(ContentUris.parseId(secondSkirt))});
+        assertSpend(mary, 150, 2);
+
+        // A deleted product counts with a price of 0.
+        mResolver.delete(ProductEntry.buildProductUri(shirt), null, null);
+        assertSpend(mary, 100, 2);
+        assertSpend(jack, 0, 1);
+
+        SQLiteDatabase db = new PurchaseDbHelper(mContext).getWritableDatabase();
+        try {
+            assertEquals("Error: the triggers left the aggregates off", 0,
+                    PurchaseAggregates.rebuild(db));
+            db.execSQL("UPDATE " + CustomerSpendEntry.TABLE_NAME + " SET " +
+                    CustomerSpendEntry.COLUMN_SPEND + " = " + CustomerSpendEntry.COLUMN_SPEND +
+                    " + 1");
+            assertEquals("Error: the rebuild didn't see the drift", 2,
+                    PurchaseAggregates.rebuild(db));
+            assertEquals(0, PurchaseAggregates.rebuild(db));
+        } finally {
+            db.close();
+        }
+        assertSpend(mary, 100, 2);
+    }
+
+    public void testJoinPlans() {
+        SQLiteDatabase db = new PurchaseDbHelper(mContext).getReadableDatabase();
+        try {
+            assertNoTableScan(db,
+                    PurchaseRoutes.buildJoinQuery(PurchaseRoutes.PRODUCTS_FOR_CUSTOMER));
+            assertNoTableScan(db,
+                    PurchaseRoutes.buildJoinQuery(PurchaseRoutes.CUSTOMERS_FOR_PRODUCT));
+            assertNoSort(db, PurchaseRoutes.buildTopProductsQuery(10));
+        } finally {
+            db.close();
+        }
+    }
+
+    private void assertSpend(long customerId, double spend, int purchases) {
+        Cursor cursor = mResolver.query(CustomerSpendEntry.buildCustomerSpendUri(customerId),
+                null, null, null, null);
+        try {
+            assertTrue("Error: no spend for customer " + customerId, cursor.moveToFirst());
+            assertEquals(spend,
+                    cursor.getDouble(cursor.getColumnIndex(CustomerSpendEntry.COLUMN_SPEND)),
+                    0.001);
+            assertEquals(purchases,
+                    cursor.getInt(cursor.getColumnIndex(CustomerSpendEntry.COLUMN_PURCHASES)));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long insertCustomer(ContentValues values) {
+        return ContentUris.parseId(mResolver.insert(CustomerEntry.CONTENT_URI, values));
+    }
+
+    private long insertProduct(ContentValues values) {
+        return ContentUris.parseId(mResolver.insert(ProductEntry.CONTENT_URI, values));
+    }
+
+    // Same check as TestQueryPlans, on the purchase database.
+    private static void assertNoTableScan(SQLiteDatabase db, String sql) {
+        assertPlan(db, sql, new String[]{"1"}, "SCAN");
+    }
+
+    // The top products are read in index order: no sort step, and product_sales itself is
+    // only walked through its units index.
+    private static void assertNoSort(SQLiteDatabase db, String sql) {
+        assertPlan(db, sql, null, "USE TEMP B-TREE");
+    }
+
+    private static void assertPlan(SQLiteDatabase db, String sql, String[] selectionArgs,
+                                   String forbidden) {
+        Cursor plan = db.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+        try {
+            assertTrue("Error: No query plan returned for " + sql, plan.moveToFirst());
+            int detailIndex = plan.getColumnIndex("detail");
+            do {
+                String detail = plan.getString(detailIndex);
+                Log.v(LOG_TAG, detail);
+                assertFalse("Error: " + detail + " in query plan for " + sql,
+                        detail.contains(forbidden));
+            } while (plan.moveToNext());
+        } finally {
+            plan.close();
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Guards the query plans of the joins that WeatherProvider builds with SQLiteQueryBuilder.
+    Each test runs EXPLAIN QUERY PLAN over the exact SQL the provider issues and fails if
+    SQLite decides to walk a whole table (or a whole index) instead of searching it.
+ */
+public class TestQueryPlans extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestQueryPlans.class.getSimpleName();
+
+    // The projections used by the forecast list and the detail screen.
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG,
+            WeatherEntry.COLUMN_DAY
+    };
+
+    private static final String[] DETAIL_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+    };
+
+    // The location queries select by the location's row id, and compare the Julian day, not
+    // the date.
+    private static final String TEST_LOCATION_ID = "1";
+    private static final String TEST_DAY =
+            Integer.toString(DayNormalizer.julianDay(TestUtilities.TEST_DATE));
+
+    private static final String[][] PROJECTIONS = { null, FORECAST_COLUMNS, DETAIL_COLUMNS };
+    private static final String[] SORT_ORDERS = { null, WeatherEntry.COLUMN_DATE + " ASC" };
+
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDb = new WeatherDbHelper(mContext).getWritableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        super.tearDown();
+    }
+
+    public void testWeatherWithLocationPlan() {
+        for (String[] projection : PROJECTIONS) {
+            for (String sortOrder : SORT_ORDERS) {
+                assertNoTableScan(WeatherProvider.buildLocationSettingQuery(
+                        WeatherProvider.WEATHER_WITH_LOCATION, false, projection, sortOrder),
+                        new String[]{TEST_LOCATION_ID});
+            }
+        }
+    }
+
+    public void testWeatherWithLocationAndStartDatePlan() {
+        for (String[] projection : PROJECTIONS) {
+            for (String sortOrder : SORT_ORDERS) {
+                assertNoTableScan(WeatherProvider.buildLocationSettingQuery(
+                        WeatherProvider.WEATHER_WITH_LOCATION, true, projection, sortOrder),
+                        new String[]{TEST_LOCATION_ID, TEST_DAY});
+            }
+        }
+    }
+
+    public void testWeatherWithLocationPagePlan() {
+        assertPagePlans();
+    }
+
+    public void testWeatherWithLocationAndDatePlan() {
+        for (String[] projection : PROJECTIONS) {
+            for (String sortOrder : SORT_ORDERS) {
+                assertNoTableScan(WeatherProvider.buildLocationSettingQuery(
+                        WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE, false, projection, sortOrder),
+                        new String[]{TEST_LOCATION_ID, TEST_DAY});
+            }
+        }
+    }
+
+    /*
+        The statistics ANALYZE leaves once a couple of locations are stored must not change the
+        plans: WeatherMaintenance runs it every day.
+     */
+    public void testPlansAfterAnalyze() {
+        for (int location = 0; location < 2; location++) {
+            ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+            locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING,
+                    TestUtilities.TEST_LOCATION + location);
+            long locationRowId = mDb.insert(LocationEntry.TABLE_NAME, null, locationValues);
+            assertTrue(locationRowId != -1);
+            for (ContentValues values : TestProvider.createBulkInsertWeatherValues(locationRowId)) {
+                values.put(WeatherEntry.COLUMN_DAY,
+                        DayNormalizer.julianDay(values.getAsLong(WeatherEntry.COLUMN_DATE)));
+                assertTrue(mDb.insert(WeatherEntry.TABLE_NAME, null, values) != -1);
+            }
+        }
+        mDb.execSQL("ANALYZE");
+
+        testWeatherWithLocationPlan();
+        testWeatherWithLocationAndStartDatePlan();
+        testWeatherWithLocationAndDatePlan();
+        assertPagePlans();
+    }
+
+    /*
+        Pages are read straight off the index, so neither the first page nor the ones after it
+        may sort.
+     */
+    private void assertPagePlans() {
+        for (String[] projection : PROJECTIONS) {
+            String sql = WeatherProvider.buildLocationSettingQuery(
+                    WeatherProvider.WEATHER_WITH_LOCATION, true, false, projection,
+                    WeatherProvider.PAGE_SORT_ORDER, "30");
+            assertNoTableScan(sql, new String[]{TEST_LOCATION_ID, TEST_DAY});
+            assertNoSort(sql, new String[]{TEST_LOCATION_ID, TEST_DAY});
+
+            sql = WeatherProvider.buildLocationSettingQuery(
+                    WeatherProvider.WEATHER_WITH_LOCATION, true, true, projection,
+                    WeatherProvider.PAGE_SORT_ORDER, "30");
+            String[] afterArgs = {TEST_LOCATION_ID, TEST_DAY, TEST_DAY,
+                    Long.toString(TestUtilities.TEST_DATE)};
+            assertNoTableScan(sql, afterArgs);
+            assertNoSort(sql, afterArgs);
+        }
+    }
+
+    /*
+        The "detail" column of EXPLAIN QUERY PLAN reads "SEARCH ..." when an index is used to
+        seek and "SCAN ..." when every row of a table or index is visited.
+     */
+    private void assertNoTableScan(String sql, String[] selectionArgs) {
+        for (String detail : explain(sql, selectionArgs)) {
+            assertFalse("Error: full scan (" + detail + ") in query plan for " + sql,
+                    detail.startsWith("SCAN"));
+        }
+    }
+
+    // A sort shows up as "USE TEMP B-TREE FOR ORDER BY".
+    private void assertNoSort(String sql, String[] selectionArgs) {
+        for (String detail : explain(sql, selectionArgs)) {
+            assertFalse("Error: sort (" + detail + ") in query plan for " + sql,
+                    detail.contains("TEMP B-TREE"));
+        }
+    }
+
+    private List<String> explain(String sql, String[] selectionArgs) {
+        Cursor plan = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+        try {
+            assertTrue("Error: No query plan returned for " + sql, plan.moveToFirst());
+            int detailIndex = plan.getColumnIndex("detail");
+            List<String> details = new ArrayList<String>();
+            do {
+                String detail = plan.getString(detailIndex);
+                Log.v(LOG_TAG, detail);
+                details.add(detail);
+            } while (plan.moveToNext());
+            return details;
+        } finally {
+            plan.close();
+        }
+    }
+}
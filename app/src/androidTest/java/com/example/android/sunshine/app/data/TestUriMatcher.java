@@ -36,6 +36,7 @@ public class TestUriMatcher extends AndroidTestCase {
     private static final Uri TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATION_QUERY, TEST_DATE);
     // content://com.example.android.sunshine.app/location"
     private static final Uri TEST_LOCATION_DIR = WeatherContract.LocationEntry.CONTENT_URI;
+    private static final long TEST_PURCHASE_ID = 7L;
 
     /*
         Students: This function tests that your UriMatcher returns the correct integer value
@@ -53,5 +54,38 @@ public class TestUriMatcher extends AndroidTestCase {
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE);
         assertEquals("Error: The LOCATION URI was matched incorrectly.",
                 testMatcher.match(TEST_LOCATION_DIR), WeatherProvider.LOCATION);
+        assertEquals("Error: The METRICS URI was matched incorrectly.",
+                testMatcher.match(WeatherContract.MetricsEntry.CONTENT_URI),
+                WeatherProvider.METRICS);
+
+        assertEquals("Error: The CUSTOMER URI was matched incorrectly.",
+                testMatcher.match(PurchaseContract.CustomerEntry.CONTENT_URI),
+                PurchaseRoutes.CUSTOMER);
+        assertEquals("Error: The CUSTOMER ID URI was matched incorrectly.",
+                testMatcher.match(PurchaseContract.CustomerEntry.buildCustomerUri(TEST_PURCHASE_ID)),
+                PurchaseRoutes.CUSTOMER_ID);
+        assertEquals("Error: The PRODUCTS FOR CUSTOMER URI was matched incorrectly.",
+                testMatcher.match(
+                        PurchaseContract.CustomerEntry.buildCustomerProductsUri(TEST_PURCHASE_ID)),
+                PurchaseRoutes.PRODUCTS_FOR_CUSTOMER);
+        assertEquals("Error: The PRODUCT URI was matched incorrectly.",
+                testMatcher.match(PurchaseContract.ProductEntry.CONTENT_URI),
+                PurchaseRoutes.PRODUCT);
+        assertEquals("Error: The PRODUCT ID URI was matched incorrectly.",
+                testMatcher.match(PurchaseContract.ProductEntry.buildProductUri(TEST_PURCHASE_ID)),
+                PurchaseRoutes.PRODUCT_ID);
+        assertEquals("Error: The CUSTOMERS FOR PRODUCT URI was matched incorrectly.",
+                testMatcher.match(
+                        PurchaseContract.ProductEntry.buildProductCustomersUri(TEST_PURCHASE_ID)),
+                PurchaseRoutes.CUSTOMERS_FOR_PRODUCT);
+        assertEquals("Error: The RELATION URI was matched incorrectly.",
+                testMatcher.match(PurchaseContract.RelationEntry.CONTENT_URI),
+                PurchaseRoutes.RELATION);
+        assertEquals("Error: The CUSTOMER SPEND URI was matched incorrectly.",
+                testMatcher.match(PurchaseContract.CustomerSpendEntry.CONTENT_URI),
+                PurchaseRoutes.CUSTOMER_SPEND);
+        assertEquals("Error: The TOP PRODUCTS URI was matched incorrectly.",
+                testMatcher.match(PurchaseContract.ProductSalesEntry.buildTopProductsUri(10)),
+                PurchaseRoutes.TOP_PRODUCTS);
     }
 }
@@ -17,6 +17,9 @@ package com.example.android.sunshine.app.data;
 
 import android.net.Uri;
 import android.test.AndroidTestCase;
+import android.text.format.DateUtils;
+
+import java.util.TimeZone;
 
 /*
     Students: This is NOT a complete test for the WeatherContract --- just for the functions
@@ -42,4 +45,54 @@ public class TestWeatherContract extends AndroidTestCase {
                 locationUri.toString(),
                 "content://com.example.android.sunshine.app/weather/%2FNorth%20Pole");
     }
+
+    // Zones with DST at different hours and on both hemispheres, a half hour offset, a zone
+    // whose clocks changed at midnight, and one far ahead of UTC.
+    private static final String[] NORMALIZE_TEST_ZONES = {
+            "America/Los_Angeles", "America/New_York", "America/St_Johns", "America/Sao_Paulo",
+            "Europe/London", "Europe/Berlin", "Australia/Sydney", "Asia/Kolkata",
+            "Pacific/Chatham", "UTC"
+    };
+
+    /*
+        DayNormalizer must give exactly what the Time-based normalization gave, including on
+        the days the clocks change.  Every zone is walked through three years in steps that
+        drift across all the hours of the day, then hour by hour around each offset change.
+     */
+    public void testNormalizeDateMatchesTime() {
+        TimeZone original = TimeZone.getDefault();
+        try {
+            for (String zoneId : NORMALIZE_TEST_ZONES) {
+                TimeZone zone = TimeZone.getTimeZone(zoneId);
+                TimeZone.setDefault(zone);
+                DayNormalizer.onTimeZoneChanged();
+
+                long start = 1388534400000L;  // January 1st, 2014 UTC
+                long end = start + 3 * 365 * DateUtils.DAY_IN_MILLIS;
+                long step = 53 * DateUtils.MINUTE_IN_MILLIS;
+                int previousOffset = zone.getOffset(start);
+                for (long millis = start; millis < end; millis += step) {
+                    assertNormalizedLikeTime(zoneId, millis);
+
+                    int offset = zone.getOffset(millis);
+                    if (offset != previousOffset) {
+                        for (long around = millis - 2 * DateUtils.DAY_IN_MILLIS;
+                             around < millis + 2 * DateUtils.DAY_IN_MILLIS;
+                             around += DateUtils.HOUR_IN_MILLIS / 2) {
+                            assertNormalizedLikeTime(zoneId, around);
+                        }
+                        previousOffset = offset;
+                    }
+                }
+            }
+        } finally {
+            TimeZone.setDefault(original);
+            DayNormalizer.onTimeZoneChanged();
+        }
+    }
+
+    private static void assertNormalizedLikeTime(String zoneId, long millis) {
+        assertEquals("Error: normalizing " + millis + " in " + zoneId,
+                DayNormalizer.normalizeWithTime(millis), WeatherContract.normalizeDate(millis));
+    }
 }
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+public class TestWeatherMaintenance extends AndroidTestCase {
+
+    private static final long DAY_IN_MILLIS = 1000*60*60*24;
+    private static final int DAYS = 10;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    /*
+        One location keeps three days, the other the default.  As of the tenth day, the first
+        must lose its first six days and the second nothing, in batches of two.
+     */
+    public void testRetentionPerLocation() {
+        ContentValues shortLived = TestUtilities.createNorthPoleLocationValues();
+        shortLived.put(LocationEntry.COLUMN_RETENTION_DAYS, 3);
+        long shortLivedId = insertLocation(shortLived);
+
+        ContentValues keeper = TestUtilities.createNorthPoleLocationValues();
+        keeper.put(LocationEntry.COLUMN_LOCATION_SETTING, "Sunnydale, CA");
+        long keeperId = insertLocation(keeper);
+
+        insertWeather(shortLivedId);
+        insertWeather(keeperId);
+
+        long now = TestUtilities.TEST_DATE + (DAYS - 1) * DAY_IN_MILLIS;
+        WeatherMaintenance.Report report = new WeatherMaintenance(
+                WeatherDbHelper.getInstance(mContext), WeatherMaintenance.DEFAULT_RETENTION_DAYS,
+                2, WeatherMaintenance.DEFAULT_VACUUM_THRESHOLD).run(now);
+
+        assertEquals("Error: every day before the last should have been archived",
+                2 * (DAYS - 1), report.rowsArchived);
+        assertEquals(6, report.rowsPurged);
+        assertEquals(0, report.partitionsDropped);
+        assertTrue(report.longestLockHoldMillis <= report.elapsedMillis);
+
+        assertEquals(DAYS - 6, countWeather(TestUtilities.TEST_LOCATION));
+        assertEquals(DAYS, countWeather("Sunnydale, CA"));
+    }
+
+    /*
+        Once no location keeps any of its days, an archive table is dropped as a whole.
+     */
+    public void testOldPartitionsAreDropped() {
+        long locationId = insertLocation(TestUtilities.createNorthPoleLocationValues());
+        insertWeather(locationId);
+
+        long now = TestUtilities.TEST_DATE +
+                (DAYS + WeatherMaintenance.DEFAULT_RETENTION_DAYS) * DAY_IN_MILLIS;
+        WeatherMaintenance.Report report =
+                new WeatherMaintenance(WeatherDbHelper.getInstance(mContext)).run(now);
+
+        assertEquals(DAYS, report.rowsArchived);
+        assertEquals(DAYS, report.rowsPurged);
+        assertEquals(1, report.partitionsDropped);
+        assertEquals(0, countWeather(TestUtilities.TEST_LOCATION));
+    }
+
+    /*
+        Each batch moves whole days, the oldest first, until it has at least the rows asked for.
+     */
+    public void testArchiveInBatches() {
+        insertWeather(insertLocation(TestUtilities.createNorthPoleLocationValues()));
+        ContentValues other = TestUtilities.createNorthPoleLocationValues();
+        other.put(LocationEntry.COLUMN_LOCATION_SETTING, "Sunnydale, CA");
+        insertWeather(insertLocation(other));
+
+        SQLiteDatabase db = WeatherDbHelper.getInstance(mContext).getWritableDatabase();
+        WeatherPartitions partitions = WeatherPartitions.getInstance();
+        int cutoffDay = DayNormalizer.julianDay(TestUtilities.TEST_DATE) + DAYS - 1;
+        // Two rows a day, so three rows take two days.
+        assertEquals(4, partitions.archive(db, cutoffDay, 3));
+        assertEquals(4, partitions.archive(db, cutoffDay, 3));
+        int moved = 8;
+        int batch;
+        while ((batch = partitions.archive(db, cutoffDay, 3)) > 0) {
+            moved += batch;
+        }
+        assertEquals(2 * (DAYS - 1), moved);
+        assertEquals(DAYS, countWeather(TestUtilities.TEST_LOCATION));
+        assertEquals(DAYS, countWeather("Sunnydale, CA"));
+    }
+
+    public void testEnableIncrementalVacuum() {
+        WeatherDbHelper openHelper = WeatherDbHelper.getInstance(mContext);
+        WeatherMaintenance maintenance = new WeatherMaintenance(openHelper);
+        maintenance.enableIncrementalVacuum();
+        assertEquals(2, DatabaseUtils.longForQuery(openHelper.getWritableDatabase(),
+                "PRAGMA auto_vacuum", null));
+        assertEquals("Error: a second call should have nothing to do",
+                0, maintenance.enableIncrementalVacuum());
+    }
+
+    private long insertLocation(ContentValues values) {
+        return ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values));
+    }
+
+    private void insertWeather(long locationId) {
+        ContentValues[] values = new ContentValues[DAYS];
+        for (int i = 0; i < DAYS; i++) {
+            values[i] = TestUtilities.createWeatherValues(locationId);
+            values[i].put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + i * DAY_IN_MILLIS);
+        }
+        assertEquals(DAYS, mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values));
+    }
+
+    private int countWeather(String locationSetting) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(locationSetting), null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+}
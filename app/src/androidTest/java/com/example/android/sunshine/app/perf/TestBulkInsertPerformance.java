@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.perf;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.BulkInserter;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.data.WeatherDbHelper;
+
+/*
+    Compares the old bulkInsert loop (one SQLiteDatabase.insert per row inside one transaction)
+    with the compiled-statement BulkInserter at 10k, 100k and 1M rows.  The numbers go to logcat
+    under the tag of this class.
+ */
+public class TestBulkInsertPerformance extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestBulkInsertPerformance.class.getSimpleName();
+
+    private static final String DATABASE_NAME = "perf_bulk_insert.db";
+
+    // Rows are generated and handed over this many at a time so that the 1M row run doesn't
+    // need a million ContentValues on the heap.
+    private static final int BATCH_SIZE = 10000;
+
+    private static final String[] COLUMNS = {
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    public void testBulkInsert10k() {
+        compare(10000);
+    }
+
+    public void testBulkInsert100k() {
+        compare(100000);
+    }
+
+    public void testBulkInsert1M() {
+        compare(1000000);
+    }
+
+    private void compare(int rows) {
+        double before = rowsPerSecond(rows, false);
+        double after = rowsPerSecond(rows, true);
+        Log.i(LOG_TAG, String.format("%d rows: per-row insert %.0f rows/s, " +
+                "compiled statement %.0f rows/s (x%.2f)", rows, before, after, after / before));
+    }
+
+    private double rowsPerSecond(int rows, boolean compiled) {
+        mContext.deleteDatabase(DATABASE_NAME);
+        SQLiteDatabase db = mContext.openOrCreateDatabase(DATABASE_NAME, 0, null);
+        new WeatherDbHelper(mContext).onCreate(db);
+
+        ContentValues[] batch = new ContentValues[BATCH_SIZE];
+        long elapsed = 0;
+        int inserted = 0;
+        for (int start = 0; start < rows; start += BATCH_SIZE) {
+            int size = Math.min(BATCH_SIZE, rows - start);
+            if (size != batch.length) {
+                batch = new ContentValues[size];
+            }
+            fillBatch(batch, start);
+
+            long begin = SystemClock.elapsedRealtime();
+            if (compiled) {
+                BulkInserter inserter = new BulkInserter(WeatherEntry.TABLE_NAME, COLUMNS,
+                        SQLiteDatabase.CONFLICT_NONE, BulkInserter.DEFAULT_CHUNK_SIZE);
+                inserted += inserter.insert(db, batch, 0);
+            } else {
+                db.beginTransaction();
+                try {
+                    for (ContentValues value : batch) {
+                        if (db.insert(WeatherEntry.TABLE_NAME, null, value) != -1) {
+                            inserted++;
+                        }
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+            elapsed += SystemClock.elapsedRealtime() - begin;
+        }
+        db.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+
+        assertEquals("Error: not every generated row was inserted", rows, inserted);
+        return rows * 1000.0 / Math.max(1, elapsed);
+    }
+
+    // One row per (location, day), a year of days per location, so the UNIQUE constraint
+    // never replaces anything.
+    private static void fillBatch(ContentValues[] batch, int firstRow) {
+        long millisecondsInADay = 1000 * 60 * 60 * 24;
+        for (int i = 0; i < batch.length; i++) {
+            int row = firstRow + i;
+            ContentValues values = new ContentValues();
+            values.put(WeatherEntry.COLUMN_LOC_KEY, row / 365);
+            values.put(WeatherEntry.COLUMN_DATE, (row % 365) * millisecondsInADay);
+            values.put(WeatherEntry.COLUMN_SHORT_DESC, "Clear");
+            values.put(WeatherEntry.COLUMN_WEATHER_ID, 800);
+            values.put(WeatherEntry.COLUMN_MIN_TEMP, 10.0 + row % 7);
+            values.put(WeatherEntry.COLUMN_MAX_TEMP, 20.0 + row % 11);
+            values.put(WeatherEntry.COLUMN_HUMIDITY, 40.0);
+            values.put(WeatherEntry.COLUMN_PRESSURE, 1013.2);
+            values.put(WeatherEntry.COLUMN_WIND_SPEED, 3.5);
+            values.put(WeatherEntry.COLUMN_DEGREES, 180.0);
+            batch[i] = values;
+        }
+    }
+}
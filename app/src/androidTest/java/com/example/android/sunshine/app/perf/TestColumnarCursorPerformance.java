@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.perf;
+
+import android.content.ContentValues;
+import android.database.AbstractWindowedCursor;
+import android.database.Cursor;
+import android.database.CursorWindow;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.BulkInserter;
+import com.example.android.sunshine.app.data.ColumnarForecastCursor;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.data.WeatherDbHelper;
+
+/*
+    Reads the forecast list's projection over 1k, 10k and 100k rows, once through the
+    SQLiteCursor the query returns and once through a ColumnarForecastCursor copied from it.
+    For each it logs the time to open the cursor and read every cell once, the time of a second
+    read, and what the rows take: the cursor windows the SQLiteCursor went through, or the heap
+    the columnar cursor holds.  The numbers go to logcat under the tag of this class.
+ */
+public class TestColumnarCursorPerformance extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestColumnarCursorPerformance.class.getSimpleName();
+
+    private static final String DATABASE_NAME = "perf_columnar_cursor.db";
+    private static final String LOCATION_SETTING = "99705";
+    private static final int BATCH_SIZE = 10000;
+
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    private static final String[] WEATHER_COLUMNS = {
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    private static final String SQL_QUERY;
+
+    static {
+        StringBuilder sql = new StringBuilder("SELECT ");
+        for (int i = 0; i < FORECAST_COLUMNS.length; i++) {
+            sql.append(i == 0 ? "" : ", ").append(FORECAST_COLUMNS[i]);
+        }
+        SQL_QUERY = sql.append(" FROM ").append(WeatherEntry.TABLE_NAME)
+                .append(" INNER JOIN ").append(LocationEntry.TABLE_NAME)
+                .append(" ON ").append(WeatherEntry.TABLE_NAME).append('.')
+                .append(WeatherEntry.COLUMN_LOC_KEY).append(" = ")
+                .append(LocationEntry.TABLE_NAME).append('.').append(LocationEntry._ID)
+                .append(" WHERE ").append(LocationEntry.COLUMN_LOCATION_SETTING).append(" = ?")
+                .append(" ORDER BY ").append(WeatherEntry.COLUMN_DATE).append(" ASC")
+                .toString();
+    }
+
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mDb != null) {
+            mDb.close();
+        }
+        mContext.deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testRead1k() {
+        compare(1000);
+    }
+
+    public void testRead10k() {
+        compare(10000);
+    }
+
+    public void testRead100k() {
+        compare(100000);
+    }
+
+    private void compare(int rows) {
+        createDatabase(rows);
+
+        // The first query of a shape also pays for the statement; neither side should.
+        readAll(query());
+
+        long begin = SystemClock.elapsedRealtime();
+        Cursor cursor = query();
+        int windows = readAll(cursor);
+        long sqliteFirst = SystemClock.elapsedRealtime() - begin;
+        begin = SystemClock.elapsedRealtime();
+        readAll(cursor);
+        long sqliteSecond = SystemClock.elapsedRealtime() - begin;
+        cursor.close();
+
+        long heapBefore = usedHeap();
+        begin = SystemClock.elapsedRealtime();
+        Cursor columnar = ColumnarForecastCursor.copyOf(query());
+        readAll(columnar);
+        long columnarFirst = SystemClock.elapsedRealtime() - begin;
+        begin = SystemClock.elapsedRealtime();
+        readAll(columnar);
+        long columnarSecond = SystemClock.elapsedRealtime() - begin;
+        long heap = usedHeap() - heapBefore;
+        assertEquals(rows, columnar.getCount());
+        columnar.close();
+
+        Log.i(LOG_TAG, String.format("%d rows: SQLiteCursor %d ms to open and read, %d ms to " +
+                        "read again, %d cursor window fills; columnar %d ms to open, copy and " +
+                        "read, %d ms to read again, %d KB of heap",
+                rows, sqliteFirst, sqliteSecond, windows, columnarFirst, columnarSecond,
+                heap / 1024));
+    }
+
+    private Cursor query() {
+        return mDb.rawQuery(SQL_QUERY, new String[]{LOCATION_SETTING});
+    }
+
+    // Reads every cell, with the getter the forecast screens use for it, and returns how many
+    // times a SQLiteCursor had to fill its window.
+    private static int readAll(Cursor cursor) {
+        int fills = 0;
+        CursorWindow window = null;
+        int windowStart = -1;
+        double sum = 0;
+        for (cursor.moveToPosition(-1); cursor.moveToNext(); ) {
+            sum += cursor.getLong(0) + cursor.getLong(1) + cursor.getString(2).length() +
+                    cursor.getDouble(3) + cursor.getDouble(4) + cursor.getString(5).length() +
+                    cursor.getInt(6) + cursor.getDouble(7) + cursor.getDouble(8);
+            if (cursor instanceof AbstractWindowedCursor) {
+                CursorWindow current = ((AbstractWindowedCursor) cursor).getWindow();
+                if (current != window || current.getStartPosition() != windowStart) {
+                    window = current;
+                    windowStart = current.getStartPosition();
+                    fills++;
+                }
+            }
+        }
+        assertFalse(Double.isNaN(sum));
+        return fills;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    // One location, with one row a day going back as many days as there are rows.
+    private void createDatabase(int rows) {
+        mContext.deleteDatabase(DATABASE_NAME);
+        mDb = mContext.openOrCreateDatabase(DATABASE_NAME, 0, null);
+        new WeatherDbHelper(mContext).onCreate(mDb);
+
+        ContentValues location = new ContentValues();
+        location.put(LocationEntry.COLUMN_LOCATION_SETTING, LOCATION_SETTING);
+        location.put(LocationEntry.COLUMN_CITY_NAME, "North Pole");
+        location.put(LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        location.put(LocationEntry.COLUMN_COORD_LONG, -147.353);
+        long locationId = mDb.insert(LocationEntry.TABLE_NAME, null, location);
+
+        String[] descriptions = {"Clear", "Clouds", "Rain", "Light Snow", "Thunderstorm"};
+        long millisecondsInADay = 1000 * 60 * 60 * 24;
+        BulkInserter inserter = new BulkInserter(WeatherEntry.TABLE_NAME, WEATHER_COLUMNS,
+                SQLiteDatabase.CONFLICT_NONE, BulkInserter.DEFAULT_CHUNK_SIZE);
+        for (int start = 0; start < rows; start += BATCH_SIZE) {
+            ContentValues[] batch = new ContentValues[Math.min(BATCH_SIZE, rows - start)];
+            for (int i = 0; i < batch.length; i++) {
+                int row = start + i;
+                ContentValues values = new ContentValues();
+                values.put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+                values.put(WeatherEntry.COLUMN_DATE, row * millisecondsInADay);
+                values.put(WeatherEntry.COLUMN_SHORT_DESC, descriptions[row % descriptions.length]);
+                values.put(WeatherEntry.COLUMN_WEATHER_ID, 800 + row % 5);
+                values.put(WeatherEntry.COLUMN_MIN_TEMP, 10.0 + row % 7);
+                values.put(WeatherEntry.COLUMN_MAX_TEMP, 20.0 + row % 11);
+                values.put(WeatherEntry.COLUMN_HUMIDITY, 40.0);
+                values.put(WeatherEntry.COLUMN_PRESSURE, 1013.2);
+                values.put(WeatherEntry.COLUMN_WIND_SPEED, 3.5);
+                values.put(WeatherEntry.COLUMN_DEGREES, 180.0);
+                batch[i] = values;
+            }
+            assertEquals(batch.length, inserter.insert(mDb, batch, 0));
+        }
+    }
+}
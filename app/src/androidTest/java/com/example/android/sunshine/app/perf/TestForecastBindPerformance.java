@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.perf;
+
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.Debug;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.text.format.DateUtils;
+import android.util.Log;
+import android.view.View;
+import android.widget.FrameLayout;
+import android.widget.TextView;
+
+import com.example.android.sunshine.app.ForecastAdapter;
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.text.DateFormat;
+import java.util.Arrays;
+import java.util.Date;
+
+/*
+    Scrolls a year of forecast rows through a screenful of recycled views, the way a ListView
+    binds them, once with the old string-building bind and once with ForecastAdapter.  Each
+    "frame" binds one screen of rows; the p50 and p99 frame times and the objects allocated per
+    bind go to logcat under the tag of this class.
+ */
+public class TestForecastBindPerformance extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastBindPerformance.class.getSimpleName();
+
+    private static final int DAYS = 365;
+    private static final int ROWS_PER_SCREEN = 10;
+    private static final int PASSES = 20;
+
+    // Sunday, December 20th, 2014, 13:00 UTC
+    private static final long FIRST_DATE = 1419080400000L;
+
+    private static final String[] COLUMNS = {
+            WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP
+    };
+
+    public void testBind() {
+        Cursor cursor = createCursor();
+        ForecastAdapter adapter = new ForecastAdapter(mContext, null, 0);
+        adapter.swapCursor(cursor);
+
+        FrameLayout parent = new FrameLayout(mContext);
+        View[] views = new View[ROWS_PER_SCREEN];
+        for (int i = 0; i < views.length; i++) {
+            views[i] = adapter.newView(mContext, cursor, parent);
+        }
+
+        // Both must show the same text before either is worth timing.
+        boolean isMetric = Utility.isMetric(mContext);
+        for (int row = 0; row < DAYS; row++) {
+            cursor.moveToPosition(row);
+            adapter.bindView(views[0], mContext, cursor);
+            assertEquals(legacyText(cursor, isMetric),
+                    ((TextView) views[0]).getText().toString());
+        }
+
+        Result legacy = run(null, views, cursor);
+        Result holder = run(adapter, views, cursor);
+        Log.i(LOG_TAG, String.format("%d binds: string building p50 %.3f ms, p99 %.3f ms per " +
+                        "frame, %.1f objects per bind; ViewHolder p50 %.3f ms, p99 %.3f ms per " +
+                        "frame, %.1f objects per bind",
+                DAYS * PASSES, legacy.p50Millis, legacy.p99Millis, legacy.objectsPerBind,
+                holder.p50Millis, holder.p99Millis, holder.objectsPerBind));
+        cursor.close();
+    }
+
+    private static class Result {
+        double p50Millis;
+        double p99Millis;
+        double objectsPerBind;
+    }
+
+    @SuppressWarnings("deprecation")
+    private Result run(ForecastAdapter adapter, View[] views, Cursor cursor) {
+        int frames = PASSES * (DAYS / ROWS_PER_SCREEN);
+        long[] frameNanos = new long[frames];
+        int binds = 0;
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        for (int frame = 0; frame < frames; frame++) {
+            int first = (frame * ROWS_PER_SCREEN) % (DAYS - ROWS_PER_SCREEN);
+            long begin = System.nanoTime();
+            for (int i = 0; i < ROWS_PER_SCREEN; i++) {
+                cursor.moveToPosition(first + i);
+                if (adapter != null) {
+                    adapter.bindView(views[i], mContext, cursor);
+                } else {
+                    ((TextView) views[i]).setText(
+                            legacyText(cursor, legacyIsMetric()));
+                }
+                binds++;
+            }
+            frameNanos[frame] = System.nanoTime() - begin;
+        }
+        Debug.stopAllocCounting();
+
+        Arrays.sort(frameNanos);
+        Result result = new Result();
+        result.p50Millis = frameNanos[frames / 2] / 1e6;
+        result.p99Millis = frameNanos[(int) Math.ceil(frames * 0.99) - 1] / 1e6;
+        result.objectsPerBind = (double) Debug.getThreadAllocCount() / binds;
+        return result;
+    }
+
+    // The old Utility.isMetric, which the old bind called for every row.
+    private boolean legacyIsMetric() {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        return prefs.getString(mContext.getString(R.string.pref_units_key),
+                mContext.getString(R.string.pref_units_metric))
+                .equals(mContext.getString(R.string.pref_units_metric));
+    }
+
+    // The old ForecastAdapter.convertCursorRowToUXFormat.
+    private static String legacyText(Cursor cursor, boolean isMetric) {
+        return DateFormat.getDateInstance().format(new Date(cursor.getLong(1))) +
+                " - " + cursor.getString(2) +
+                " - " + legacyTemperature(cursor.getDouble(3), isMetric) + "/" +
+                legacyTemperature(cursor.getDouble(4), isMetric);
+    }
+
+    private static String legacyTemperature(double temperature, boolean isMetric) {
+        double temp = isMetric ? temperature : 9*temperature/5+32;
+        return String.format("%.0f", temp);
+    }
+
+    private static Cursor createCursor() {
+        String[] descriptions = {"Clear", "Clouds", "Rain", "Light Snow", "Thunderstorm"};
+        MatrixCursor cursor = new MatrixCursor(COLUMNS, DAYS);
+        for (int i = 0; i < DAYS; i++) {
+            cursor.addRow(new Object[]{
+                    i,
+                    WeatherContract.normalizeDate(FIRST_DATE + i * DateUtils.DAY_IN_MILLIS),
+                    descriptions[i % descriptions.length],
+                    -4.5 + (i % 30),
+                    -12.5 + (i % 25)
+            });
+        }
+        return cursor;
+    }
+}
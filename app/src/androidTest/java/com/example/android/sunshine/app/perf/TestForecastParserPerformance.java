@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.perf;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.ForecastJsonParser;
+import com.example.android.sunshine.app.utils.StubForecastServer;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Compares the streaming JsonReader path with the org.json path on synthetic OpenWeatherMap
+    responses of 14, 400 and 5,000 days.  The org.json path is timed the way FetchWeatherTask
+    used to run it, reading the body into a string first.  Each size is warmed up before it is
+    measured; mean time and allocations per parse go to logcat under the tag of this class.
+ */
+@TargetApi(11)
+public class TestForecastParserPerformance extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastParserPerformance.class.getSimpleName();
+
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int MEASURED_ITERATIONS = 20;
+
+    public void testParse14() throws Exception {
+        compare(14);
+    }
+
+    public void testParse400() throws Exception {
+        compare(400);
+    }
+
+    public void testParse5000() throws Exception {
+        compare(5000);
+    }
+
+    /*
+        Both paths must hand over exactly the same rows, or the timings mean nothing.
+     */
+    public void testPathsAgree() throws Exception {
+        byte[] payload = StubForecastServer.buildForecast(400).getBytes("UTF-8");
+        CollectingListener streamed = new CollectingListener();
+        CollectingListener tree = new CollectingListener();
+
+        assertEquals(400, ForecastJsonParser.parse(newReader(payload), streamed));
+        assertEquals(400, ForecastJsonParser.parse(readFully(payload), tree));
+
+        assertEquals(tree.mCityName, streamed.mCityName);
+        assertEquals(tree.mDays.size(), streamed.mDays.size());
+        for (int i = 0; i < tree.mDays.size(); i++) {
+            assertEquals("Error: day " + i + " differs between the two parsers",
+                    tree.mDays.get(i), streamed.mDays.get(i));
+        }
+    }
+
+    private void compare(int days) throws Exception {
+        byte[] payload = StubForecastServer.buildForecast(days).getBytes("UTF-8");
+        Measurement tree = measure(payload, false);
+        Measurement streamed = measure(payload, true);
+        Log.i(LOG_TAG, String.format("%d days (%d bytes): JSONObject %.2f ms, %d bytes, " +
+                        "%d objects; JsonReader %.2f ms, %d bytes, %d objects",
+                days, payload.length,
+                tree.meanMillis, tree.allocatedBytes, tree.allocatedObjects,
+                streamed.meanMillis, streamed.allocatedBytes, streamed.allocatedObjects));
+    }
+
+    private static class Measurement {
+        double meanMillis;
+        long allocatedBytes;
+        long allocatedObjects;
+    }
+
+    @SuppressWarnings("deprecation")
+    private Measurement measure(byte[] payload, boolean streaming) throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            parseOnce(payload, streaming);
+        }
+
+        Debug.resetThreadAllocCount();
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        long begin = System.nanoTime();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            parseOnce(payload, streaming);
+        }
+        long elapsed = System.nanoTime() - begin;
+        Debug.stopAllocCounting();
+
+        Measurement measurement = new Measurement();
+        measurement.meanMillis = elapsed / 1e6 / MEASURED_ITERATIONS;
+        measurement.allocatedBytes = Debug.getThreadAllocSize() / MEASURED_ITERATIONS;
+        measurement.allocatedObjects = Debug.getThreadAllocCount() / MEASURED_ITERATIONS;
+        return measurement;
+    }
+
+    private static void parseOnce(byte[] payload, boolean streaming) throws Exception {
+        CountingListener listener = new CountingListener();
+        int days = streaming
+                ? ForecastJsonParser.parse(newReader(payload), listener)
+                : ForecastJsonParser.parse(readFully(payload), listener);
+        assertEquals(days, listener.mDays);
+    }
+
+    private static Reader newReader(byte[] payload) throws Exception {
+        return new BufferedReader(new InputStreamReader(new ByteArrayInputStream(payload), "UTF-8"));
+    }
+
+    // What FetchWeatherTask did before parsing with org.json.
+    private static String readFully(byte[] payload) throws Exception {
+        BufferedReader reader = (BufferedReader) newReader(payload);
+        StringBuffer buffer = new StringBuffer();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            buffer.append(line + "\n");
+        }
+        return buffer.toString();
+    }
+
+    private static class CountingListener implements ForecastJsonParser.Listener {
+        int mDays;
+
+        @Override
+        public void onCity(String cityName, double latitude, double longitude) {
+        }
+
+        @Override
+        public void onDay(int index, ContentValues dayValues) {
+            mDays++;
+        }
+    }
+
+    private static class CollectingListener implements ForecastJsonParser.Listener {
+        String mCityName;
+        final List<ContentValues> mDays = new ArrayList<ContentValues>();
+
+        @Override
+        public void onCity(String cityName, double latitude, double longitude) {
+            mCityName = cityName;
+        }
+
+        @Override
+        public void onDay(int index, ContentValues dayValues) {
+            mDays.add(dayValues);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.perf;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.text.format.DateUtils;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+/*
+    Normalizes the dates of a backfill the way the provider sees them: a year of days, repeated
+    for location after location, each date a little off midnight.  Compares a Time per call (the
+    old normalizeDate) with WeatherContract.normalizeDate, which now goes through DayNormalizer.
+    Time and allocations per call go to logcat under the tag of this class.
+ */
+public class TestNormalizeDatePerformance extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestNormalizeDatePerformance.class.getSimpleName();
+
+    private static final int LOCATIONS = 200;
+    private static final int DAYS = 365;
+    private static final int WARMUP_CALLS = 20000;
+
+    // Sunday, December 20th, 2014, 13:00 UTC
+    private static final long FIRST_DATE = 1419080400000L;
+
+    public void testNormalizeDate() {
+        long[] dates = new long[DAYS];
+        for (int i = 0; i < DAYS; i++) {
+            dates[i] = FIRST_DATE + i * DateUtils.DAY_IN_MILLIS + (i % 7) * DateUtils.HOUR_IN_MILLIS;
+        }
+
+        // Both must agree before either is worth timing.
+        for (long date : dates) {
+            assertEquals(normalizeWithTime(date), WeatherContract.normalizeDate(date));
+        }
+
+        long checksum = 0;
+        for (int i = 0; i < WARMUP_CALLS; i++) {
+            checksum += normalizeWithTime(dates[i % DAYS]);
+            checksum += WeatherContract.normalizeDate(dates[i % DAYS]);
+        }
+
+        Measurement time = measure(dates, false);
+        Measurement arithmetic = measure(dates, true);
+        Log.i(LOG_TAG, String.format("%d calls: Time %.0f ns, %.2f objects per call; " +
+                        "DayNormalizer %.0f ns, %.2f objects per call (x%.1f) [%d]",
+                LOCATIONS * DAYS, time.nanosPerCall, time.objectsPerCall,
+                arithmetic.nanosPerCall, arithmetic.objectsPerCall,
+                time.nanosPerCall / arithmetic.nanosPerCall, checksum));
+    }
+
+    private static class Measurement {
+        double nanosPerCall;
+        double objectsPerCall;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static Measurement measure(long[] dates, boolean arithmetic) {
+        int calls = LOCATIONS * DAYS;
+        long checksum = 0;
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        long begin = System.nanoTime();
+        // Location by location, as a backfill arrives.
+        for (int location = 0; location < LOCATIONS; location++) {
+            for (long date : dates) {
+                checksum += arithmetic
+                        ? WeatherContract.normalizeDate(date) : normalizeWithTime(date);
+            }
+        }
+        long elapsed = System.nanoTime() - begin;
+        Debug.stopAllocCounting();
+
+        assertTrue(checksum != 0);
+        Measurement measurement = new Measurement();
+        measurement.nanosPerCall = (double) elapsed / calls;
+        measurement.objectsPerCall = (double) Debug.getThreadAllocCount() / calls;
+        return measurement;
+    }
+
+    // The old WeatherContract.normalizeDate.
+    private static long normalizeWithTime(long startDate) {
+        Time time = new Time();
+        time.set(startDate);
+        int julianDay = Time.getJulianDay(startDate, time.gmtoff);
+        return time.setJulianDay(julianDay);
+    }
+}
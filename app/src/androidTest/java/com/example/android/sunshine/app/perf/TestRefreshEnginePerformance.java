@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.perf;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.ForecastFetcher;
+import com.example.android.sunshine.app.WeatherRefreshEngine;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.StubForecastServer;
+
+/*
+    Refreshes 32 locations against a stub server that takes 250 ms to answer each request,
+    one location at a time (the old FetchWeatherTask) and then with growing pools and
+    per-host limits.  Throughput and p95 latency go to logcat under the tag of this class.
+ */
+public class TestRefreshEnginePerformance extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestRefreshEnginePerformance.class.getSimpleName();
+
+    private static final int LOCATIONS = 32;
+    private static final long SERVER_DELAY_MILLIS = 250;
+    private static final String SETTING_PREFIX = "perf-refresh-";
+
+    private StubForecastServer mServer;
+    private String[] mSettings;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new StubForecastServer(StubForecastServer.buildForecast(14),
+                SERVER_DELAY_MILLIS);
+        mSettings = new String[LOCATIONS];
+        for (int i = 0; i < LOCATIONS; i++) {
+            mSettings[i] = SETTING_PREFIX + i;
+        }
+        deleteLocations();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        deleteLocations();
+        super.tearDown();
+    }
+
+    public void testSerial() {
+        run(1, 1);
+    }
+
+    public void testPool4Host2() {
+        run(4, 2);
+    }
+
+    public void testPool8Host4() {
+        run(8, 4);
+    }
+
+    public void testPool16Host8() {
+        run(16, 8);
+    }
+
+    private void run(int poolSize, int perHostLimit) {
+        WeatherRefreshEngine engine = new WeatherRefreshEngine(mContext,
+                new ForecastFetcher(mServer.getUrl()), poolSize, perHostLimit);
+        WeatherRefreshEngine.Report report = engine.refresh(mSettings);
+
+        assertEquals("Error: every location should have been fetched", LOCATIONS, report.fetched);
+        assertEquals(LOCATIONS * 14, report.rowsWritten);
+        Log.i(LOG_TAG, String.format("pool %d, %d per host: %d locations in %d ms, " +
+                        "%.1f locations/s, p50 %d ms, p95 %d ms",
+                poolSize, perHostLimit, LOCATIONS, report.elapsedMillis,
+                report.getThroughput(), report.getLatencyPercentile(50),
+                report.getLatencyPercentile(95)));
+    }
+
+    // Weather first: it references the locations.
+    private void deleteLocations() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_LOC_KEY + " IN (SELECT " + LocationEntry._ID + " FROM " +
+                        LocationEntry.TABLE_NAME + " WHERE " +
+                        LocationEntry.COLUMN_LOCATION_SETTING + " LIKE ?)",
+                new String[]{SETTING_PREFIX + "%"});
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI,
+                LocationEntry.COLUMN_LOCATION_SETTING + " LIKE ?",
+                new String[]{SETTING_PREFIX + "%"});
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.perf;
+
+import android.content.SharedPreferences;
+import android.os.Debug;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Settings;
+
+/*
+    Reads the location and the units the way every caller used to, through SharedPreferences
+    and the resource strings, and through the Settings snapshot.  Time and allocations per read
+    go to logcat under the tag of this class.
+ */
+public class TestSettingsPerformance extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestSettingsPerformance.class.getSimpleName();
+
+    private static final int READS = 100000;
+    private static final int WARMUP_READS = 10000;
+
+    public void testRead() {
+        assertEquals(legacyLocation(), Settings.get(mContext).location);
+        assertEquals(legacyIsMetric(), Settings.get(mContext).isMetric);
+
+        int checksum = 0;
+        for (int i = 0; i < WARMUP_READS; i++) {
+            checksum += read(false) + read(true);
+        }
+
+        Measurement legacy = measure(false);
+        Measurement snapshot = measure(true);
+        Log.i(LOG_TAG, String.format("%d reads: SharedPreferences %.0f ns, %.2f objects per " +
+                        "read; snapshot %.0f ns, %.2f objects per read (x%.0f) [%d]",
+                READS, legacy.nanosPerRead, legacy.objectsPerRead, snapshot.nanosPerRead,
+                snapshot.objectsPerRead, legacy.nanosPerRead / snapshot.nanosPerRead, checksum));
+    }
+
+    private static class Measurement {
+        double nanosPerRead;
+        double objectsPerRead;
+    }
+
+    @SuppressWarnings("deprecation")
+    private Measurement measure(boolean snapshot) {
+        int checksum = 0;
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        long begin = System.nanoTime();
+        for (int i = 0; i < READS; i++) {
+            checksum += read(snapshot);
+        }
+        long elapsed = System.nanoTime() - begin;
+        Debug.stopAllocCounting();
+
+        assertTrue(checksum != 0);
+        Measurement measurement = new Measurement();
+        measurement.nanosPerRead = (double) elapsed / READS;
+        measurement.objectsPerRead = (double) Debug.getThreadAllocCount() / READS;
+        return measurement;
+    }
+
+    // One read of both settings, as a list click or a loader does.
+    private int read(boolean snapshot) {
+        if (snapshot) {
+            Settings settings = Settings.get(mContext);
+            return settings.location.length() + (settings.isMetric ? 1 : 0);
+        }
+        return legacyLocation().length() + (legacyIsMetric() ? 1 : 0);
+    }
+
+    // The old Utility.getPreferredLocation.
+    private String legacyLocation() {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        return prefs.getString(mContext.getString(R.string.pref_location_key),
+                mContext.getString(R.string.pref_location_default));
+    }
+
+    // The old Utility.isMetric.
+    private boolean legacyIsMetric() {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        return prefs.getString(mContext.getString(R.string.pref_units_key),
+                mContext.getString(R.string.pref_units_metric))
+                .equals(mContext.getString(R.string.pref_units_metric));
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.perf;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.BulkInserter;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.data.WeatherDbHelper;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+    Ingests 100k weather rows in chunks while four threads keep running the forecast query, once
+    with the rollback journal and once in WAL mode.  The readers' p50 and p99 latencies and the
+    ingest time go to logcat under the tag of this class.
+ */
+@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+public class TestWalContentionPerformance extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWalContentionPerformance.class.getSimpleName();
+
+    private static final String DATABASE_NAME = "perf_wal_contention.db";
+
+    private static final int ROWS = 100000;
+    private static final int BATCH_SIZE = 10000;
+    private static final int READERS = 4;
+    private static final int LOCATIONS = ROWS / 365;
+
+    private static final String[] COLUMNS = {
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_DAY,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    // What the forecast list asks for: two weeks of one location.
+    private static final String FORECAST_QUERY = "SELECT " + WeatherEntry._ID + ", " +
+            WeatherEntry.COLUMN_DATE + ", " + WeatherEntry.COLUMN_SHORT_DESC + ", " +
+            WeatherEntry.COLUMN_MAX_TEMP + ", " + WeatherEntry.COLUMN_MIN_TEMP + " FROM " +
+            WeatherEntry.TABLE_NAME + " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+            WeatherEntry.COLUMN_DAY + " >= ? LIMIT 14";
+
+    public void testReadersDuringIngest() throws Exception {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            Log.i(LOG_TAG, "WAL needs API 11, skipped");
+            return;
+        }
+        Result journal = run(false);
+        Result wal = run(true);
+        Log.i(LOG_TAG, String.format("%d rows, %d readers: rollback journal p50 %.2f ms, " +
+                        "p99 %.2f ms, %d queries, ingest %d ms; WAL p50 %.2f ms, p99 %.2f ms, " +
+                        "%d queries, ingest %d ms",
+                ROWS, READERS, journal.p50Millis, journal.p99Millis, journal.queries,
+                journal.ingestMillis, wal.p50Millis, wal.p99Millis, wal.queries,
+                wal.ingestMillis));
+    }
+
+    private static class Result {
+        double p50Millis;
+        double p99Millis;
+        int queries;
+        long ingestMillis;
+    }
+
+    private Result run(boolean writeAheadLog) throws Exception {
+        mContext.deleteDatabase(DATABASE_NAME);
+        final SQLiteDatabase db = mContext.openOrCreateDatabase(DATABASE_NAME, 0, null);
+        if (writeAheadLog) {
+            assertTrue(db.enableWriteAheadLogging());
+        }
+        new WeatherDbHelper(mContext).onCreate(db);
+
+        final AtomicBoolean ingesting = new AtomicBoolean(true);
+        final CountDownLatch started = new CountDownLatch(READERS);
+        final long[][] latencies = new long[READERS][];
+        Thread[] readers = new Thread[READERS];
+        for (int r = 0; r < READERS; r++) {
+            final int reader = r;
+            readers[r] = new Thread() {
+                @Override
+                public void run() {
+                    latencies[reader] = read(db, ingesting, started, reader);
+                }
+            };
+            readers[r].start();
+        }
+        started.await();
+
+        ContentValues[] batch = new ContentValues[BATCH_SIZE];
+        long begin = System.nanoTime();
+        for (int start = 0; start < ROWS; start += BATCH_SIZE) {
+            fillBatch(batch, start);
+            BulkInserter inserter = new BulkInserter(WeatherEntry.TABLE_NAME, COLUMNS,
+                    SQLiteDatabase.CONFLICT_NONE, BulkInserter.DEFAULT_CHUNK_SIZE);
+            inserter.insert(db, batch, 0);
+        }
+        long ingestNanos = System.nanoTime() - begin;
+        ingesting.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        db.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+
+        int count = 0;
+        for (long[] l : latencies) {
+            count += l.length;
+        }
+        long[] all = new long[count];
+        int offset = 0;
+        for (long[] l : latencies) {
+            System.arraycopy(l, 0, all, offset, l.length);
+            offset += l.length;
+        }
+        Arrays.sort(all);
+
+        Result result = new Result();
+        result.queries = all.length;
+        result.p50Millis = percentile(all, 50) / 1e6;
+        result.p99Millis = percentile(all, 99) / 1e6;
+        result.ingestMillis = ingestNanos / 1000000;
+        return result;
+    }
+
+    // Queries until the ingest is over; returns the latency of each query in nanoseconds.
+    private static long[] read(SQLiteDatabase db, AtomicBoolean ingesting,
+                               CountDownLatch started, int reader) {
+        long[] latencies = new long[1024];
+        int count = 0;
+        started.countDown();
+        for (int i = reader; ingesting.get(); i += READERS) {
+            String[] args = {Integer.toString(i % LOCATIONS), Integer.toString(i % 365)};
+            long begin = System.nanoTime();
+            Cursor cursor = db.rawQuery(FORECAST_QUERY, args);
+            cursor.getCount();
+            cursor.close();
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = System.nanoTime() - begin;
+        }
+        return Arrays.copyOf(latencies, count);
+    }
+
+    private static long percentile(long[] sorted, int percent) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    // One row per (location, day), a year of days per location, as TestBulkInsertPerformance.
+    private static void fillBatch(ContentValues[] batch, int firstRow) {
+        long millisecondsInADay = 1000 * 60 * 60 * 24;
+        for (int i = 0; i < batch.length; i++) {
+            int row = firstRow + i;
+            ContentValues values = new ContentValues();
+            values.put(WeatherEntry.COLUMN_LOC_KEY, row / 365);
+            values.put(WeatherEntry.COLUMN_DATE, (row % 365) * millisecondsInADay);
+            values.put(WeatherEntry.COLUMN_DAY, row % 365);
+            values.put(WeatherEntry.COLUMN_SHORT_DESC, "Clear");
+            values.put(WeatherEntry.COLUMN_WEATHER_ID, 800);
+            values.put(WeatherEntry.COLUMN_MIN_TEMP, 10.0 + row % 7);
+            values.put(WeatherEntry.COLUMN_MAX_TEMP, 20.0 + row % 11);
+            values.put(WeatherEntry.COLUMN_HUMIDITY, 40.0);
+            values.put(WeatherEntry.COLUMN_PRESSURE, 1013.2);
+            values.put(WeatherEntry.COLUMN_WIND_SPEED, 3.5);
+            values.put(WeatherEntry.COLUMN_DEGREES, 180.0);
+            batch[i] = values;
+        }
+    }
+}
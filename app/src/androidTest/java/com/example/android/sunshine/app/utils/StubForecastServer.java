@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.utils;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A minimal HTTP server on the loopback interface that serves one forecast document to every
+ * request, honouring If-None-Match, If-Modified-Since and Accept-Encoding: gzip.  It counts
+ * what it was asked for and how many body bytes it actually sent.
+ */
+public class StubForecastServer {
+
+    public static final String ETAG = "\"sunshine-v1\"";
+    public static final String LAST_MODIFIED = "Sat, 20 Dec 2014 00:00:00 GMT";
+
+    private final byte[] mBody;
+    private final byte[] mGzippedBody;
+    private final long mDelayMillis;
+    private final ServerSocket mServerSocket;
+
+    private int mRequestCount;
+    private int mNotModifiedCount;
+    private int mGzipCount;
+    private long mBodyBytesSent;
+    private final Map<String, String> mLastRequestHeaders = new HashMap<String, String>();
+
+    /**
+     * @param delayMillis how long to wait before answering each request, to stand in for a
+     *                    slow network.
+     */
+    public StubForecastServer(String body, long delayMillis) throws IOException {
+        mBody = body.getBytes("UTF-8");
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(gzipped);
+        gzip.write(mBody);
+        gzip.close();
+        mGzippedBody = gzipped.toByteArray();
+        mDelayMillis = delayMillis;
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+
+        Thread acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, "StubForecastServer");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    /** @return the base URL to hand to ForecastFetcher. */
+    public String getUrl() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/data/2.5/forecast/daily?";
+    }
+
+    public void shutdown() throws IOException {
+        mServerSocket.close();
+    }
+
+    private void acceptLoop() {
+        while (!mServerSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            Thread connectionThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        serve(socket);
+                    } catch (IOException e) {
+                        // The client went away; nothing to do.
+                    } finally {
+                        try {
+                            socket.close();
+                        } catch (IOException ignored) {
+                        }
+                    }
+                }
+            });
+            connectionThread.setDaemon(true);
+            connectionThread.start();
+        }
+    }
+
+    private void serve(Socket socket) throws IOException {
+        BufferedReader in = new BufferedReader(
+                new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+        if (in.readLine() == null) {
+            return;
+        }
+        Map<String, String> headers = new HashMap<String, String>();
+        String line;
+        while ((line = in.readLine()) != null && line.length() > 0) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US),
+                        line.substring(colon + 1).trim());
+            }
+        }
+
+        if (mDelayMillis > 0) {
+            try {
+                Thread.sleep(mDelayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        boolean notModified = ETAG.equals(headers.get("if-none-match"))
+                || (!headers.containsKey("if-none-match")
+                        && LAST_MODIFIED.equals(headers.get("if-modified-since")));
+        String acceptEncoding = headers.get("accept-encoding");
+        boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+
+        byte[] body = notModified ? new byte[0] : gzip ? mGzippedBody : mBody;
+        StringBuilder response = new StringBuilder();
+        response.append(notModified ? "HTTP/1.1 304 Not Modified\r\n" : "HTTP/1.1 200 OK\r\n")
+                .append("ETag: ").append(ETAG).append("\r\n")
+                .append("Last-Modified: ").append(LAST_MODIFIED).append("\r\n")
+                .append("Connection: close\r\n");
+        if (!notModified) {
+            response.append("Content-Type: application/json; charset=utf-8\r\n")
+                    .append("Content-Length: ").append(body.length).append("\r\n");
+            if (gzip) {
+                response.append("Content-Encoding: gzip\r\n");
+            }
+        }
+        response.append("\r\n");
+
+        // Counted before answering, so the client never sees a response the counts miss.
+        synchronized (this) {
+            mRequestCount++;
+            if (notModified) {
+                mNotModifiedCount++;
+            }
+            if (gzip) {
+                mGzipCount++;
+            }
+            mBodyBytesSent += body.length;
+            mLastRequestHeaders.clear();
+            mLastRequestHeaders.putAll(headers);
+        }
+
+        OutputStream out = socket.getOutputStream();
+        out.write(response.toString().getBytes("US-ASCII"));
+        out.write(body);
+        out.flush();
+    }
+
+    public synchronized int getRequestCount() {
+        return mRequestCount;
+    }
+
+    public synchronized int getNotModifiedCount() {
+        return mNotModifiedCount;
+    }
+
+    public synchronized int getGzipCount() {
+        return mGzipCount;
+    }
+
+    public synchronized long getBodyBytesSent() {
+        return mBodyBytesSent;
+    }
+
+    /** @return the uncompressed size of the forecast document. */
+    public int getBodySize() {
+        return mBody.length;
+    }
+
+    /** @return a header of the last request, by lower case name, or null. */
+    public synchronized String getLastRequestHeader(String name) {
+        return mLastRequestHeaders.get(name);
+    }
+
+    /**
+     * Builds a daily forecast response shaped like OpenWeatherMap's, one day per line, with the
+     * extra fields the parsers have to skip.
+     */
+    public static String buildForecast(int days) {
+        StringBuilder json = new StringBuilder(days * 320 + 256);
+        json.append("{\"city\":{\"id\":5375480,\"name\":\"Mountain View\",")
+                .append("\"coord\":{\"lon\":-122.083847,\"lat\":37.386051},")
+                .append("\"country\":\"US\",\"population\":0},\n")
+                .append("\"cod\":\"200\",\"message\":0.0123,\"cnt\":").append(days)
+                .append(",\"list\":[\n");
+        long dt = 1419033600L;
+        for (int i = 0; i < days; i++) {
+            if (i > 0) {
+                json.append(",\n");
+            }
+            json.append("{\"dt\":").append(dt + i * 86400L)
+                    .append(",\"temp\":{\"day\":15.2,\"min\":").append(8 + i % 7).append(".31")
+                    .append(",\"max\":").append(18 + i % 9).append(".74")
+                    .append(",\"night\":9.1,\"eve\":14.6,\"morn\":8.9},")
+                    .append("\"pressure\":").append(1000 + i % 30).append(".45,")
+                    .append("\"humidity\":").append(40 + i % 50).append(',')
+                    .append("\"weather\":[{\"id\":").append(800 + i % 4)
+                    .append(",\"main\":\"Clear\",\"description\":\"sky is clear\",")
+                    .append("\"icon\":\"01d\"}],")
+                    .append("\"speed\":").append(i % 12).append(".2,")
+                    .append("\"deg\":").append(i % 360).append(",")
+                    .append("\"clouds\":").append(i % 100).append('}');
+        }
+        json.append("]}\n");
+        return json.toString();
+    }
+}
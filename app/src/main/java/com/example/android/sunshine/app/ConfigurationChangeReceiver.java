@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+import com.example.android.sunshine.app.data.DayNormalizer;
+
+/**
+ * Drops whatever has been cached for the current time zone or locale when the user changes
+ * it.
+ */
+public class ConfigurationChangeReceiver extends BroadcastReceiver {
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        String action = intent.getAction();
+        if (Intent.ACTION_TIMEZONE_CHANGED.equals(action)) {
+            DayNormalizer.onTimeZoneChanged();
+            Utility.invalidateFormatCaches();
+        } else if (Intent.ACTION_LOCALE_CHANGED.equals(action)) {
+            Utility.invalidateFormatCaches();
+        }
+    }
+}
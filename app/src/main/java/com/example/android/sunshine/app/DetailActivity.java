@@ -17,6 +17,7 @@ package com.example.android.sunshine.app;
 
 import android.content.Intent;
 import android.database.Cursor;
+import android.net.Uri;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.LoaderManager.LoaderCallbacks;
@@ -34,6 +35,7 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
+import com.example.android.sunshine.app.ForecastSnapshotCache.ForecastDay;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
 
@@ -135,12 +137,31 @@ public class DetailActivity extends ActionBarActivity {
             return shareIntent;
         }
 
+        /*
+            The list has usually loaded this day already, so the snapshot cache can show it
+            straight away.  The loader still runs, to replace it with the stored row and to
+            follow the changes to it.
+         */
         @Override
         public void onActivityCreated(Bundle savedInstanceState) {
+            ForecastDay day = getCachedDay();
+            if (day != null) {
+                showForecast(day.date, day.description, day.maxTemp, day.minTemp);
+            }
             getLoaderManager().initLoader(DETAIL_LOADER, null, this);
             super.onActivityCreated(savedInstanceState);
         }
 
+        private ForecastDay getCachedDay() {
+            Intent intent = getActivity().getIntent();
+            if (intent == null || intent.getData() == null) {
+                return null;
+            }
+            Uri uri = intent.getData();
+            return ForecastSnapshotCache.get(getActivity()).getDay(
+                    WeatherEntry.getLocationSettingFromUri(uri), WeatherEntry.getDateFromUri(uri));
+        }
+
         @Override
         public Loader<Cursor> onCreateLoader(int id, Bundle args) {
             Log.v(LOG_TAG, "In onCreateLoader");
@@ -166,19 +187,19 @@ public class DetailActivity extends ActionBarActivity {
             Log.v(LOG_TAG, "In onLoadFinished");
             if (!data.moveToFirst()) { return; }
 
-            String dateString = Utility.formatDate(
-                    data.getLong(COL_WEATHER_DATE));
+            showForecast(data.getLong(COL_WEATHER_DATE), data.getString(COL_WEATHER_DESC),
+                    data.getDouble(COL_WEATHER_MAX_TEMP), data.getDouble(COL_WEATHER_MIN_TEMP));
+        }
 
-            String weatherDescription =
-                    data.getString(COL_WEATHER_DESC);
+        private void showForecast(long date, String weatherDescription, double maxTemp,
+                                  double minTemp) {
+            String dateString = Utility.formatDate(date);
 
             boolean isMetric = Utility.isMetric(getActivity());
 
-            String high = Utility.formatTemperature(
-                    data.getDouble(COL_WEATHER_MAX_TEMP), isMetric);
+            String high = Utility.formatTemperature(maxTemp, isMetric);
 
-            String low = Utility.formatTemperature(
-                    data.getDouble(COL_WEATHER_MIN_TEMP), isMetric);
+            String low = Utility.formatTemperature(minTemp, isMetric);
 
             mForecast = String.format("%s - %s - %s/%s", dateString, weatherDescription, high, low);
 
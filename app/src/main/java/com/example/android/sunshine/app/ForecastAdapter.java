@@ -1,6 +1,7 @@
 package com.example.android.sunshine.app;
 
 import android.content.Context;
+import android.database.CharArrayBuffer;
 import android.database.Cursor;
 import android.support.v4.widget.CursorAdapter;
 import android.view.LayoutInflater;
@@ -8,36 +9,91 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
+import com.example.android.sunshine.app.data.WeatherContract;
+
 /**
  * {@link ForecastAdapter} exposes a list of weather forecasts
  * from a {@link android.database.Cursor} to a {@link android.widget.ListView}.
+ * <p>
+ * Binding a row allocates nothing once the list has settled: the column indices are read
+ * when the cursor is swapped, the units come from the {@link Settings} snapshot, each row's
+ * text is built in one StringBuilder and copied into a buffer the row's {@link ViewHolder}
+ * keeps, and the date labels come from the day strings Utility remembers.
  */
 public class ForecastAdapter extends CursorAdapter {
+
+    /**
+     * The views of a row and the buffers its text is built into, kept in the row's tag.
+     */
+    static class ViewHolder {
+        final TextView textView;
+        final CharArrayBuffer descriptionBuffer = new CharArrayBuffer(32);
+        char[] text = new char[64];
+
+        ViewHolder(View view) {
+            textView = (TextView) view.findViewById(R.id.list_item_forecast_textview);
+        }
+    }
+
+    private final StringBuilder mBuilder = new StringBuilder(64);
+
+    // What the rows were last bound with, so refreshPreferences can tell if that changed.
+    private Settings mSettings;
+    private int mFormatGeneration;
+
+    // Read by swapCursor.
+    private int mDateIndex;
+    private int mDescriptionIndex;
+    private int mMaxTempIndex;
+    private int mMinTempIndex;
+
     public ForecastAdapter(Context context, Cursor c, int flags) {
         super(context, c, flags);
+        mSettings = Settings.get(context);
+        mFormatGeneration = Utility.getFormatGeneration();
+        if (c != null) {
+            readColumnIndices(c);
+        }
+    }
+
+    @Override
+    public Cursor swapCursor(Cursor newCursor) {
+        if (newCursor != null) {
+            readColumnIndices(newCursor);
+        }
+        return super.swapCursor(newCursor);
     }
 
     /**
-     * Prepare the weather high/lows for presentation.
+     * @return whether the settings or the formats changed since the rows were bound, so that
+     * they need binding again.
      */
-    private String formatHighLows(double high, double low) {
-        boolean isMetric = Utility.isMetric(mContext);
-        String highLowStr = Utility.formatTemperature(high, isMetric) + "/" + Utility.formatTemperature(low, isMetric);
-        return highLowStr;
+    boolean refreshPreferences() {
+        return Settings.get(mContext) != mSettings ||
+                Utility.getFormatGeneration() != mFormatGeneration;
+    }
+
+    private void readColumnIndices(Cursor cursor) {
+        mDateIndex = cursor.getColumnIndexOrThrow(WeatherContract.WeatherEntry.COLUMN_DATE);
+        mDescriptionIndex =
+                cursor.getColumnIndexOrThrow(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC);
+        mMaxTempIndex = cursor.getColumnIndexOrThrow(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP);
+        mMinTempIndex = cursor.getColumnIndexOrThrow(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP);
     }
 
     /*
         This is ported from FetchWeatherTask --- but now we go straight from the cursor to the
-        string.
+        builder: "date - description - high/low".
      */
-    private String convertCursorRowToUXFormat(Cursor cursor) {
-        String highAndLow = formatHighLows(
-                cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP),
-                cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP));
-
-        return Utility.formatDate(cursor.getLong(ForecastFragment.COL_WEATHER_DATE)) +
-                " - " + cursor.getString(ForecastFragment.COL_WEATHER_DESC) +
-                " - " + highAndLow;
+    private void appendUXFormat(StringBuilder builder, Cursor cursor, ViewHolder holder,
+                                boolean isMetric) {
+        builder.append(Utility.formatDate(cursor.getLong(mDateIndex))).append(" - ");
+        cursor.copyStringToBuffer(mDescriptionIndex, holder.descriptionBuffer);
+        builder.append(holder.descriptionBuffer.data, 0, holder.descriptionBuffer.sizeCopied)
+                .append(" - ");
+        Utility.appendTemperature(builder, cursor.getDouble(mMaxTempIndex), isMetric);
+        builder.append('/');
+        Utility.appendTemperature(builder, cursor.getDouble(mMinTempIndex), isMetric);
     }
 
     /*
@@ -46,19 +102,28 @@ public class ForecastAdapter extends CursorAdapter {
     @Override
     public View newView(Context context, Cursor cursor, ViewGroup parent) {
         View view = LayoutInflater.from(context).inflate(R.layout.list_item_forecast, parent, false);
-
+        view.setTag(new ViewHolder(view));
         return view;
     }
 
     /*
-        This is where we fill-in the views with the contents of the cursor.
+        This is where we fill-in the views with the contents of the cursor.  The TextView
+        shows the holder's char array directly, so each row keeps its own array.
      */
     @Override
     public void bindView(View view, Context context, Cursor cursor) {
-        // our view is pretty simple here --- just a text view
-        // we'll keep the UI functional with a simple (and slow!) binding.
+        mSettings = Settings.get(context);
+        mFormatGeneration = Utility.getFormatGeneration();
+        ViewHolder holder = (ViewHolder) view.getTag();
+        StringBuilder builder = mBuilder;
+        builder.setLength(0);
+        appendUXFormat(builder, cursor, holder, mSettings.isMetric);
 
-        TextView tv = (TextView)view;
-        tv.setText(convertCursorRowToUXFormat(cursor));
+        int length = builder.length();
+        if (holder.text.length < length) {
+            holder.text = new char[length * 2];
+        }
+        builder.getChars(0, length, holder.text, 0);
+        holder.textView.setText(holder.text, 0, length);
     }
-}
\ No newline at end of file
+}
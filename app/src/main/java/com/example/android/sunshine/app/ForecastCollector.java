@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.ContentValues;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the days handed over by {@link ForecastJsonParser} and dates them, so that they
+ * can be written to the database once the whole forecast has been read.
+ */
+class ForecastCollector implements ForecastJsonParser.Listener {
+    private final Time mDayTime;
+    private final int mJulianStartDay;
+    private final List<ContentValues> mDays = new ArrayList<ContentValues>();
+
+    private String mCityName;
+    private double mCityLatitude;
+    private double mCityLongitude;
+
+    ForecastCollector() {
+        // OWM returns daily forecasts based upon the local time of the city that is being
+        // asked for, which means that we need to know the GMT offset to translate this data
+        // properly.
+
+        // Since this data is also sent in-order and the first day is always the
+        // current day, we're going to take advantage of that to get a nice
+        // normalized UTC date for all of our weather.
+
+        Time dayTime = new Time();
+        dayTime.setToNow();
+
+        // we start at the day returned by local time. Otherwise this is a mess.
+        mJulianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+
+        // now we work exclusively in UTC
+        mDayTime = new Time();
+    }
+
+    @Override
+    public void onCity(String cityName, double latitude, double longitude) {
+        mCityName = cityName;
+        mCityLatitude = latitude;
+        mCityLongitude = longitude;
+    }
+
+    @Override
+    public void onDay(int index, ContentValues dayValues) {
+        // Cheating to convert this to UTC time, which is what we want anyhow
+        dayValues.put(WeatherEntry.COLUMN_DATE, mDayTime.setJulianDay(mJulianStartDay + index));
+        mDays.add(dayValues);
+    }
+
+    /** @return the city name, or null if the forecast didn't name one. */
+    String getCityName() {
+        return mCityName;
+    }
+
+    double getCityLatitude() {
+        return mCityLatitude;
+    }
+
+    double getCityLongitude() {
+        return mCityLongitude;
+    }
+
+    /** @return the dated days, without a location key. */
+    List<ContentValues> getDays() {
+        return mDays;
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.net.Uri;
+import android.util.Log;
+
+import org.json.JSONException;
+
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Requests daily forecasts from OpenWeatherMap.
+ * <p>
+ * Every request carries the validators of the forecast already stored for the location, so an
+ * unchanged forecast comes back as a 304 with no body and nothing has to be parsed or written.
+ * Responses are requested gzipped and unpacked here rather than by HttpURLConnection, so that
+ * the bytes that actually came over the wire can be counted.
+ */
+public class ForecastFetcher {
+
+    private final String LOG_TAG = ForecastFetcher.class.getSimpleName();
+
+    static final String FORECAST_BASE_URL =
+            "http://api.openweathermap.org/data/2.5/forecast/daily?";
+
+    // Possible parameters are avaiable at OWM's forecast API page, at
+    // http://openweathermap.org/API#forecast
+    private static final String QUERY_PARAM = "q";
+    private static final String FORMAT_PARAM = "mode";
+    private static final String UNITS_PARAM = "units";
+    private static final String DAYS_PARAM = "cnt";
+    private static final String APPID_PARAM = "APPID";
+
+    private static final String FORMAT = "json";
+    private static final String UNITS = "metric";
+    private static final int NUM_DAYS = 14;
+
+    private static final String GZIP = "gzip";
+
+    /**
+     * Reads the body of a forecast that has changed since the validators were issued.
+     */
+    public interface BodyHandler {
+        void onBody(BufferedReader body) throws IOException, JSONException;
+    }
+
+    /**
+     * What came back for one request.  The validators are the ones to send next time; they
+     * are null if the server didn't send any.
+     */
+    public static class Result {
+        public final boolean notModified;
+        public final String etag;
+        public final String lastModified;
+        public final long bytesTransferred;
+
+        Result(boolean notModified, String etag, String lastModified, long bytesTransferred) {
+            this.notModified = notModified;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.bytesTransferred = bytesTransferred;
+        }
+    }
+
+    private final String mBaseUrl;
+
+    public ForecastFetcher() {
+        this(FORECAST_BASE_URL);
+    }
+
+    /**
+     * @param baseUrl where to send the requests instead of OpenWeatherMap, for tests.
+     */
+    public ForecastFetcher(String baseUrl) {
+        mBaseUrl = baseUrl;
+    }
+
+    /** @return the host the requests go to. */
+    public String getHost() {
+        return Uri.parse(mBaseUrl).getHost();
+    }
+
+    /**
+     * Requests the forecast for the location and, unless it hasn't changed since the given
+     * validators were issued, hands the body to the handler.
+     *
+     * @param etag the ETag stored with the current forecast, or null.
+     * @param lastModified the Last-Modified stored with the current forecast, or null.
+     */
+    public Result fetch(String locationQuery, String etag, String lastModified,
+                        BodyHandler handler) throws IOException, JSONException {
+        Uri builtUri = Uri.parse(mBaseUrl).buildUpon()
+                .appendQueryParameter(QUERY_PARAM, locationQuery)
+                .appendQueryParameter(FORMAT_PARAM, FORMAT)
+                .appendQueryParameter(UNITS_PARAM, UNITS)
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(NUM_DAYS))
+                .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                .build();
+
+        URL url = new URL(builtUri.toString());
+
+        // Create the request to OpenWeatherMap, and open the connection
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        BufferedReader reader = null;
+        try {
+            urlConnection.setRequestMethod("GET");
+            // Asking for gzip ourselves turns off HttpURLConnection's transparent unpacking.
+            urlConnection.setRequestProperty("Accept-Encoding", GZIP);
+            if (etag != null) {
+                urlConnection.setRequestProperty("If-None-Match", etag);
+            }
+            if (lastModified != null) {
+                urlConnection.setRequestProperty("If-Modified-Since", lastModified);
+            }
+            urlConnection.connect();
+
+            int responseCode = urlConnection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                // What we have is still current.  Keep the validators we sent unless the
+                // server handed out new ones.
+                String newEtag = urlConnection.getHeaderField("ETag");
+                String newLastModified = urlConnection.getHeaderField("Last-Modified");
+                return new Result(true,
+                        newEtag != null ? newEtag : etag,
+                        newLastModified != null ? newLastModified : lastModified,
+                        0);
+            }
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Unexpected response " + responseCode + " for " + url);
+            }
+
+            CountingInputStream counted = new CountingInputStream(urlConnection.getInputStream());
+            InputStream body = counted;
+            if (GZIP.equalsIgnoreCase(urlConnection.getContentEncoding())) {
+                body = new GZIPInputStream(counted);
+            }
+            reader = new BufferedReader(new InputStreamReader(body, "UTF-8"));
+            handler.onBody(reader);
+
+            // Drain whatever the handler left, so the count is the whole response.
+            byte[] drain = new byte[1024];
+            while (counted.read(drain, 0, drain.length) != -1) {
+            }
+            return new Result(false,
+                    urlConnection.getHeaderField("ETag"),
+                    urlConnection.getHeaderField("Last-Modified"),
+                    counted.getCount());
+        } finally {
+            urlConnection.disconnect();
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (final IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts the bytes read from the connection, before they are unzipped.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private long mCount;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                mCount += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long byteCount) throws IOException {
+            long skipped = super.skip(byteCount);
+            mCount += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        long getCount() {
+            return mCount;
+        }
+    }
+}
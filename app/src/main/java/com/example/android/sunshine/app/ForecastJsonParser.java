@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Pulls the fields Sunshine stores out of an OpenWeatherMap daily forecast.
+ * <p>
+ * {@link #parse(Reader, Listener)} streams straight off the connection with a pull parser and
+ * hands each day to the listener as soon as it has been read, so the response is never held
+ * in memory as a whole.  {@link #parse(String, Listener)} does the same from a complete
+ * document with org.json, for devices older than Honeycomb that don't have JsonReader.
+ */
+public class ForecastJsonParser {
+
+    // These are the names of the JSON objects that need to be extracted.
+
+    // Location information
+    private static final String OWM_CITY = "city";
+    private static final String OWM_CITY_NAME = "name";
+    private static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    private static final String OWM_LATITUDE = "lat";
+    private static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    private static final String OWM_LIST = "list";
+
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_MAX = "max";
+    private static final String OWM_MIN = "min";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+
+    // How many columns readDay fills in for a complete day.
+    private static final int DAY_FIELD_COUNT = 8;
+
+    /**
+     * Receives the forecast as it is parsed.  The city may arrive before or after the days,
+     * depending on the order of the fields in the response.
+     */
+    public interface Listener {
+        void onCity(String cityName, double latitude, double longitude);
+
+        /**
+         * @param index the position of the day in the forecast, 0 being today.
+         * @param dayValues the day's weather columns, without the location key and the date.
+         */
+        void onDay(int index, ContentValues dayValues);
+    }
+
+    /**
+     * Streams the forecast out of the reader.
+     *
+     * @return the number of days read.
+     */
+    @TargetApi(11)
+    public static int parse(Reader in, Listener listener) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        int days = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY.equals(name)) {
+                readCity(reader, listener);
+            } else if (OWM_LIST.equals(name)) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    listener.onDay(days++, readDay(reader));
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return days;
+    }
+
+    @TargetApi(11)
+    private static void readCity(JsonReader reader, Listener listener) throws IOException {
+        String cityName = null;
+        double latitude = Double.NaN;
+        double longitude = Double.NaN;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                cityName = reader.nextString();
+            } else if (OWM_COORD.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        latitude = reader.nextDouble();
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        longitude = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (cityName == null || Double.isNaN(latitude) || Double.isNaN(longitude)) {
+            throw new IOException("Incomplete city in forecast");
+        }
+        listener.onCity(cityName, latitude, longitude);
+    }
+
+    @TargetApi(11)
+    private static ContentValues readDay(JsonReader reader) throws IOException {
+        ContentValues dayValues = new ContentValues();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_PRESSURE.equals(name)) {
+                dayValues.put(WeatherEntry.COLUMN_PRESSURE, reader.nextDouble());
+            } else if (OWM_HUMIDITY.equals(name)) {
+                // Same truncation as JSONObject.getInt
+                dayValues.put(WeatherEntry.COLUMN_HUMIDITY, (int) reader.nextDouble());
+            } else if (OWM_WINDSPEED.equals(name)) {
+                dayValues.put(WeatherEntry.COLUMN_WIND_SPEED, reader.nextDouble());
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                dayValues.put(WeatherEntry.COLUMN_DEGREES, reader.nextDouble());
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String temperatureName = reader.nextName();
+                    if (OWM_MAX.equals(temperatureName)) {
+                        dayValues.put(WeatherEntry.COLUMN_MAX_TEMP, reader.nextDouble());
+                    } else if (OWM_MIN.equals(temperatureName)) {
+                        dayValues.put(WeatherEntry.COLUMN_MIN_TEMP, reader.nextDouble());
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // Description is in a child array called "weather", which is 1 element long.
+                // That element also contains a weather code.
+                reader.beginArray();
+                if (reader.hasNext() && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String weatherName = reader.nextName();
+                        if (OWM_DESCRIPTION.equals(weatherName)) {
+                            dayValues.put(WeatherEntry.COLUMN_SHORT_DESC, reader.nextString());
+                        } else if (OWM_WEATHER_ID.equals(weatherName)) {
+                            dayValues.put(WeatherEntry.COLUMN_WEATHER_ID, (int) reader.nextDouble());
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        // JSONObject would have thrown on a missing field; so do we.
+        if (dayValues.size() != DAY_FIELD_COUNT) {
+            throw new IOException("Incomplete day in forecast: " + dayValues);
+        }
+        return dayValues;
+    }
+
+    /**
+     * Parses a complete forecast document with org.json.
+     *
+     * @return the number of days read.
+     */
+    public static int parse(String forecastJsonStr, Listener listener) throws JSONException {
+        JSONObject forecastJson = new JSONObject(forecastJsonStr);
+        JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+
+        JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
+        String cityName = cityJson.getString(OWM_CITY_NAME);
+
+        JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
+        listener.onCity(cityName,
+                cityCoord.getDouble(OWM_LATITUDE), cityCoord.getDouble(OWM_LONGITUDE));
+
+        for (int i = 0; i < weatherArray.length(); i++) {
+            // Get the JSON object representing the day
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+
+            // Description is in a child array called "weather", which is 1 element long.
+            // That element also contains a weather code.
+            JSONObject weatherObject =
+                    dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
+
+            // Temperatures are in a child object called "temp".  Try not to name variables
+            // "temp" when working with temperature.  It confuses everybody.
+            JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
+
+            ContentValues dayValues = new ContentValues();
+            dayValues.put(WeatherEntry.COLUMN_HUMIDITY, dayForecast.getInt(OWM_HUMIDITY));
+            dayValues.put(WeatherEntry.COLUMN_PRESSURE, dayForecast.getDouble(OWM_PRESSURE));
+            dayValues.put(WeatherEntry.COLUMN_WIND_SPEED, dayForecast.getDouble(OWM_WINDSPEED));
+            dayValues.put(WeatherEntry.COLUMN_DEGREES, dayForecast.getDouble(OWM_WIND_DIRECTION));
+            dayValues.put(WeatherEntry.COLUMN_MAX_TEMP, temperatureObject.getDouble(OWM_MAX));
+            dayValues.put(WeatherEntry.COLUMN_MIN_TEMP, temperatureObject.getDouble(OWM_MIN));
+            dayValues.put(WeatherEntry.COLUMN_SHORT_DESC, weatherObject.getString(OWM_DESCRIPTION));
+            dayValues.put(WeatherEntry.COLUMN_WEATHER_ID, weatherObject.getInt(OWM_WEATHER_ID));
+
+            listener.onDay(i, dayValues);
+        }
+        return weatherArray.length();
+    }
+}
@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MergeCursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.v4.app.LoaderManager;
+import android.support.v4.content.CursorLoader;
+import android.support.v4.content.Loader;
+import android.view.View;
+import android.widget.AbsListView;
+import android.widget.ListView;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.ArrayList;
+
+/**
+ * Loads the forecast into a {@link ForecastAdapter} one page at a time.
+ * <p>
+ * Each page is its own CursorLoader over a page URI of the provider, so each holds a cursor
+ * window of at most {@link #PAGE_SIZE} rows.  As the list nears the end of what is loaded, the
+ * next page is loaded in the background, starting after the last row of the one before, as
+ * given by its day and date.  At
+ * most {@link #MAX_PAGES} pages are kept: going further drops the page at the other end, and
+ * scrolling back loads it again from the row it started after.  The adapter sees the pages
+ * kept as one {@link MergeCursor}, and the list is kept on the row it showed whenever that
+ * cursor changes.  The days of every page are also handed to the {@link ForecastSnapshotCache},
+ * for the detail screen.
+ */
+class ForecastPager implements LoaderManager.LoaderCallbacks<Cursor>,
+        AbsListView.OnScrollListener {
+
+    static final int PAGE_SIZE = 30;
+    static final int MAX_PAGES = 4;
+
+    // How close to either end of what is loaded the list may get before the page beyond it is
+    // asked for.
+    private static final int PREFETCH_ROWS = PAGE_SIZE / 3;
+
+    private static final String ARG_PAGE = "page";
+
+    private final Context mContext;
+    private final LoaderManager mLoaderManager;
+    private final ListView mListView;
+    private final ForecastAdapter mAdapter;
+    private final String[] mProjection;
+    private final int mDayColumn;
+    private final int mDateColumn;
+    private final ForecastSnapshotCache mSnapshotCache;
+
+    private String mLocationSetting;
+    private long mStartDate;
+
+    // The row each page starts after, as far as it is known; FIRST_PAGE_KEY for the first page.
+    private final ArrayList<PageKey> mPageKeys = new ArrayList<PageKey>();
+    // The page that came back short, or -1 while there may be more.
+    private int mLastPage;
+
+    // The pages kept, from mFirstPage to mEndPage, exclusive.  Page n has loader id
+    // n % MAX_PAGES, so the loaders of the pages kept never share an id.
+    private int mFirstPage;
+    private int mEndPage;
+    private final Cursor[] mCursors = new Cursor[MAX_PAGES];
+
+    // The pages the adapter's cursor is made of, so the list can be kept on the same row.
+    private int mShownFirstPage;
+    private int[] mShownCounts = new int[0];
+
+    ForecastPager(Context context, LoaderManager loaderManager, ListView listView,
+                  ForecastAdapter adapter, String[] projection, int dayColumn,
+                  int dateColumn) {
+        mContext = context;
+        mLoaderManager = loaderManager;
+        mListView = listView;
+        mAdapter = adapter;
+        mProjection = projection;
+        mDayColumn = dayColumn;
+        mDateColumn = dateColumn;
+        mSnapshotCache = ForecastSnapshotCache.get(context);
+        listView.setOnScrollListener(this);
+    }
+
+    /**
+     * Starts over from the first page of the forecast for this location, from today on.  With
+     * reuse, a first page that is still loaded from before is taken over as is.
+     */
+    void start(String locationSetting, boolean reuse) {
+        for (int id = 0; id < MAX_PAGES; id++) {
+            if (!reuse || id != 0) {
+                mLoaderManager.destroyLoader(id);
+            }
+        }
+        mLocationSetting = locationSetting;
+        mStartDate = System.currentTimeMillis();
+        mPageKeys.clear();
+        mPageKeys.add(PageKey.FIRST_PAGE_KEY);
+        mLastPage = -1;
+        mFirstPage = 0;
+        mEndPage = 1;
+        for (int i = 0; i < MAX_PAGES; i++) {
+            mCursors[i] = null;
+        }
+        swapMergedCursor();
+        mLoaderManager.initLoader(0, pageArgs(0), this);
+    }
+
+    /*
+        The day and date of the last row of a page, as stored.  There can be more than one row
+        on a day, so the next page starts after both.
+     */
+    private static final class PageKey {
+        static final PageKey FIRST_PAGE_KEY = new PageKey(0, 0);
+
+        final int mDay;
+        final long mDate;
+
+        PageKey(int day, long date) {
+            mDay = day;
+            mDate = date;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PageKey)) {
+                return false;
+            }
+            PageKey other = (PageKey) o;
+            return mDay == other.mDay && mDate == other.mDate;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * mDay + (int) (mDate ^ (mDate >>> 32));
+        }
+    }
+
+    private static Bundle pageArgs(int page) {
+        Bundle args = new Bundle();
+        args.putInt(ARG_PAGE, page);
+        return args;
+    }
+
+    /*
+        Takes the generation of the snapshot cache before each query, so a page that may be
+        older than the last change isn't cached.
+     */
+    private static class PageLoader extends CursorLoader {
+        private final ForecastSnapshotCache mCache;
+        private volatile int mGeneration;
+
+        PageLoader(Context context, ForecastSnapshotCache cache, Uri uri, String[] projection) {
+            super(context, uri, projection, null, null, null);
+            mCache = cache;
+        }
+
+        @Override
+        public Cursor loadInBackground() {
+            mGeneration = mCache.getGeneration();
+            return super.loadInBackground();
+        }
+    }
+
+    @Override
+    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+        int page = args.getInt(ARG_PAGE);
+        PageKey key = mPageKeys.get(page);
+        return new PageLoader(mContext, mSnapshotCache,
+                WeatherContract.WeatherEntry.buildWeatherLocationPage(mLocationSetting,
+                        mStartDate, key.mDay, key.mDate, PAGE_SIZE),
+                mProjection);
+    }
+
+    @Override
+    public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
+        int page = pageOf(loader.getId());
+        if (page < 0) {
+            return;
+        }
+        mCursors[page % MAX_PAGES] = cursor;
+        mSnapshotCache.putRows(mLocationSetting, cursor, ((PageLoader) loader).mGeneration);
+
+        // A reload can move where this page ends; whatever was loaded after it no longer
+        // follows on from it.
+        PageKey nextKey = null;
+        if (cursor.getCount() == PAGE_SIZE && cursor.moveToLast()) {
+            nextKey = new PageKey(cursor.getInt(mDayColumn), cursor.getLong(mDateColumn));
+        }
+        boolean nextKeyChanged = mPageKeys.size() <= page + 1 ||
+                !mPageKeys.get(page + 1).equals(nextKey);
+        if (nextKeyChanged) {
+            while (mEndPage > page + 1) {
+                mEndPage--;
+                mCursors[mEndPage % MAX_PAGES] = null;
+                mLoaderManager.destroyLoader(mEndPage % MAX_PAGES);
+            }
+            while (mPageKeys.size() > page + 1) {
+                mPageKeys.remove(mPageKeys.size() - 1);
+            }
+            if (nextKey != null) {
+                mPageKeys.add(nextKey);
+            }
+        }
+        mLastPage = nextKey == null ? page : -1;
+        swapMergedCursor();
+    }
+
+    @Override
+    public void onLoaderReset(Loader<Cursor> loader) {
+        // The loader is about to close its cursor, so the adapter must stop using it now.
+        int page = pageOf(loader.getId());
+        if (page >= 0) {
+            mCursors[page % MAX_PAGES] = null;
+        }
+        swapMergedCursor();
+    }
+
+    // The page kept that has this loader id, or -1 if none does.
+    private int pageOf(int id) {
+        for (int page = mFirstPage; page < mEndPage; page++) {
+            if (page % MAX_PAGES == id) {
+                return page;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void onScrollStateChanged(AbsListView view, int scrollState) {
+    }
+
+    @Override
+    public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+                         int totalItemCount) {
+        if (totalItemCount == 0 || mLocationSetting == null) {
+            return;
+        }
+        if (firstVisibleItem + visibleItemCount >= totalItemCount - PREFETCH_ROWS) {
+            loadNextPage();
+        } else if (firstVisibleItem < PREFETCH_ROWS) {
+            loadPreviousPage();
+        }
+    }
+
+    private void loadNextPage() {
+        int next = mEndPage;
+        // Only once the page before it is in and has said where the next one starts.
+        if (mCursors[(next - 1) % MAX_PAGES] == null || (mLastPage >= 0 && mLastPage < next) ||
+                mPageKeys.size() <= next) {
+            return;
+        }
+        if (mEndPage - mFirstPage == MAX_PAGES) {
+            mCursors[mFirstPage % MAX_PAGES] = null;
+            int id = mFirstPage % MAX_PAGES;
+            mFirstPage++;
+            mLoaderManager.destroyLoader(id);
+        }
+        mEndPage++;
+        mLoaderManager.initLoader(next % MAX_PAGES, pageArgs(next), this);
+    }
+
+    private void loadPreviousPage() {
+        int previous = mFirstPage - 1;
+        if (previous < 0 || mCursors[mFirstPage % MAX_PAGES] == null) {
+            return;
+        }
+        if (mEndPage - mFirstPage == MAX_PAGES) {
+            mEndPage--;
+            mCursors[mEndPage % MAX_PAGES] = null;
+            mLoaderManager.destroyLoader(mEndPage % MAX_PAGES);
+        }
+        mFirstPage--;
+        mLoaderManager.initLoader(previous % MAX_PAGES, pageArgs(previous), this);
+    }
+
+    /*
+        Hands the adapter the loaded pages that follow on from each other, and scrolls the list
+        so that the row at its top stays there.
+     */
+    private void swapMergedCursor() {
+        int first = mFirstPage;
+        while (first < mEndPage && mCursors[first % MAX_PAGES] == null) {
+            first++;
+        }
+        int end = first;
+        while (end < mEndPage && mCursors[end % MAX_PAGES] != null) {
+            end++;
+        }
+
+        // Where the top row is now, as a page and a row within it.
+        int anchorPage = -1;
+        int anchorRow = 0;
+        int anchorTop = 0;
+        int position = mListView.getFirstVisiblePosition();
+        View child = mListView.getChildAt(0);
+        if (child != null) {
+            anchorTop = child.getTop();
+            anchorRow = position;
+            for (int i = 0; i < mShownCounts.length; i++) {
+                if (anchorRow < mShownCounts[i]) {
+                    anchorPage = mShownFirstPage + i;
+                    break;
+                }
+                anchorRow -= mShownCounts[i];
+            }
+        }
+
+        int[] counts = new int[end - first];
+        Cursor[] cursors = new Cursor[end - first];
+        int anchorPosition = -1;
+        int rows = 0;
+        for (int page = first; page < end; page++) {
+            Cursor cursor = mCursors[page % MAX_PAGES];
+            if (page == anchorPage) {
+                anchorPosition = rows + Math.min(anchorRow, cursor.getCount() - 1);
+            }
+            cursors[page - first] = cursor;
+            counts[page - first] = cursor.getCount();
+            rows += cursor.getCount();
+        }
+        mShownFirstPage = first;
+        mShownCounts = counts;
+
+        // The adapter doesn't own the page cursors, so the old merged cursor is not closed.
+        if (cursors.length == 0) {
+            mAdapter.swapCursor(null);
+        } else if (cursors.length == 1) {
+            mAdapter.swapCursor(cursors[0]);
+        } else {
+            mAdapter.swapCursor(new MergeCursor(cursors));
+        }
+        if (anchorPosition >= 0 && anchorPosition != position) {
+            mListView.setSelectionFromTop(anchorPosition, anchorTop);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.support.v4.util.LruCache;
+
+import com.example.android.sunshine.app.data.DayNormalizer;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * The forecast days the list has loaded, kept so that the detail screen can show one without
+ * querying the provider again.
+ * <p>
+ * Days are keyed by location setting and julian day, and the least recently used ones go
+ * once there are more than {@link #MAX_DAYS}.  Any change the provider reports for the weather
+ * or the locations empties the cache.  A page loaded by a query that started before such a
+ * change is not added, since it may predate it: callers take {@link #getGeneration()} before
+ * they query and hand it to {@link #putRows}.
+ */
+final class ForecastSnapshotCache {
+
+    static final int MAX_DAYS = 256;
+
+    /**
+     * One day of the forecast, as the detail screen shows it.
+     */
+    static final class ForecastDay {
+        final long date;
+        final String description;
+        final double maxTemp;
+        final double minTemp;
+
+        ForecastDay(long date, String description, double maxTemp, double minTemp) {
+            this.date = date;
+            this.description = description;
+            this.maxTemp = maxTemp;
+            this.minTemp = minTemp;
+        }
+    }
+
+    private static ForecastSnapshotCache sInstance;
+
+    private final LruCache<String, ForecastDay> mDays =
+            new LruCache<String, ForecastDay>(MAX_DAYS);
+
+    // Bumped by every change notification; guarded by this.
+    private int mGeneration;
+
+    private ForecastSnapshotCache(ContentResolver resolver) {
+        ContentObserver observer = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                invalidate();
+            }
+        };
+        resolver.registerContentObserver(WeatherEntry.CONTENT_URI, true, observer);
+        resolver.registerContentObserver(LocationEntry.CONTENT_URI, true, observer);
+    }
+
+    static synchronized ForecastSnapshotCache get(Context context) {
+        if (sInstance == null) {
+            sInstance = new ForecastSnapshotCache(
+                    context.getApplicationContext().getContentResolver());
+        }
+        return sInstance;
+    }
+
+    private static String key(String locationSetting, int julianDay) {
+        return julianDay + ":" + locationSetting;
+    }
+
+    synchronized int getGeneration() {
+        return mGeneration;
+    }
+
+    synchronized void invalidate() {
+        mGeneration++;
+        mDays.evictAll();
+    }
+
+    /**
+     * @return the day at this location as the list last loaded it, or null.
+     */
+    ForecastDay getDay(String locationSetting, long date) {
+        return mDays.get(key(locationSetting, DayNormalizer.julianDay(date)));
+    }
+
+    /**
+     * Adds every row of the cursor, unless the data changed since generation was taken.  The
+     * cursor needs the date, description and temperature columns of the weather.
+     */
+    synchronized void putRows(String locationSetting, Cursor cursor, int generation) {
+        if (generation != mGeneration) {
+            return;
+        }
+        int dateColumn = cursor.getColumnIndexOrThrow(WeatherEntry.COLUMN_DATE);
+        int descriptionColumn = cursor.getColumnIndexOrThrow(WeatherEntry.COLUMN_SHORT_DESC);
+        int maxTempColumn = cursor.getColumnIndexOrThrow(WeatherEntry.COLUMN_MAX_TEMP);
+        int minTempColumn = cursor.getColumnIndexOrThrow(WeatherEntry.COLUMN_MIN_TEMP);
+        for (int i = 0; cursor.moveToPosition(i); i++) {
+            long date = cursor.getLong(dateColumn);
+            mDays.put(key(locationSetting, DayNormalizer.julianDay(date)),
+                    new ForecastDay(date, cursor.getString(descriptionColumn),
+                            cursor.getDouble(maxTempColumn), cursor.getDouble(minTempColumn)));
+        }
+    }
+}
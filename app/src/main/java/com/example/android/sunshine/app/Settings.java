@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/**
+ * The user's settings as they stand, read once and kept.
+ * <p>
+ * A snapshot never changes.  When a setting does, a listener on the default SharedPreferences
+ * builds a new snapshot and swaps it in, so a read is a volatile field load instead of a
+ * SharedPreferences lookup and three resource strings.  Callers that keep a snapshot can tell
+ * that the settings changed by comparing it with {@link #get} by identity.
+ */
+public final class Settings {
+
+    public final String location;
+    public final String units;
+    public final boolean isMetric;
+
+    private Settings(String location, String units, boolean isMetric) {
+        this.location = location;
+        this.units = units;
+        this.isMetric = isMetric;
+    }
+
+    private static volatile Settings sSnapshot;
+
+    // SharedPreferences only keeps weak references to its listeners.
+    private static SharedPreferences.OnSharedPreferenceChangeListener sListener;
+
+    public static Settings get(Context context) {
+        Settings snapshot = sSnapshot;
+        if (snapshot == null) {
+            snapshot = load(context.getApplicationContext());
+        }
+        return snapshot;
+    }
+
+    private static synchronized Settings load(final Context context) {
+        if (sSnapshot != null) {
+            return sSnapshot;
+        }
+        final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        final String locationKey = context.getString(R.string.pref_location_key);
+        final String unitsKey = context.getString(R.string.pref_units_key);
+        final String locationDefault = context.getString(R.string.pref_location_default);
+        final String metric = context.getString(R.string.pref_units_metric);
+
+        sListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+            @Override
+            public void onSharedPreferenceChanged(SharedPreferences sharedPreferences,
+                                                  String key) {
+                if (!locationKey.equals(key) && !unitsKey.equals(key)) {
+                    return;
+                }
+                Settings old = sSnapshot;
+                Settings snapshot = read(prefs, locationKey, unitsKey, locationDefault, metric);
+                sSnapshot = snapshot;
+                if (old != null && old.isMetric != snapshot.isMetric) {
+                    // Strings formatted in the old units are no good any more.
+                    Utility.invalidateFormatCaches();
+                }
+            }
+        };
+        // Registered before the read, so a change in between isn't missed.
+        prefs.registerOnSharedPreferenceChangeListener(sListener);
+        sSnapshot = read(prefs, locationKey, unitsKey, locationDefault, metric);
+        return sSnapshot;
+    }
+
+    private static Settings read(SharedPreferences prefs, String locationKey, String unitsKey,
+                                 String locationDefault, String metric) {
+        String units = prefs.getString(unitsKey, metric);
+        return new Settings(prefs.getString(locationKey, locationDefault), units,
+                units.equals(metric));
+    }
+}
@@ -16,38 +16,165 @@
 package com.example.android.sunshine.app;
 
 import android.content.Context;
-import android.content.SharedPreferences;
-import android.preference.PreferenceManager;
 
 import java.text.DateFormat;
 import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
 
 public class Utility {
+    // Both read the current Settings snapshot.
     public static String getPreferredLocation(Context context) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        return prefs.getString(context.getString(R.string.pref_location_key),
-                context.getString(R.string.pref_location_default));
+        return Settings.get(context).location;
     }
 
     public static boolean isMetric(Context context) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        return prefs.getString(context.getString(R.string.pref_units_key),
-                context.getString(R.string.pref_units_metric))
-                .equals(context.getString(R.string.pref_units_metric));
+        return Settings.get(context).isMetric;
     }
 
+    // Temperatures a forecast can plausibly show, as strings made once per generation.
+    // Anything outside is formatted on the spot.
+    private static final int MIN_CACHED_TEMPERATURE = -100;
+    private static final int MAX_CACHED_TEMPERATURE = 150;
+
+    /*
+        The temperature strings of one generation, made with String.format so they carry the
+        digits of its locale.
+     */
+    private static final class TemperatureStrings {
+        final int generation;
+        final String[] strings = new String[MAX_CACHED_TEMPERATURE - MIN_CACHED_TEMPERATURE + 1];
+        final String negativeZero = String.format("%.0f", -0.0);
+
+        TemperatureStrings(int generation) {
+            this.generation = generation;
+        }
+    }
+
+    private static volatile TemperatureStrings sTemperatureStrings;
+
+    /**
+     * Returns what "%.0f" would: half away from zero on the exact value, in the digits of the
+     * default locale.  A value that rounds to 0 from below keeps its sign, as "-0".
+     */
     static String formatTemperature(double temperature, boolean isMetric) {
-        double temp;
-        if ( !isMetric ) {
-            temp = 9*temperature/5+32;
-        } else {
-            temp = temperature;
+        double temp = toUnits(temperature, isMetric);
+        double rounded = round(temp);
+        if (!(rounded >= MIN_CACHED_TEMPERATURE && rounded <= MAX_CACHED_TEMPERATURE)) {
+            // Also NaN.
+            return String.format("%.0f", temp);
+        }
+        TemperatureStrings cache = sTemperatureStrings;
+        int generation = sFormatGeneration;
+        if (cache == null || cache.generation != generation) {
+            cache = new TemperatureStrings(generation);
+            sTemperatureStrings = cache;
+        }
+        if (rounded == 0 && Math.copySign(1.0, rounded) < 0) {
+            return cache.negativeZero;
+        }
+        int index = (int) rounded - MIN_CACHED_TEMPERATURE;
+        // Racing threads can only store equal strings.
+        String string = cache.strings[index];
+        if (string == null) {
+            string = String.format("%.0f", rounded);
+            cache.strings[index] = string;
+        }
+        return string;
+    }
+
+    /**
+     * Appends what formatTemperature returns.  The strings of common temperatures are cached,
+     * so this creates none.
+     */
+    static StringBuilder appendTemperature(StringBuilder builder, double temperature,
+                                           boolean isMetric) {
+        return builder.append(formatTemperature(temperature, isMetric));
+    }
+
+    private static double toUnits(double temperature, boolean isMetric) {
+        return isMetric ? temperature : 9*temperature/5+32;
+    }
+
+    /*
+        Half away from zero, keeping the sign of a value that rounds to 0.  Taking the fraction
+        off the floor is exact, unlike adding 0.5, which rounds 0.49999999999999994 up to 1.
+     */
+    private static double round(double temp) {
+        double magnitude = Math.abs(temp);
+        double floor = Math.floor(magnitude);
+        if (magnitude - floor >= 0.5) {
+            floor++;
         }
-        return String.format("%.0f", temp);
+        return Math.copySign(floor, temp);
     }
 
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    // A power of two, and more days than a list shows.  Dates are normalized to the start of
+    // their day, so consecutive days fall into consecutive slots.
+    private static final int DAY_STRING_SLOTS = 64;
+
+    // Bumped whenever something a formatted string depends on changes.
+    private static volatile int sFormatGeneration;
+
+    /*
+        The date format of one thread, made for the locale and time zone of its generation, and
+        the day strings it has made.  Nothing here is shared, so nothing needs a lock.
+     */
+    private static final class DateFormatter {
+        final int generation;
+        final DateFormat format;
+        final Date date = new Date(0);
+        final long[] days = new long[DAY_STRING_SLOTS];
+        final String[] strings = new String[DAY_STRING_SLOTS];
+
+        DateFormatter(int generation, Locale locale, TimeZone zone) {
+            this.generation = generation;
+            format = DateFormat.getDateInstance(DateFormat.DEFAULT, locale);
+            format.setTimeZone(zone);
+        }
+
+        String format(long dateInMillis) {
+            int slot = (int) ((dateInMillis / DAY_IN_MILLIS) & (DAY_STRING_SLOTS - 1));
+            String string = strings[slot];
+            if (string == null || days[slot] != dateInMillis) {
+                date.setTime(dateInMillis);
+                string = format.format(date);
+                strings[slot] = string;
+                days[slot] = dateInMillis;
+            }
+            return string;
+        }
+    }
+
+    private static final ThreadLocal<DateFormatter> sDateFormatter =
+            new ThreadLocal<DateFormatter>();
+
+    /**
+     * Formats the date with the default locale and time zone.  The strings of recent days are
+     * remembered per thread until {@link #invalidateFormatCaches()}.
+     */
     static String formatDate(long dateInMillis) {
-        Date date = new Date(dateInMillis);
-        return DateFormat.getDateInstance().format(date);
+        DateFormatter formatter = sDateFormatter.get();
+        int generation = sFormatGeneration;
+        if (formatter == null || formatter.generation != generation) {
+            formatter = new DateFormatter(generation, Locale.getDefault(), TimeZone.getDefault());
+            sDateFormatter.set(formatter);
+        }
+        return formatter.format(dateInMillis);
+    }
+
+    /**
+     * Forgets every formatted string, for when the locale, the time zone or the units
+     * preference has changed.  Callers that keep their own copies compare
+     * {@link #getFormatGeneration()} with the one they saw.
+     */
+    public static synchronized void invalidateFormatCaches() {
+        sFormatGeneration++;
+    }
+
+    static int getFormatGeneration() {
+        return sFormatGeneration;
     }
-}
\ No newline at end of file
+}
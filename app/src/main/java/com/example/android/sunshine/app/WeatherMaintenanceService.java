@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.app.AlarmManager;
+import android.app.IntentService;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherDbHelper;
+import com.example.android.sunshine.app.data.WeatherMaintenance;
+
+/**
+ * Runs {@link WeatherMaintenance} about once a day, off the main thread.
+ * <p>
+ * The one full VACUUM a database needs before it can be compacted in steps is not part of the
+ * daily run.  When a run reports it pending, it is queued as its own intent, and only while
+ * the device is plugged in.
+ */
+public class WeatherMaintenanceService extends IntentService {
+
+    private static final String LOG_TAG = WeatherMaintenanceService.class.getSimpleName();
+
+    private static final String ACTION_ENABLE_INCREMENTAL_VACUUM =
+            "com.example.android.sunshine.app.action.ENABLE_INCREMENTAL_VACUUM";
+
+    public WeatherMaintenanceService() {
+        super(LOG_TAG);
+    }
+
+    /**
+     * Sets up the daily alarm, unless it is already set.
+     */
+    public static void schedule(Context context) {
+        Intent intent = new Intent(context, WeatherMaintenanceService.class);
+        if (PendingIntent.getService(context, 0, intent, PendingIntent.FLAG_NO_CREATE) != null) {
+            return;
+        }
+        PendingIntent operation = PendingIntent.getService(context, 0, intent, 0);
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        // Inexact, so the system can run it alongside other wakeups, and not while the app is
+        // starting up.
+        alarmManager.setInexactRepeating(AlarmManager.ELAPSED_REALTIME,
+                SystemClock.elapsedRealtime() + AlarmManager.INTERVAL_HOUR,
+                AlarmManager.INTERVAL_DAY, operation);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        WeatherMaintenance maintenance = new WeatherMaintenance(WeatherDbHelper.getInstance(this));
+        if (ACTION_ENABLE_INCREMENTAL_VACUUM.equals(intent.getAction())) {
+            Log.d(LOG_TAG, "Vacuum: " + maintenance.enableIncrementalVacuum() +
+                    " pages reclaimed");
+            return;
+        }
+        WeatherMaintenance.Report report = maintenance.run(System.currentTimeMillis());
+        Log.d(LOG_TAG, "Maintenance: " + report);
+        if (report.rowsPurged > 0 || report.partitionsDropped > 0) {
+            getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+        }
+        if (report.vacuumPending && isPluggedIn()) {
+            startService(new Intent(this, WeatherMaintenanceService.class)
+                    .setAction(ACTION_ENABLE_INCREMENTAL_VACUUM));
+        }
+    }
+
+    private boolean isPluggedIn() {
+        // The battery broadcast is sticky, so this reads it without registering anything.
+        Intent battery = registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        return battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+    }
+}
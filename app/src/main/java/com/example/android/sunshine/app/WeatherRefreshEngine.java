@@ -0,0 +1,440 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.annotation.TargetApi;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.net.Uri;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.DataMetrics;
+import com.example.android.sunshine.app.data.LocationIdCache;
+import com.example.android.sunshine.app.data.NotificationCoalescer;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import org.json.JSONException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Refreshes the forecasts of any number of locations at once.
+ * <p>
+ * The locations are fetched on a bounded pool, with no more than a few requests in flight to
+ * any one host, and each response is parsed on its worker as it arrives.  Once every location
+ * is in, all the rows go to the provider in a single batched write, so the forecast list
+ * reloads once per refresh rather than once per location.
+ */
+public class WeatherRefreshEngine {
+
+    private final String LOG_TAG = WeatherRefreshEngine.class.getSimpleName();
+
+    static final int DEFAULT_POOL_SIZE = 4;
+
+    // OpenWeatherMap throttles clients that open too many connections at once.
+    static final int DEFAULT_PER_HOST_LIMIT = 2;
+
+    /**
+     * What one refresh did.  Latencies run from the start of the refresh to the end of each
+     * location's parse, so they include any time spent waiting for a worker or a host slot.
+     */
+    public static class Report {
+        public int fetched;
+        public int notModified;
+        public int failed;
+        public int rowsWritten;
+        public long elapsedMillis;
+        long[] mLatenciesMillis;
+
+        /** @return the latency below which the given percentage of locations completed. */
+        public long getLatencyPercentile(int percent) {
+            if (mLatenciesMillis == null || mLatenciesMillis.length == 0) {
+                return 0;
+            }
+            long[] sorted = mLatenciesMillis.clone();
+            Arrays.sort(sorted);
+            // Nearest rank.
+            int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+            return sorted[Math.max(0, rank - 1)];
+        }
+
+        /** @return locations completed per second, whether they changed or not. */
+        public double getThroughput() {
+            return (fetched + notModified) * 1000.0 / Math.max(1, elapsedMillis);
+        }
+
+        @Override
+        public String toString() {
+            return fetched + " fetched, " + notModified + " not modified, " + failed +
+                    " failed, " + rowsWritten + " rows written in " + elapsedMillis + " ms, p95 " +
+                    getLatencyPercentile(95) + " ms";
+        }
+    }
+
+    private final Context mContext;
+    private final ForecastFetcher mFetcher;
+    private final int mPoolSize;
+    private final int mPerHostLimit;
+
+    // Shared by every engine in the process, since each refresh builds its own: the limit is
+    // on the connections the app has open to a host, not on one refresh's.  Engines asking for
+    // different limits, as the performance tests do, get separate permits.
+    private static final Map<String, Semaphore> sHostPermits = new HashMap<String, Semaphore>();
+
+    private final AtomicInteger mParseCount = new AtomicInteger();
+    private final LocationIdCache mLocationIdCache;
+
+    public WeatherRefreshEngine(Context context) {
+        this(context, new ForecastFetcher(), DEFAULT_POOL_SIZE, DEFAULT_PER_HOST_LIMIT);
+    }
+
+    public WeatherRefreshEngine(Context context, ForecastFetcher fetcher, int poolSize,
+                                int perHostLimit) {
+        mContext = context;
+        mFetcher = fetcher;
+        mPoolSize = poolSize;
+        mPerHostLimit = perHostLimit;
+        mLocationIdCache = LocationIdCache.getInstance(context);
+    }
+
+    /** @return how many responses have been parsed; a 304 doesn't count. */
+    public int getParseCount() {
+        return mParseCount.get();
+    }
+
+    private Semaphore getHostPermits(String host) {
+        String key = host + "/" + mPerHostLimit;
+        synchronized (sHostPermits) {
+            Semaphore permits = sHostPermits.get(key);
+            if (permits == null) {
+                permits = new Semaphore(mPerHostLimit);
+                sHostPermits.put(key, permits);
+            }
+            return permits;
+        }
+    }
+
+    /**
+     * Fetches one location and parses what comes back.  Runs on a pool thread.
+     */
+    private class LocationFetch implements Callable<LocationFetch> {
+        final String mLocationSetting;
+        final long mRefreshStart;
+
+        ForecastFetcher.Result mResult;
+        ForecastCollector mCollector;
+        long mLatencyMillis;
+        long mParseNanos;
+
+        LocationFetch(String locationSetting, long refreshStart) {
+            mLocationSetting = locationSetting;
+            mRefreshStart = refreshStart;
+        }
+
+        @Override
+        public LocationFetch call() throws IOException, JSONException, InterruptedException {
+            String[] validators = getValidators(mLocationSetting);
+
+            Semaphore permits = getHostPermits(mFetcher.getHost());
+            permits.acquire();
+            long begin = System.nanoTime();
+            try {
+                mResult = mFetcher.fetch(mLocationSetting, validators[0], validators[1],
+                        new ForecastFetcher.BodyHandler() {
+                    @Override
+                    public void onBody(BufferedReader reader) throws IOException, JSONException {
+                        mParseCount.incrementAndGet();
+                        long parseBegin = System.nanoTime();
+                        mCollector = parse(reader);
+                        mParseNanos = System.nanoTime() - parseBegin;
+                    }
+                });
+            } finally {
+                permits.release();
+            }
+            // The body is parsed as it is read, so the network gets whatever parsing didn't.
+            DataMetrics metrics = DataMetrics.getInstance();
+            if (!mResult.notModified) {
+                metrics.recordPhase(DataMetrics.PHASE_PARSE, mParseNanos,
+                        mCollector == null ? 0 : mCollector.getDays().size());
+            }
+            metrics.recordPhase(DataMetrics.PHASE_NETWORK,
+                    System.nanoTime() - begin - mParseNanos, 0);
+            mLatencyMillis = SystemClock.elapsedRealtime() - mRefreshStart;
+            return this;
+        }
+    }
+
+    /**
+     * Refreshes the given locations and returns once everything has been written.
+     */
+    public Report refresh(String... locationSettings) {
+        Report report = new Report();
+        if (locationSettings.length == 0) {
+            return report;
+        }
+
+        long refreshStart = SystemClock.elapsedRealtime();
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Math.min(mPoolSize, locationSettings.length));
+        List<LocationFetch> completed = new ArrayList<LocationFetch>();
+        try {
+            List<Future<LocationFetch>> futures = new ArrayList<Future<LocationFetch>>();
+            for (String locationSetting : locationSettings) {
+                futures.add(pool.submit(new LocationFetch(locationSetting, refreshStart)));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    completed.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    // One location failing shouldn't cost the others their refresh.
+                    Log.e(LOG_TAG, "Error refreshing " + locationSettings[i], e.getCause());
+                    report.failed++;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return report;
+        } finally {
+            pool.shutdownNow();
+        }
+
+        report.mLatenciesMillis = new long[completed.size()];
+        for (int i = 0; i < completed.size(); i++) {
+            LocationFetch fetch = completed.get(i);
+            report.mLatenciesMillis[i] = fetch.mLatencyMillis;
+            if (fetch.mResult.notModified) {
+                report.notModified++;
+            } else {
+                report.fetched++;
+            }
+        }
+
+        long writeBegin = System.nanoTime();
+        report.rowsWritten = write(completed);
+        DataMetrics.getInstance().recordPhase(DataMetrics.PHASE_WRITE,
+                System.nanoTime() - writeBegin, report.rowsWritten);
+        report.elapsedMillis = SystemClock.elapsedRealtime() - refreshStart;
+        Log.d(LOG_TAG, "Refresh complete: " + report);
+        return report;
+    }
+
+    private ForecastCollector parse(BufferedReader reader) throws IOException, JSONException {
+        ForecastCollector collector = new ForecastCollector();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            // Parse as the bytes come in; the response is never held in memory as a whole.
+            parseStream(reader, collector);
+            return collector;
+        }
+
+        // Read the input stream into a String
+        StringBuilder buffer = new StringBuilder();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            buffer.append(line);
+        }
+
+        if (buffer.length() == 0) {
+            // Stream was empty.  No point in parsing.
+            return null;
+        }
+        ForecastJsonParser.parse(buffer.toString(), collector);
+        return collector;
+    }
+
+    @TargetApi(11)
+    private static void parseStream(BufferedReader reader, ForecastCollector collector)
+            throws IOException {
+        ForecastJsonParser.parse(reader, collector);
+    }
+
+    /**
+     * Stores the locations, writes every location's days in one bulk insert, and only then
+     * stores the validators each forecast came with.  Until its days are written, a location
+     * keeps the validators of the forecast that is stored, so a failed write can't turn the
+     * next refresh into a 304 for days that never landed.
+     *
+     * @return how many weather rows were inserted or updated.
+     */
+    private int write(List<LocationFetch> completed) {
+        // Every new location and the bulkInsert would each reload the
+        // forecast list, so hold their change notifications back until all have landed.
+        NotificationCoalescer notificationCoalescer = NotificationCoalescer.getInstance(mContext);
+        notificationCoalescer.suspend();
+        try {
+            List<ContentValues> rows = new ArrayList<ContentValues>();
+            List<LocationFetch> written = new ArrayList<LocationFetch>();
+            for (LocationFetch fetch : completed) {
+                ForecastCollector collector = fetch.mCollector;
+                if (fetch.mResult.notModified || collector == null) {
+                    continue;
+                }
+                if (collector.getCityName() == null) {
+                    Log.e(LOG_TAG, "No city in the forecast for " + fetch.mLocationSetting);
+                    continue;
+                }
+                long locationId = insertOrGetLocation(fetch.mLocationSetting,
+                        collector.getCityName(), collector.getCityLatitude(),
+                        collector.getCityLongitude(), null);
+
+                for (ContentValues weatherValues : collector.getDays()) {
+                    weatherValues.put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+                    rows.add(weatherValues);
+                }
+                written.add(fetch);
+            }
+
+            if (rows.isEmpty()) {
+                return 0;
+            }
+            // Only the days that are new or whose forecast changed get written.
+            int rowsWritten;
+            try {
+                rowsWritten = mContext.getContentResolver().bulkInsert(
+                        WeatherEntry.buildWeatherSyncUri(),
+                        rows.toArray(new ContentValues[rows.size()]));
+            } catch (SQLException e) {
+                Log.e(LOG_TAG, "Error writing the forecasts, their validators are not stored", e);
+                return 0;
+            }
+            for (LocationFetch fetch : written) {
+                ForecastCollector collector = fetch.mCollector;
+                insertOrGetLocation(fetch.mLocationSetting, collector.getCityName(),
+                        collector.getCityLatitude(), collector.getCityLongitude(),
+                        fetch.mResult);
+            }
+            return rowsWritten;
+        } finally {
+            notificationCoalescer.resume();
+        }
+    }
+
+    /**
+     * Helper method to handle insertion of a new location in the weather database.
+     *
+     * @param locationSetting The location string used to request updates from the server.
+     * @param cityName A human-readable city name, e.g "Mountain View"
+     * @param lat the latitude of the city
+     * @param lon the longitude of the city
+     * @return the row ID of the added location.
+     */
+    long addLocation(String locationSetting, String cityName, double lat, double lon) {
+        // Most refreshes are for a location that is already stored.
+        long locationId = mLocationIdCache.get(locationSetting);
+        if (locationId != LocationIdCache.NOT_CACHED) {
+            return locationId;
+        }
+        return insertOrGetLocation(locationSetting, cityName, lat, lon, null);
+    }
+
+    /**
+     * Stores the location if it isn't yet, in one call to the provider.
+     *
+     * @param result if not null, the response whose validators should be stored with the
+     *               location, replacing the old ones.
+     * @return the row ID of the location.
+     */
+    private long insertOrGetLocation(String locationSetting, String cityName, double lat,
+                                     double lon, ForecastFetcher.Result result) {
+        // First create a ContentValues object to hold the data you want to insert.
+        ContentValues locationValues = new ContentValues();
+
+        // Then add the data, along with the corresponding name of the data type,
+        // so the content provider knows what kind of value is being inserted.
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+        if (result != null) {
+            // Forget the old validators if the server didn't send any.
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_ETAG, result.etag);
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_LAST_MODIFIED,
+                    result.lastModified);
+        }
+
+        // The provider hands back the existing row if there is one, so there is no need to
+        // look the location up first.
+        Uri locationUri = mContext.getContentResolver().insert(
+                WeatherContract.LocationEntry.buildLocationInsertOrGetUri(),
+                locationValues
+        );
+
+        // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
+        long locationId = ContentUris.parseId(locationUri);
+        mLocationIdCache.put(locationSetting, locationId);
+        return locationId;
+    }
+
+    /**
+     * @return the ETag and Last-Modified stored for the location setting, either of which
+     *         may be null.  There are none unless the forecast they were issued with is still
+     *         stored; a 304 would otherwise leave the forecast list empty.
+     */
+    private String[] getValidators(String locationSetting) {
+        Cursor weatherCursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithStartDate(locationSetting,
+                        WeatherContract.normalizeDate(System.currentTimeMillis())),
+                new String[]{WeatherEntry.COLUMN_DATE},
+                null,
+                null,
+                null);
+        try {
+            if (weatherCursor == null || weatherCursor.getCount() == 0) {
+                return new String[2];
+            }
+        } finally {
+            if (weatherCursor != null) {
+                weatherCursor.close();
+            }
+        }
+
+        Cursor locationCursor = mContext.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{
+                        WeatherContract.LocationEntry.COLUMN_ETAG,
+                        WeatherContract.LocationEntry.COLUMN_LAST_MODIFIED},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null);
+        try {
+            if (locationCursor.moveToFirst()) {
+                return new String[]{locationCursor.getString(0), locationCursor.getString(1)};
+            }
+            return new String[2];
+        } finally {
+            locationCursor.close();
+        }
+    }
+}
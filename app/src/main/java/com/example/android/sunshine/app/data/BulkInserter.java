@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.util.ArrayList;
+
+/**
+ * Inserts rows into one table through a single compiled INSERT statement.
+ * <p>
+ * Rows are committed in chunks, each in its own transaction, so a long backfill never holds
+ * the write lock (or grows the journal) for more than one chunk at a time.  The end of every
+ * committed chunk is recorded: if a chunk fails, everything before {@link #getCommittedCount()}
+ * is already in the database and the caller only needs to retry from that index.  Rows that
+ * break a constraint are skipped but still count as committed, so {@link #getInsertedCount()}
+ * is not an index to retry from.
+ */
+public class BulkInserter {
+
+    private static final String LOG_TAG = BulkInserter.class.getSimpleName();
+
+    public static final int DEFAULT_CHUNK_SIZE = 500;
+
+    private final String mTable;
+    private final String[] mColumns;
+    private final String mSql;
+    private final int mChunkSize;
+
+    private final ArrayList<Integer> mChunkEnds = new ArrayList<Integer>();
+    private int mCommittedCount;
+    private int mInsertedCount;
+
+    /**
+     * @param table the table to insert into.
+     * @param columns the columns every row provides, in binding order.
+     * @param conflictAlgorithm one of the SQLiteDatabase.CONFLICT_* constants, or
+     *                          SQLiteDatabase.CONFLICT_NONE to use the table's own clause.
+     * @param chunkSize how many rows to commit per transaction.
+     */
+    public BulkInserter(String table, String[] columns, int conflictAlgorithm, int chunkSize) {
+        mTable = table;
+        mColumns = columns;
+        mChunkSize = chunkSize > 0 ? chunkSize : DEFAULT_CHUNK_SIZE;
+
+        StringBuilder sql = new StringBuilder(128);
+        sql.append("INSERT");
+        sql.append(conflictClause(conflictAlgorithm));
+        sql.append(" INTO ").append(table).append(" (");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) sql.append(',');
+            sql.append(columns[i]);
+        }
+        sql.append(") VALUES (");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i > 0 ? ",?" : "?");
+        }
+        sql.append(')');
+        mSql = sql.toString();
+    }
+
+    private static String conflictClause(int conflictAlgorithm) {
+        switch (conflictAlgorithm) {
+            case SQLiteDatabase.CONFLICT_ROLLBACK: return " OR ROLLBACK";
+            case SQLiteDatabase.CONFLICT_ABORT: return " OR ABORT";
+            case SQLiteDatabase.CONFLICT_FAIL: return " OR FAIL";
+            case SQLiteDatabase.CONFLICT_IGNORE: return " OR IGNORE";
+            case SQLiteDatabase.CONFLICT_REPLACE: return " OR REPLACE";
+            default: return "";
+        }
+    }
+
+    /**
+     * Inserts values[fromIndex] through the end of the array, one chunk per transaction.
+     * If a chunk throws, the chunks before it stay committed and the exception is rethrown.
+     *
+     * @return the number of rows this inserter has inserted so far, across retries (ignored
+     * conflicts are not counted).
+     */
+    public int insert(SQLiteDatabase db, ContentValues[] values, int fromIndex) {
+        mCommittedCount = fromIndex;
+        SQLiteStatement statement = db.compileStatement(mSql);
+        try {
+            while (mCommittedCount < values.length) {
+                int end = Math.min(mCommittedCount + mChunkSize, values.length);
+                int inserted = 0;
+                // A chunk inside a caller's transaction doesn't hold the database by itself.
+                boolean outermost = !db.inTransaction();
+                long begin = System.nanoTime();
+                db.beginTransaction();
+                try {
+                    for (int i = mCommittedCount; i < end; i++) {
+                        if (insertRow(db, statement, values[i]) != -1) {
+                            inserted++;
+                        }
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                    if (outermost) {
+                        DataMetrics.getInstance().recordTransaction(
+                                System.nanoTime() - begin, inserted);
+                    }
+                }
+                // Only reached once the chunk's transaction has committed.
+                mInsertedCount += inserted;
+                mCommittedCount = end;
+                mChunkEnds.add(end);
+            }
+        } finally {
+            statement.close();
+        }
+        return mInsertedCount;
+    }
+
+    private long insertRow(SQLiteDatabase db, SQLiteStatement statement, ContentValues value) {
+        statement.clearBindings();
+        int bound = 0;
+        for (int i = 0; i < mColumns.length; i++) {
+            Object v = value.get(mColumns[i]);
+            if (v == null) {
+                statement.bindNull(i + 1);
+                continue;
+            }
+            bound++;
+            if (v instanceof Double || v instanceof Float) {
+                statement.bindDouble(i + 1, ((Number) v).doubleValue());
+            } else if (v instanceof Number) {
+                statement.bindLong(i + 1, ((Number) v).longValue());
+            } else if (v instanceof Boolean) {
+                statement.bindLong(i + 1, ((Boolean) v) ? 1 : 0);
+            } else if (v instanceof byte[]) {
+                statement.bindBlob(i + 1, (byte[]) v);
+            } else {
+                statement.bindString(i + 1, v.toString());
+            }
+        }
+        if (bound != value.size()) {
+            // The row carries columns the statement doesn't know about (an explicit _id, say),
+            // so let SQLiteDatabase build an INSERT just for it.
+            return db.insert(mTable, null, value);
+        }
+        try {
+            return statement.executeInsert();
+        } catch (SQLiteConstraintException e) {
+            // Same as SQLiteDatabase.insert: a row that breaks a constraint is skipped, the
+            // rest of the chunk still goes in.
+            Log.e(LOG_TAG, "Error inserting " + value + " into " + mTable, e);
+            return -1;
+        }
+    }
+
+    /**
+     * @return the statement every row is bound to, with the columns in binding order.
+     */
+    String getSql() {
+        return mSql;
+    }
+
+    /**
+     * @return the index of the first row that has not been committed.  Retrying a failed
+     * insert from this index never redoes a committed chunk.
+     */
+    public int getCommittedCount() {
+        return mCommittedCount;
+    }
+
+    /**
+     * @return the number of rows inserted by all the chunks committed so far.
+     */
+    public int getInsertedCount() {
+        return mInsertedCount;
+    }
+
+    /**
+     * @return the exclusive end index of every chunk committed so far, in order.
+     */
+    public int[] getChunkBoundaries() {
+        int[] boundaries = new int[mChunkEnds.size()];
+        for (int i = 0; i < boundaries.length; i++) {
+            boundaries[i] = mChunkEnds.get(i);
+        }
+        return boundaries;
+    }
+}
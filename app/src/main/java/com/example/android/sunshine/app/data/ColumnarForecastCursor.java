@@ -0,0 +1,367 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.database.CursorWindow;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A read-only cursor over forecast rows that keeps each column in a primitive array.
+ * <p>
+ * It only takes projections whose columns are all listed in {@link #COLUMN_KINDS}: columns
+ * whose type is known, which covers the projections of the forecast list and the detail
+ * screen.  Dates and ids are kept in a long[], days and weather ids in an int[], temperatures
+ * and coordinates in a double[], and the text columns as indices into one table of the
+ * distinct strings, since a forecast repeats the same few descriptions and a single location
+ * setting.  A thousand rows of the forecast list take about 60 KB this way, and nothing is
+ * left in a CursorWindow once they have been copied.
+ * <p>
+ * All of them but day are NOT NULL in the schema; day is null in rows written before it was
+ * filled.  A null number is recorded in a bitmap for its column, made only once the column
+ * has one, and reads back as SQLite's would: 0, and true from {@link #isNull}.  A null string
+ * is index -1.
+ * <p>
+ * Across processes, the provider's bulk cursor adaptor copies it into a window through
+ * {@link #fillWindow}, which writes each column with its own type.
+ */
+public final class ColumnarForecastCursor extends AbstractCursor {
+
+    private static final int KIND_LONG = 0;
+    private static final int KIND_INT = 1;
+    private static final int KIND_DOUBLE = 2;
+    private static final int KIND_STRING = 3;
+
+    // Column names as SQLite reports them, without the table name.
+    private static final HashMap<String, Integer> COLUMN_KINDS = new HashMap<String, Integer>();
+
+    static {
+        COLUMN_KINDS.put(WeatherEntry._ID, KIND_LONG);
+        COLUMN_KINDS.put(WeatherEntry.COLUMN_LOC_KEY, KIND_LONG);
+        COLUMN_KINDS.put(WeatherEntry.COLUMN_DATE, KIND_LONG);
+        COLUMN_KINDS.put(WeatherEntry.COLUMN_DAY, KIND_INT);
+        COLUMN_KINDS.put(WeatherEntry.COLUMN_SHORT_DESC, KIND_STRING);
+        COLUMN_KINDS.put(WeatherEntry.COLUMN_WEATHER_ID, KIND_INT);
+        COLUMN_KINDS.put(WeatherEntry.COLUMN_MIN_TEMP, KIND_DOUBLE);
+        COLUMN_KINDS.put(WeatherEntry.COLUMN_MAX_TEMP, KIND_DOUBLE);
+        COLUMN_KINDS.put(WeatherEntry.COLUMN_HUMIDITY, KIND_DOUBLE);
+        COLUMN_KINDS.put(WeatherEntry.COLUMN_PRESSURE, KIND_DOUBLE);
+        COLUMN_KINDS.put(WeatherEntry.COLUMN_WIND_SPEED, KIND_DOUBLE);
+        COLUMN_KINDS.put(WeatherEntry.COLUMN_DEGREES, KIND_DOUBLE);
+        COLUMN_KINDS.put(LocationEntry.COLUMN_LOCATION_SETTING, KIND_STRING);
+        COLUMN_KINDS.put(LocationEntry.COLUMN_CITY_NAME, KIND_STRING);
+        COLUMN_KINDS.put(LocationEntry.COLUMN_COORD_LAT, KIND_DOUBLE);
+        COLUMN_KINDS.put(LocationEntry.COLUMN_COORD_LONG, KIND_DOUBLE);
+    }
+
+    private final String[] mColumnNames;
+    private final int[] mKinds;
+    // One array per column, of the type its kind says; text columns hold indices into
+    // mStrings.
+    private final Object[] mColumns;
+    // Per number column, a bit per row that is null, or null if none is.
+    private final long[][] mNulls;
+    private final String[] mStrings;
+    private final int mCount;
+
+    private ColumnarForecastCursor(String[] columnNames, int[] kinds, Object[] columns,
+                                   long[][] nulls, String[] strings, int count) {
+        mColumnNames = columnNames;
+        mKinds = kinds;
+        mColumns = columns;
+        mNulls = nulls;
+        mStrings = strings;
+        mCount = count;
+    }
+
+    private static String stripTable(String column) {
+        return column.substring(column.lastIndexOf('.') + 1);
+    }
+
+    /**
+     * @return whether every column of the projection can be kept in an array.
+     */
+    public static boolean supports(String[] projection) {
+        if (projection == null || projection.length == 0) {
+            return false;
+        }
+        for (String column : projection) {
+            if (!COLUMN_KINDS.containsKey(stripTable(column))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads every row of the source into a new cursor and closes the source.  The columns of
+     * the source must pass {@link #supports}.
+     */
+    public static ColumnarForecastCursor copyOf(Cursor source) {
+        try {
+            String[] names = source.getColumnNames();
+            int count = source.getCount();
+            int[] kinds = new int[names.length];
+            Object[] columns = new Object[names.length];
+            for (int c = 0; c < names.length; c++) {
+                Integer kind = COLUMN_KINDS.get(stripTable(names[c]));
+                if (kind == null) {
+                    throw new IllegalArgumentException("Unsupported column: " + names[c]);
+                }
+                kinds[c] = kind;
+                switch (kinds[c]) {
+                    case KIND_LONG:
+                        columns[c] = new long[count];
+                        break;
+                    case KIND_DOUBLE:
+                        columns[c] = new double[count];
+                        break;
+                    default:
+                        columns[c] = new int[count];
+                        break;
+                }
+            }
+
+            long[][] nulls = new long[names.length][];
+            HashMap<String, Integer> stringIndices = new HashMap<String, Integer>();
+            int row = 0;
+            for (source.moveToPosition(-1); source.moveToNext() && row < count; row++) {
+                for (int c = 0; c < names.length; c++) {
+                    if (kinds[c] != KIND_STRING && source.isNull(c)) {
+                        if (nulls[c] == null) {
+                            nulls[c] = new long[(count + 63) / 64];
+                        }
+                        nulls[c][row >> 6] |= 1L << row;
+                        continue;
+                    }
+                    switch (kinds[c]) {
+                        case KIND_LONG:
+                            ((long[]) columns[c])[row] = source.getLong(c);
+                            break;
+                        case KIND_INT:
+                            ((int[]) columns[c])[row] = source.getInt(c);
+                            break;
+                        case KIND_DOUBLE:
+                            ((double[]) columns[c])[row] = source.getDouble(c);
+                            break;
+                        default:
+                            ((int[]) columns[c])[row] =
+                                    intern(stringIndices, source.getString(c));
+                            break;
+                    }
+                }
+            }
+
+            String[] strings = new String[stringIndices.size()];
+            for (Map.Entry<String, Integer> entry : stringIndices.entrySet()) {
+                strings[entry.getValue()] = entry.getKey();
+            }
+            return new ColumnarForecastCursor(names, kinds, columns, nulls, strings, row);
+        } finally {
+            source.close();
+        }
+    }
+
+    private static int intern(HashMap<String, Integer> stringIndices, String string) {
+        if (string == null) {
+            return -1;
+        }
+        Integer index = stringIndices.get(string);
+        if (index == null) {
+            index = stringIndices.size();
+            stringIndices.put(string, index);
+        }
+        return index;
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumnNames;
+    }
+
+    @Override
+    public String getString(int column) {
+        if (isNull(column)) {
+            return null;
+        }
+        switch (mKinds[column]) {
+            case KIND_LONG:
+                return Long.toString(getLong(column));
+            case KIND_INT:
+                return Integer.toString(getInt(column));
+            case KIND_DOUBLE:
+                return Double.toString(getDouble(column));
+            default:
+                int index = ((int[]) mColumns[column])[mPos];
+                return index < 0 ? null : mStrings[index];
+        }
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        if (mKinds[column] == KIND_INT) {
+            return ((int[]) mColumns[column])[mPos];
+        }
+        return (int) getLong(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        switch (mKinds[column]) {
+            case KIND_LONG:
+                return ((long[]) mColumns[column])[mPos];
+            case KIND_INT:
+                return ((int[]) mColumns[column])[mPos];
+            case KIND_DOUBLE:
+                return (long) ((double[]) mColumns[column])[mPos];
+            default:
+                return (long) parse(getString(column));
+        }
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) getDouble(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        switch (mKinds[column]) {
+            case KIND_DOUBLE:
+                return ((double[]) mColumns[column])[mPos];
+            case KIND_STRING:
+                return parse(getString(column));
+            default:
+                return getLong(column);
+        }
+    }
+
+    // Text read as a number gives 0 when it isn't one, as SQLite does.
+    private static double parse(String string) {
+        if (string == null) {
+            return 0;
+        }
+        try {
+            return Double.parseDouble(string);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return isNull(column, mPos);
+    }
+
+    private boolean isNull(int column, int row) {
+        if (mKinds[column] == KIND_STRING) {
+            return ((int[]) mColumns[column])[row] < 0;
+        }
+        long[] nulls = mNulls[column];
+        return nulls != null && (nulls[row >> 6] & (1L << row)) != 0;
+    }
+
+    @Override
+    public int getType(int column) {
+        if (isNull(column)) {
+            return FIELD_TYPE_NULL;
+        }
+        switch (mKinds[column]) {
+            case KIND_DOUBLE:
+                return FIELD_TYPE_FLOAT;
+            case KIND_STRING:
+                return FIELD_TYPE_STRING;
+            default:
+                return FIELD_TYPE_INTEGER;
+        }
+    }
+
+    /*
+        Fills the window with as many rows from position on as fit, writing each column with
+        the type it is kept in rather than asking for every cell's type.
+     */
+    @Override
+    public void fillWindow(int position, CursorWindow window) {
+        if (position < 0 || position >= mCount) {
+            return;
+        }
+        window.acquireReference();
+        try {
+            window.clear();
+            window.setStartPosition(position);
+            window.setNumColumns(mColumnNames.length);
+            for (int row = position; row < mCount; row++) {
+                if (!window.allocRow()) {
+                    break;
+                }
+                if (!putRow(window, row)) {
+                    window.freeLastRow();
+                    break;
+                }
+            }
+        } finally {
+            window.releaseReference();
+        }
+    }
+
+    private boolean putRow(CursorWindow window, int row) {
+        for (int c = 0; c < mColumnNames.length; c++) {
+            boolean put;
+            if (mKinds[c] != KIND_STRING && isNull(c, row)) {
+                if (!window.putNull(row, c)) {
+                    return false;
+                }
+                continue;
+            }
+            switch (mKinds[c]) {
+                case KIND_LONG:
+                    put = window.putLong(((long[]) mColumns[c])[row], row, c);
+                    break;
+                case KIND_INT:
+                    put = window.putLong(((int[]) mColumns[c])[row], row, c);
+                    break;
+                case KIND_DOUBLE:
+                    put = window.putDouble(((double[]) mColumns[c])[row], row, c);
+                    break;
+                default:
+                    int index = ((int[]) mColumns[c])[row];
+                    put = index < 0 ? window.putNull(row, c)
+                            : window.putString(mStrings[index], row, c);
+                    break;
+            }
+            if (!put) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import com.example.android.sunshine.app.data.WeatherContract.MetricsEntry;
+
+import java.io.PrintWriter;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Where the time of the data layer goes, for this process.
+ * <p>
+ * WeatherProvider records every call per UriMatcher code and operation, along with the rows
+ * it read or wrote, and how long each of its write transactions was held.  A refresh records
+ * its network, parse and write phases.  Every series is a {@link LatencyHistogram} and a row
+ * counter, so recording never takes a lock.  The series can be read through
+ * {@link MetricsEntry#CONTENT_URI}, or in a dumpsys of the provider.
+ */
+public final class DataMetrics {
+
+    public static final int QUERY = 0;
+    public static final int INSERT = 1;
+    public static final int UPDATE = 2;
+    public static final int DELETE = 3;
+    public static final int BULK_INSERT = 4;
+    public static final int APPLY_BATCH = 5;
+    private static final String[] OPERATION_NAMES = {
+            "query", "insert", "update", "delete", "bulk_insert", "apply_batch"
+    };
+    // Room for more operations without changing the keys of the existing ones.
+    private static final int OPERATION_SLOTS = 8;
+
+    public static final int PHASE_NETWORK = 0;
+    public static final int PHASE_PARSE = 1;
+    public static final int PHASE_WRITE = 2;
+    private static final String[] PHASE_NAMES = {
+            "fetch_network", "fetch_parse", "fetch_write"
+    };
+
+    private static final String TRANSACTION_NAME = "transaction";
+
+    static final String[] COLUMNS = {
+            MetricsEntry._ID,
+            MetricsEntry.COLUMN_MATCH,
+            MetricsEntry.COLUMN_OPERATION,
+            MetricsEntry.COLUMN_COUNT,
+            MetricsEntry.COLUMN_ROWS,
+            MetricsEntry.COLUMN_MEAN,
+            MetricsEntry.COLUMN_P50,
+            MetricsEntry.COLUMN_P90,
+            MetricsEntry.COLUMN_P99,
+            MetricsEntry.COLUMN_MAX
+    };
+
+    private static final class Series {
+        final int match;
+        final String operation;
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final AtomicLong rows = new AtomicLong();
+
+        Series(int match, String operation) {
+            this.match = match;
+            this.operation = operation;
+        }
+
+        void record(long nanos, long rowCount) {
+            histogram.record(nanos);
+            rows.addAndGet(rowCount);
+        }
+    }
+
+    private static final DataMetrics sInstance = new DataMetrics();
+
+    // Keyed by match * OPERATION_SLOTS + operation, which sorts them by match.
+    private final ConcurrentHashMap<Integer, Series> mOperations =
+            new ConcurrentHashMap<Integer, Series>();
+    private volatile Series mTransactions = new Series(-1, TRANSACTION_NAME);
+    private final Series[] mPhases = new Series[PHASE_NAMES.length];
+
+    private DataMetrics() {
+        for (int i = 0; i < mPhases.length; i++) {
+            mPhases[i] = new Series(-1, PHASE_NAMES[i]);
+        }
+    }
+
+    public static DataMetrics getInstance() {
+        return sInstance;
+    }
+
+    void recordOperation(int match, int operation, long nanos, long rows) {
+        Integer key = match * OPERATION_SLOTS + operation;
+        Series series = mOperations.get(key);
+        if (series == null) {
+            Series created = new Series(match, OPERATION_NAMES[operation]);
+            series = mOperations.putIfAbsent(key, created);
+            if (series == null) {
+                series = created;
+            }
+        }
+        series.record(nanos, rows);
+    }
+
+    void recordTransaction(long nanos, long rows) {
+        mTransactions.record(nanos, rows);
+    }
+
+    /**
+     * Records one phase of refreshing a location, or of writing a refresh.
+     */
+    public void recordPhase(int phase, long nanos, long rows) {
+        mPhases[phase].record(nanos, rows);
+    }
+
+    /**
+     * Forgets everything recorded so far.  Recordings racing with this may land on either
+     * side of it.
+     */
+    public synchronized void reset() {
+        mOperations.clear();
+        mTransactions = new Series(-1, TRANSACTION_NAME);
+        for (int i = 0; i < mPhases.length; i++) {
+            mPhases[i] = new Series(-1, PHASE_NAMES[i]);
+        }
+    }
+
+    private interface RowWriter {
+        void write(int match, String operation, long rows, LatencyHistogram.Snapshot snapshot);
+    }
+
+    // Walks the series that have recorded anything, in a stable order.
+    private void forEachSeries(RowWriter writer) {
+        for (Series series : new TreeMap<Integer, Series>(mOperations).values()) {
+            writeSeries(writer, series);
+        }
+        writeSeries(writer, mTransactions);
+        for (Series series : mPhases) {
+            writeSeries(writer, series);
+        }
+    }
+
+    private static void writeSeries(RowWriter writer, Series series) {
+        LatencyHistogram.Snapshot snapshot = series.histogram.snapshot();
+        if (snapshot.count > 0) {
+            writer.write(series.match, series.operation, series.rows.get(), snapshot);
+        }
+    }
+
+    private static long micros(long nanos) {
+        return nanos / 1000;
+    }
+
+    Cursor toCursor() {
+        final MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        forEachSeries(new RowWriter() {
+            @Override
+            public void write(int match, String operation, long rows,
+                              LatencyHistogram.Snapshot snapshot) {
+                cursor.addRow(new Object[]{
+                        cursor.getCount(),
+                        match,
+                        operation,
+                        snapshot.count,
+                        rows,
+                        micros(snapshot.getMeanNanos()),
+                        micros(snapshot.getValueAtPercentile(50)),
+                        micros(snapshot.getValueAtPercentile(90)),
+                        micros(snapshot.getValueAtPercentile(99)),
+                        micros(snapshot.maxNanos)
+                });
+            }
+        });
+        return cursor;
+    }
+
+    void dump(final PrintWriter writer) {
+        writer.println("Data layer timings, in microseconds:");
+        writer.println(String.format("%6s %-13s %8s %10s %8s %8s %8s %8s %8s", "match",
+                "operation", "count", "rows", "mean", "p50", "p90", "p99", "max"));
+        forEachSeries(new RowWriter() {
+            @Override
+            public void write(int match, String operation, long rows,
+                              LatencyHistogram.Snapshot snapshot) {
+                writer.println(String.format("%6d %-13s %8d %10d %8d %8d %8d %8d %8d",
+                        match, operation, snapshot.count, rows,
+                        micros(snapshot.getMeanNanos()),
+                        micros(snapshot.getValueAtPercentile(50)),
+                        micros(snapshot.getValueAtPercentile(90)),
+                        micros(snapshot.getValueAtPercentile(99)),
+                        micros(snapshot.maxNanos)));
+            }
+        });
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.text.format.Time;
+
+import java.util.TimeZone;
+
+/**
+ * Normalizes a time to the start of its day, exactly as the
+ * {@link Time#getJulianDay}/{@link Time#setJulianDay} pair did, without creating a Time for
+ * every row.
+ * <p>
+ * The day is found with plain arithmetic on the zone's offset, a few zone lookups instead of a
+ * Time's allocation and field computation.  That is what a write pays: a forecast has one row
+ * per day, so consecutive rows never share a day.  Each thread also remembers the last day it
+ * normalized, which answers the same day asked for again without the zone, as when the list
+ * and the refresh build their URIs from today's date.  The few days whose midnight is close to
+ * an offset change, and times before 1970, still go through Time, so that the result is the
+ * same in every case.
+ * <p>
+ * The default zone is read once and kept until {@link #onTimeZoneChanged()} is called.
+ */
+public final class DayNormalizer {
+
+    private static final long DAY_IN_MILLIS = 24L * 60 * 60 * 1000;
+
+    // Returned by midnightOf when the fast path can't be trusted.
+    private static final long NO_FAST_PATH = Long.MIN_VALUE;
+
+    private static volatile TimeZone sZone;
+    private static volatile int sGeneration;
+
+    // Per thread: the generation the entry was made under, the [start, end) of the day in UTC
+    // millis and the day's normalized value.
+    private static final int GENERATION = 0;
+    private static final int START = 1;
+    private static final int END = 2;
+    private static final int MIDNIGHT = 3;
+
+    private static final ThreadLocal<long[]> sLastDay = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[]{-1, 0, 0, 0};
+        }
+    };
+
+    private DayNormalizer() {
+    }
+
+    /**
+     * Forgets the zone and every thread's last day.  Call when the default time zone changes.
+     */
+    public static synchronized void onTimeZoneChanged() {
+        sZone = null;
+        sGeneration++;
+    }
+
+    private static TimeZone getZone() {
+        TimeZone zone = sZone;
+        if (zone == null) {
+            // getDefault returns a copy, so only ask for it when the zone changes.
+            zone = TimeZone.getDefault();
+            sZone = zone;
+        }
+        return zone;
+    }
+
+    /**
+     * @return the start of the local day that contains the given time, in UTC millis.
+     */
+    public static long normalize(long millis) {
+        // Read before the zone, so that a zone change in between leaves the entry stale
+        // rather than wrong.
+        int generation = sGeneration;
+        long[] last = sLastDay.get();
+        if (last[GENERATION] == generation && millis >= last[START] && millis < last[END]) {
+            return last[MIDNIGHT];
+        }
+
+        TimeZone zone = getZone();
+        int offset = zone.getOffset(millis);
+        if (millis < 0 || millis + offset < 0) {
+            // Time truncates towards zero here rather than flooring.
+            return normalizeWithTime(millis);
+        }
+        int julianDay = (int) ((millis + offset) / DAY_IN_MILLIS) + Time.EPOCH_JULIAN_DAY;
+
+        long midnight = midnightOf(zone, julianDay);
+        if (midnight == NO_FAST_PATH) {
+            return normalizeWithTime(millis);
+        }
+        long nextMidnight = midnightOf(zone, julianDay + 1);
+        if (nextMidnight != NO_FAST_PATH && midnight >= 0) {
+            // The offset doesn't change anywhere in this day, so every time in it maps to the
+            // same midnight.
+            last[GENERATION] = generation;
+            last[START] = midnight;
+            last[END] = nextMidnight;
+            last[MIDNIGHT] = midnight;
+        }
+        return midnight;
+    }
+
+    /**
+     * @return the Julian day that contains the given time in the default zone, as
+     * {@link Time#getJulianDay} computes it.
+     */
+    public static int julianDay(long millis) {
+        return Time.getJulianDay(millis, getZone().getOffset(millis) / 1000);
+    }
+
+    /*
+        Local midnight of the Julian day, in UTC millis.  If the offset is different a day
+        either side of it, the midnight may be skipped or repeated, and only Time knows which
+        instant it would pick.
+     */
+    private static long midnightOf(TimeZone zone, int julianDay) {
+        long localMidnight = (julianDay - Time.EPOCH_JULIAN_DAY) * DAY_IN_MILLIS;
+        int offsetBefore = zone.getOffset(localMidnight - DAY_IN_MILLIS);
+        int offsetAfter = zone.getOffset(localMidnight + DAY_IN_MILLIS);
+        if (offsetBefore != offsetAfter) {
+            return NO_FAST_PATH;
+        }
+        return localMidnight - offsetBefore;
+    }
+
+    /**
+     * The original normalization, with a Time in the default zone.
+     */
+    static long normalizeWithTime(long millis) {
+        // normalize the start date to the beginning of the (UTC) day
+        Time time = new Time();
+        time.set(millis);
+        int julianDay = Time.getJulianDay(millis, time.gmtoff);
+        return time.setJulianDay(julianDay);
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers which location row each location setting maps to, so that a refresh doesn't have
+ * to ask the database again for every location it writes.
+ * <p>
+ * The least recently used settings are dropped once the cache is full.  Everything is
+ * forgotten whenever the location table changes: on any change notification for
+ * {@link LocationEntry#CONTENT_URI}, and straight away when the provider deletes or renames
+ * locations, since those notifications are delivered late.
+ */
+public class LocationIdCache {
+
+    public static final long NOT_CACHED = -1;
+
+    static final int DEFAULT_MAX_ENTRIES = 64;
+
+    private static LocationIdCache sInstance;
+
+    private final Map<String, Long> mIds;
+
+    private int mHitCount;
+    private int mMissCount;
+    private int mInvalidationCount;
+
+    /**
+     * Returns the process-wide cache, watching the location table for changes.
+     */
+    public static synchronized LocationIdCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new LocationIdCache(DEFAULT_MAX_ENTRIES);
+            sInstance.register(context.getApplicationContext().getContentResolver());
+        }
+        return sInstance;
+    }
+
+    LocationIdCache(final int maxEntries) {
+        mIds = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    ContentObserver register(ContentResolver resolver) {
+        // A null handler delivers onChange on a binder thread, which is all invalidate needs.
+        ContentObserver observer = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                invalidate();
+            }
+        };
+        resolver.registerContentObserver(LocationEntry.CONTENT_URI, true, observer);
+        return observer;
+    }
+
+    /**
+     * @return the row id of the location setting, or {@link #NOT_CACHED}.
+     */
+    public synchronized long get(String locationSetting) {
+        Long id = mIds.get(locationSetting);
+        if (id == null) {
+            mMissCount++;
+            return NOT_CACHED;
+        }
+        mHitCount++;
+        return id;
+    }
+
+    public synchronized void put(String locationSetting, long id) {
+        mIds.put(locationSetting, id);
+    }
+
+    public synchronized void invalidate() {
+        mIds.clear();
+        mInvalidationCount++;
+    }
+
+    public synchronized int size() {
+        return mIds.size();
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized int getInvalidationCount() {
+        return mInvalidationCount;
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Batches the change notifications sent for the weather data.
+ * <p>
+ * Changes are held for a short window and then sent once per distinct URI.  A change to a
+ * URI makes any pending change to one of its children redundant, because notifying a parent
+ * also reaches the observers registered on its children, so those are dropped.
+ * <p>
+ * Suspending is per thread.  The provider runs an in-process call on the caller's thread, so
+ * the changes a thread makes between {@link #suspend()} and the matching {@link #resume()}
+ * are held back, coalesced, and only queued on that resume; changes made on any other thread
+ * meanwhile are sent as usual.
+ */
+public class NotificationCoalescer {
+
+    // Long enough to fold addLocation and the bulkInsert that follows it into one reload.
+    static final long DEFAULT_WINDOW_MILLIS = 100;
+
+    private static NotificationCoalescer sInstance;
+
+    private final ContentResolver mResolver;
+    private final Handler mHandler;
+    private final long mWindowMillis;
+
+    private final List<Uri> mPending = new ArrayList<Uri>();
+    private boolean mFlushScheduled;
+
+    // What a suspended thread has held back, and how many resumes it still needs.
+    private static final class Suspension {
+        int count;
+        final List<Uri> held = new ArrayList<Uri>();
+    }
+
+    private final ThreadLocal<Suspension> mSuspension = new ThreadLocal<Suspension>();
+
+    private int mRequestedCount;
+    private int mDeliveredCount;
+    private int mSuppressedCount;
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * Returns the process-wide coalescer, so that code writing through the provider in this
+     * process can suspend notifications around a large write.
+     */
+    public static synchronized NotificationCoalescer getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new NotificationCoalescer(
+                    context.getApplicationContext().getContentResolver(), DEFAULT_WINDOW_MILLIS);
+        }
+        return sInstance;
+    }
+
+    NotificationCoalescer(ContentResolver resolver, long windowMillis) {
+        mResolver = resolver;
+        mWindowMillis = windowMillis;
+        mHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Queues a change to the given URI, or holds it back if this thread is suspended.
+     */
+    public void notifyChange(Uri uri) {
+        Suspension suspension = mSuspension.get();
+        synchronized (this) {
+            mRequestedCount++;
+            if (suspension != null) {
+                addLocked(suspension.held, uri);
+            } else if (addLocked(mPending, uri)) {
+                scheduleFlushLocked();
+            }
+        }
+    }
+
+    /*
+        Adds the URI to the list unless a change already there covers it, dropping the ones it
+        covers.  Returns whether it was added.
+     */
+    private boolean addLocked(List<Uri> uris, Uri uri) {
+        for (Iterator<Uri> it = uris.iterator(); it.hasNext(); ) {
+            Uri pending = it.next();
+            if (isSameOrParent(pending, uri)) {
+                // Already covered by a pending change.
+                mSuppressedCount++;
+                return false;
+            }
+            if (isSameOrParent(uri, pending)) {
+                it.remove();
+                mSuppressedCount++;
+            }
+        }
+        uris.add(uri);
+        return true;
+    }
+
+    /**
+     * Holds back the notifications of this thread until {@link #resume()} is called on it as
+     * many times as this.
+     */
+    public void suspend() {
+        Suspension suspension = mSuspension.get();
+        if (suspension == null) {
+            suspension = new Suspension();
+            mSuspension.set(suspension);
+        }
+        suspension.count++;
+    }
+
+    public void resume() {
+        Suspension suspension = mSuspension.get();
+        if (suspension == null) {
+            throw new IllegalStateException("resume() called without suspend()");
+        }
+        if (--suspension.count > 0) {
+            return;
+        }
+        mSuspension.remove();
+        synchronized (this) {
+            for (Uri uri : suspension.held) {
+                addLocked(mPending, uri);
+            }
+            scheduleFlushLocked();
+        }
+    }
+
+    private void scheduleFlushLocked() {
+        if (!mFlushScheduled && !mPending.isEmpty()) {
+            mFlushScheduled = true;
+            mHandler.postDelayed(mFlushRunnable, mWindowMillis);
+        }
+    }
+
+    /**
+     * Sends everything pending right away.  What suspended threads hold back stays with them.
+     */
+    public void flush() {
+        Uri[] uris;
+        synchronized (this) {
+            mHandler.removeCallbacks(mFlushRunnable);
+            mFlushScheduled = false;
+            if (mPending.isEmpty()) {
+                return;
+            }
+            uris = mPending.toArray(new Uri[mPending.size()]);
+            mPending.clear();
+            mDeliveredCount += uris.length;
+        }
+        // Don't call into the resolver while holding the lock.
+        for (Uri uri : uris) {
+            mResolver.notifyChange(uri, null);
+        }
+    }
+
+    private static boolean isSameOrParent(Uri parent, Uri child) {
+        if (!equals(parent.getScheme(), child.getScheme())
+                || !equals(parent.getAuthority(), child.getAuthority())) {
+            return false;
+        }
+        List<String> parentSegments = parent.getPathSegments();
+        List<String> childSegments = child.getPathSegments();
+        if (parentSegments.size() > childSegments.size()) {
+            return false;
+        }
+        for (int i = 0; i < parentSegments.size(); i++) {
+            if (!parentSegments.get(i).equals(childSegments.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /** @return how many changes have been queued. */
+    public synchronized int getRequestedCount() {
+        return mRequestedCount;
+    }
+
+    /** @return how many notifications have actually been sent. */
+    public synchronized int getDeliveredCount() {
+        return mDeliveredCount;
+    }
+
+    /** @return how many queued changes were folded into another one. */
+    public synchronized int getSuppressedCount() {
+        return mSuppressedCount;
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.app.data.PurchaseContract.CustomerSpendEntry;
+import com.example.android.sunshine.app.data.PurchaseContract.ProductEntry;
+import com.example.android.sunshine.app.data.PurchaseContract.ProductSalesEntry;
+import com.example.android.sunshine.app.data.PurchaseContract.RelationEntry;
+
+/**
+ * The aggregate tables of the purchase database and the triggers that keep them current.
+ * <p>
+ * customer_spend holds, per customer, the number of relation rows and the sum of the current
+ * price of their products; product_sales holds, per product, the number of relation rows and
+ * units times price.  Every write to relation adjusts the rows of the customer and product
+ * involved, and a product whose price changes (or that is inserted or deleted) adjusts the
+ * rows that depend on it, so reading a total costs one primary key lookup instead of a
+ * GROUP BY over relation.  A product missing from its table counts with a price of 0.
+ * <p>
+ * Rows whose count drops to 0 are removed.  The index on units lets the top products be read
+ * from the end of the index, without sorting.
+ */
+final class PurchaseAggregates {
+
+    private PurchaseAggregates() {
+    }
+
+    // Money is summed as REAL, so after many adjustments a total may be a rounding error off
+    // the recomputed one.  Anything within this is not drift.
+    private static final double SPEND_TOLERANCE = 0.005;
+
+    static final String SQL_CREATE_CUSTOMER_SPEND_TABLE =
+            "CREATE TABLE " + CustomerSpendEntry.TABLE_NAME + " (" +
+                    CustomerSpendEntry.COLUMN_CUSTOMER_KEY + " INTEGER PRIMARY KEY, " +
+                    CustomerSpendEntry.COLUMN_SPEND + " REAL NOT NULL, " +
+                    CustomerSpendEntry.COLUMN_PURCHASES + " INTEGER NOT NULL);";
+
+    static final String SQL_CREATE_PRODUCT_SALES_TABLE =
+            "CREATE TABLE " + ProductSalesEntry.TABLE_NAME + " (" +
+                    ProductSalesEntry.COLUMN_PRODUCT_KEY + " INTEGER PRIMARY KEY, " +
+                    ProductSalesEntry.COLUMN_UNITS + " INTEGER NOT NULL, " +
+                    ProductSalesEntry.COLUMN_REVENUE + " REAL NOT NULL);";
+
+    // Ends with the rowid, which is product_id, so "units DESC, product_id DESC" is the
+    // index read backwards.
+    static final String SQL_CREATE_PRODUCT_SALES_UNITS_INDEX =
+            "CREATE INDEX product_sales_units_idx ON " + ProductSalesEntry.TABLE_NAME +
+                    " (" + ProductSalesEntry.COLUMN_UNITS + ");";
+
+    static final String TOP_PRODUCTS_ORDER =
+            ProductSalesEntry.TABLE_NAME + "." + ProductSalesEntry.COLUMN_UNITS + " DESC, " +
+                    ProductSalesEntry.TABLE_NAME + "." + ProductSalesEntry.COLUMN_PRODUCT_KEY +
+                    " DESC";
+
+    private static final String[] TRIGGERS = {
+            "relation_aggregates_insert",
+            "relation_aggregates_delete",
+            "relation_aggregates_update",
+            "product_aggregates_insert",
+            "product_aggregates_delete",
+            "product_aggregates_update"
+    };
+
+    private static final String[] SQL_CREATE_TRIGGERS = {
+            "CREATE TRIGGER " + TRIGGERS[0] + " AFTER INSERT ON " + RelationEntry.TABLE_NAME +
+                    " BEGIN " +
+                    addPurchase("NEW") +
+                    " END;",
+            "CREATE TRIGGER " + TRIGGERS[1] + " AFTER DELETE ON " + RelationEntry.TABLE_NAME +
+                    " BEGIN " +
+                    removePurchase("OLD") +
+                    " END;",
+            "CREATE TRIGGER " + TRIGGERS[2] + " AFTER UPDATE OF " +
+                    RelationEntry.COLUMN_CUSTOMER_KEY + ", " + RelationEntry.COLUMN_PRODUCT_KEY +
+                    " ON " + RelationEntry.TABLE_NAME +
+                    " BEGIN " +
+                    removePurchase("OLD") +
+                    addPurchase("NEW") +
+                    " END;",
+            "CREATE TRIGGER " + TRIGGERS[3] + " AFTER INSERT ON " + ProductEntry.TABLE_NAME +
+                    " BEGIN " +
+                    changePrice("NEW." + ProductEntry._ID, "NEW." + ProductEntry.COLUMN_PRODUCT_PRICE) +
+                    " END;",
+            "CREATE TRIGGER " + TRIGGERS[4] + " AFTER DELETE ON " + ProductEntry.TABLE_NAME +
+                    " BEGIN " +
+                    changePrice("OLD." + ProductEntry._ID, "-OLD." + ProductEntry.COLUMN_PRODUCT_PRICE) +
+                    " END;",
+            "CREATE TRIGGER " + TRIGGERS[5] + " AFTER UPDATE OF " +
+                    ProductEntry.COLUMN_PRODUCT_PRICE + " ON " + ProductEntry.TABLE_NAME +
+                    " BEGIN " +
+                    changePrice("NEW." + ProductEntry._ID, "(NEW." +
+                            ProductEntry.COLUMN_PRODUCT_PRICE + " - OLD." +
+                            ProductEntry.COLUMN_PRODUCT_PRICE + ")") +
+                    " END;"
+    };
+
+    /*
+        The current price of the product, or 0 if there is no such product.
+     */
+    private static String price(String productId) {
+        return "IFNULL((SELECT " + ProductEntry.COLUMN_PRODUCT_PRICE + " FROM " +
+                ProductEntry.TABLE_NAME + " WHERE " + ProductEntry._ID + " = " + productId +
+                "), 0)";
+    }
+
+    private static String addPurchase(String row) {
+        String customerId = row + "." + RelationEntry.COLUMN_CUSTOMER_KEY;
+        String productId = row + "." + RelationEntry.COLUMN_PRODUCT_KEY;
+        return "INSERT OR IGNORE INTO " + CustomerSpendEntry.TABLE_NAME + " VALUES (" +
+                customerId + ", 0, 0); " +
+                "UPDATE " + CustomerSpendEntry.TABLE_NAME + " SET " +
+                CustomerSpendEntry.COLUMN_SPEND + " = " + CustomerSpendEntry.COLUMN_SPEND +
+                " + " + price(productId) + ", " +
+                CustomerSpendEntry.COLUMN_PURCHASES + " = " +
+                CustomerSpendEntry.COLUMN_PURCHASES + " + 1" +
+                " WHERE " + CustomerSpendEntry.COLUMN_CUSTOMER_KEY + " = " + customerId + "; " +
+                "INSERT OR IGNORE INTO " + ProductSalesEntry.TABLE_NAME + " VALUES (" +
+                productId + ", 0, 0); " +
+                "UPDATE " + ProductSalesEntry.TABLE_NAME + " SET " +
+                ProductSalesEntry.COLUMN_UNITS + " = " + ProductSalesEntry.COLUMN_UNITS +
+                " + 1, " +
+                ProductSalesEntry.COLUMN_REVENUE + " = " + ProductSalesEntry.COLUMN_REVENUE +
+                " + " + price(productId) +
+                " WHERE " + ProductSalesEntry.COLUMN_PRODUCT_KEY + " = " + productId + "; ";
+    }
+
+    private static String removePurchase(String row) {
+        String customerId = row + "." + RelationEntry.COLUMN_CUSTOMER_KEY;
+        String productId = row + "." + RelationEntry.COLUMN_PRODUCT_KEY;
+        return "UPDATE " + CustomerSpendEntry.TABLE_NAME + " SET " +
+                CustomerSpendEntry.COLUMN_SPEND + " = " + CustomerSpendEntry.COLUMN_SPEND +
+                " - " + price(productId) + ", " +
+                CustomerSpendEntry.COLUMN_PURCHASES + " = " +
+                CustomerSpendEntry.COLUMN_PURCHASES + " - 1" +
+                " WHERE " + CustomerSpendEntry.COLUMN_CUSTOMER_KEY + " = " + customerId + "; " +
+                "DELETE FROM " + CustomerSpendEntry.TABLE_NAME +
+                " WHERE " + CustomerSpendEntry.COLUMN_CUSTOMER_KEY + " = " + customerId +
+                " AND " + CustomerSpendEntry.COLUMN_PURCHASES + " <= 0; " +
+                "UPDATE " + ProductSalesEntry.TABLE_NAME + " SET " +
+                ProductSalesEntry.COLUMN_UNITS + " = " + ProductSalesEntry.COLUMN_UNITS +
+                " - 1, " +
+                ProductSalesEntry.COLUMN_REVENUE + " = " + ProductSalesEntry.COLUMN_REVENUE +
+                " - " + price(productId) +
+                " WHERE " + ProductSalesEntry.COLUMN_PRODUCT_KEY + " = " + productId + "; " +
+                "DELETE FROM " + ProductSalesEntry.TABLE_NAME +
+                " WHERE " + ProductSalesEntry.COLUMN_PRODUCT_KEY + " = " + productId +
+                " AND " + ProductSalesEntry.COLUMN_UNITS + " <= 0; ";
+    }
+
+    /*
+        Moves the totals that depend on the product by delta per purchase.  The customers are
+        found through relation_product_idx.
+     */
+    private static String changePrice(String productId, String delta) {
+        return "UPDATE " + CustomerSpendEntry.TABLE_NAME + " SET " +
+                CustomerSpendEntry.COLUMN_SPEND + " = " + CustomerSpendEntry.COLUMN_SPEND +
+                " + " + delta + " * (SELECT COUNT(*) FROM " + RelationEntry.TABLE_NAME +
+                " WHERE " + RelationEntry.COLUMN_PRODUCT_KEY + " = " + productId +
+                " AND " + RelationEntry.COLUMN_CUSTOMER_KEY + " = " +
+                CustomerSpendEntry.TABLE_NAME + "." + CustomerSpendEntry.COLUMN_CUSTOMER_KEY +
+                ") WHERE " + CustomerSpendEntry.COLUMN_CUSTOMER_KEY + " IN (SELECT " +
+                RelationEntry.COLUMN_CUSTOMER_KEY + " FROM " + RelationEntry.TABLE_NAME +
+                " WHERE " + RelationEntry.COLUMN_PRODUCT_KEY + " = " + productId + "); " +
+                "UPDATE " + ProductSalesEntry.TABLE_NAME + " SET " +
+                ProductSalesEntry.COLUMN_REVENUE + " = " + ProductSalesEntry.COLUMN_REVENUE +
+                " + " + delta + " * " + ProductSalesEntry.COLUMN_UNITS +
+                " WHERE " + ProductSalesEntry.COLUMN_PRODUCT_KEY + " = " + productId + "; ";
+    }
+
+    // What the tables should hold, recomputed from relation, in the column order of the
+    // tables.
+    private static final String SQL_SELECT_CUSTOMER_SPEND =
+            "SELECT " + RelationEntry.COLUMN_CUSTOMER_KEY + " AS id, " +
+                    "SUM(IFNULL(" + ProductEntry.TABLE_NAME + "." +
+                    ProductEntry.COLUMN_PRODUCT_PRICE + ", 0)) AS total, COUNT(*) AS purchases" +
+                    " FROM " + RelationEntry.TABLE_NAME + " LEFT JOIN " + ProductEntry.TABLE_NAME +
+                    " ON " + RelationEntry.TABLE_NAME + "." + RelationEntry.COLUMN_PRODUCT_KEY +
+                    " = " + ProductEntry.TABLE_NAME + "." + ProductEntry._ID +
+                    " GROUP BY " + RelationEntry.COLUMN_CUSTOMER_KEY;
+
+    private static final String SQL_SELECT_PRODUCT_SALES =
+            "SELECT " + RelationEntry.COLUMN_PRODUCT_KEY + " AS id, COUNT(*) AS units, " +
+                    "COUNT(*) * IFNULL(" + ProductEntry.TABLE_NAME + "." +
+                    ProductEntry.COLUMN_PRODUCT_PRICE + ", 0) AS total" +
+                    " FROM " + RelationEntry.TABLE_NAME + " LEFT JOIN " + ProductEntry.TABLE_NAME +
+                    " ON " + RelationEntry.TABLE_NAME + "." + RelationEntry.COLUMN_PRODUCT_KEY +
+                    " = " + ProductEntry.TABLE_NAME + "." + ProductEntry._ID +
+                    " GROUP BY " + RelationEntry.COLUMN_PRODUCT_KEY;
+
+    /*
+        Counts the rows that are missing, extra or off, by comparing each table with its
+        recomputed contents in both directions.
+     */
+    private static final String SQL_COUNT_DRIFT =
+            "SELECT (SELECT COUNT(*) FROM (" + SQL_SELECT_CUSTOMER_SPEND + ") AS expected" +
+                    " LEFT JOIN " + CustomerSpendEntry.TABLE_NAME + " AS actual" +
+                    " ON actual." + CustomerSpendEntry.COLUMN_CUSTOMER_KEY + " = expected.id" +
+                    " WHERE actual." + CustomerSpendEntry.COLUMN_CUSTOMER_KEY + " IS NULL" +
+                    " OR actual." + CustomerSpendEntry.COLUMN_PURCHASES + " != expected.purchases" +
+                    " OR ABS(actual." + CustomerSpendEntry.COLUMN_SPEND + " - expected.total) > " +
+                    SPEND_TOLERANCE + ")" +
+                    " + (SELECT COUNT(*) FROM " + CustomerSpendEntry.TABLE_NAME +
+                    " WHERE " + CustomerSpendEntry.COLUMN_CUSTOMER_KEY + " NOT IN (SELECT " +
+                    RelationEntry.COLUMN_CUSTOMER_KEY + " FROM " + RelationEntry.TABLE_NAME + "))" +
+                    " + (SELECT COUNT(*) FROM (" + SQL_SELECT_PRODUCT_SALES + ") AS expected" +
+                    " LEFT JOIN " + ProductSalesEntry.TABLE_NAME + " AS actual" +
+                    " ON actual." + ProductSalesEntry.COLUMN_PRODUCT_KEY + " = expected.id" +
+                    " WHERE actual." + ProductSalesEntry.COLUMN_PRODUCT_KEY + " IS NULL" +
+                    " OR actual." + ProductSalesEntry.COLUMN_UNITS + " != expected.units" +
+                    " OR ABS(actual." + ProductSalesEntry.COLUMN_REVENUE + " - expected.total) > " +
+                    SPEND_TOLERANCE + ")" +
+                    " + (SELECT COUNT(*) FROM " + ProductSalesEntry.TABLE_NAME +
+                    " WHERE " + ProductSalesEntry.COLUMN_PRODUCT_KEY + " NOT IN (SELECT " +
+                    RelationEntry.COLUMN_PRODUCT_KEY + " FROM " + RelationEntry.TABLE_NAME + "))";
+
+    /**
+     * Creates the tables and triggers.  The tables start out empty; on an upgrade, follow with
+     * {@link #rebuild}.
+     */
+    static void create(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_CUSTOMER_SPEND_TABLE);
+        db.execSQL(SQL_CREATE_PRODUCT_SALES_TABLE);
+        db.execSQL(SQL_CREATE_PRODUCT_SALES_UNITS_INDEX);
+        for (String sql : SQL_CREATE_TRIGGERS) {
+            db.execSQL(sql);
+        }
+    }
+
+    /**
+     * Recomputes both tables from relation in one transaction.
+     *
+     * @return how many rows were missing, extra or wrong before the rebuild.  Anything but 0
+     * means something wrote to the aggregates, or around the triggers.
+     */
+    static int rebuild(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            int drifted = (int) DatabaseUtils.longForQuery(db, SQL_COUNT_DRIFT, null);
+            db.delete(CustomerSpendEntry.TABLE_NAME, null, null);
+            db.delete(ProductSalesEntry.TABLE_NAME, null, null);
+            db.execSQL("INSERT INTO " + CustomerSpendEntry.TABLE_NAME + " (" +
+                    CustomerSpendEntry.COLUMN_CUSTOMER_KEY + ", " +
+                    CustomerSpendEntry.COLUMN_SPEND + ", " +
+                    CustomerSpendEntry.COLUMN_PURCHASES + ") " + SQL_SELECT_CUSTOMER_SPEND);
+            db.execSQL("INSERT INTO " + ProductSalesEntry.TABLE_NAME + " (" +
+                    ProductSalesEntry.COLUMN_PRODUCT_KEY + ", " +
+                    ProductSalesEntry.COLUMN_UNITS + ", " +
+                    ProductSalesEntry.COLUMN_REVENUE + ") " + SQL_SELECT_PRODUCT_SALES);
+            db.setTransactionSuccessful();
+            return drifted;
+        } finally {
+            db.endTransaction();
+        }
+    }
+}
@@ -15,6 +15,15 @@ public class PurchaseContract {
     public static final String PATH_CUSTOMER = "customer";
     public static final String PATH_PRODUCT = "product";
     public static final String PATH_RELATION = "relation";
+    public static final String PATH_CUSTOMER_SPEND = "customer_spend";
+    public static final String PATH_PRODUCT_SALES = "product_sales";
+    public static final String PATH_TOP = "top";
+
+    // ContentResolver.call method that rebuilds the aggregate tables from relation.  The
+    // returned Bundle holds the number of aggregate rows that had drifted under
+    // KEY_DRIFTED_ROWS.
+    public static final String METHOD_REBUILD_AGGREGATES = "rebuild_aggregates";
+    public static final String KEY_DRIFTED_ROWS = "drifted_rows";
 
     public static final class CustomerEntry implements BaseColumns {
 
@@ -37,6 +46,11 @@ public class PurchaseContract {
         public static Uri buildCustomerUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
+
+        // The products the customer bought, one row per purchase.
+        public static Uri buildCustomerProductsUri(long id) {
+            return buildCustomerUri(id).buildUpon().appendPath(PATH_PRODUCT).build();
+        }
     }
 
     /* Inner class that defines the table contents of the weather table */
@@ -60,6 +74,11 @@ public class PurchaseContract {
         public static Uri buildProductUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
+
+        // The customers who bought the product, one row per purchase.
+        public static Uri buildProductCustomersUri(long id) {
+            return buildProductUri(id).buildUpon().appendPath(PATH_CUSTOMER).build();
+        }
     }
 
     /* Inner class that defines the table contents of the weather table */
@@ -83,4 +102,65 @@ public class PurchaseContract {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
     }
+
+    /* Spend per customer, kept up to date by triggers on relation and product.  Read only. */
+    public static final class CustomerSpendEntry {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_CUSTOMER_SPEND).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CUSTOMER_SPEND;
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CUSTOMER_SPEND;
+
+        public static final String TABLE_NAME = "customer_spend";
+
+        // The customer, which is also the key of this table.  Queries add the customer's
+        // _id and name.
+        public static final String COLUMN_CUSTOMER_KEY = "customer_id";
+        // Sum of the current price of every product the customer bought
+        public static final String COLUMN_SPEND = "spend";
+        // Number of relation rows of the customer
+        public static final String COLUMN_PURCHASES = "purchases";
+
+        public static Uri buildCustomerSpendUri(long customerId) {
+            return ContentUris.withAppendedId(CONTENT_URI, customerId);
+        }
+    }
+
+    /* Units sold per product, kept up to date by triggers on relation and product.  Read only. */
+    public static final class ProductSalesEntry {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_PRODUCT_SALES).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PRODUCT_SALES;
+
+        public static final String TABLE_NAME = "product_sales";
+
+        // The product, which is also the key of this table.  Queries add the product's
+        // _id, name and price.
+        public static final String COLUMN_PRODUCT_KEY = "product_id";
+        // Number of relation rows of the product
+        public static final String COLUMN_UNITS = "units";
+        // units times the current price
+        public static final String COLUMN_REVENUE = "revenue";
+
+        // The count best selling products, most units first.
+        public static Uri buildTopProductsUri(int count) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_TOP)
+                    .appendPath(Integer.toString(count)).build();
+        }
+
+        public static int getCountFromTopProductsUri(Uri uri) {
+            return Integer.parseInt(uri.getPathSegments().get(2));
+        }
+    }
+
+    // The row id of the customer or product URIs above.
+    public static long getIdFromUri(Uri uri) {
+        return Long.parseLong(uri.getPathSegments().get(1));
+    }
 }
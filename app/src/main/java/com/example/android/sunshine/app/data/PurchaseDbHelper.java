@@ -12,12 +12,32 @@ import com.example.android.sunshine.app.data.PurchaseContract.RelationEntry;
  */
 public class PurchaseDbHelper extends SQLiteOpenHelper {
 
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 3;
 
     static final String DATABASE_NAME = "purchase.db";
 
+    // The provider joins relation to product by customer, and to customer by product.  Each
+    // index leads with the key the join starts from and carries the other one, so neither join
+    // reads the relation table itself.
+    static final String SQL_CREATE_RELATION_CUSTOMER_INDEX =
+            "CREATE INDEX IF NOT EXISTS relation_customer_idx ON " + RelationEntry.TABLE_NAME +
+                    " (" + RelationEntry.COLUMN_CUSTOMER_KEY + ", " +
+                    RelationEntry.COLUMN_PRODUCT_KEY + ");";
+
+    static final String SQL_CREATE_RELATION_PRODUCT_INDEX =
+            "CREATE INDEX IF NOT EXISTS relation_product_idx ON " + RelationEntry.TABLE_NAME +
+                    " (" + RelationEntry.COLUMN_PRODUCT_KEY + ", " +
+                    RelationEntry.COLUMN_CUSTOMER_KEY + ");";
+
     public PurchaseDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        WriteAheadLog.enable(this);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        WriteAheadLog.onOpen(db);
     }
 
     @Override
@@ -55,19 +75,46 @@ public class PurchaseDbHelper extends SQLiteOpenHelper {
         sqLiteDatabase.execSQL(SQL_CREATE_CUSTOMER_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_PRODUCT_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_RELATION_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_RELATION_CUSTOMER_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_RELATION_PRODUCT_INDEX);
+        PurchaseAggregates.create(sqLiteDatabase);
+    }
+
+    // One step per version after 1, appended as the schema changes, so that purchases survive
+    // an upgrade.
+    private final SchemaMigrator mMigrator = new SchemaMigrator(DATABASE_NAME,
+            new SchemaMigrator.Migration(2) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL(SQL_CREATE_RELATION_CUSTOMER_INDEX);
+                    db.execSQL(SQL_CREATE_RELATION_PRODUCT_INDEX);
+                }
+            },
+            new SchemaMigrator.Migration(3) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    PurchaseAggregates.create(db);
+                    PurchaseAggregates.rebuild(db);
+                }
+            });
+
+    SchemaMigrator getMigrator() {
+        return mMigrator;
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
         // Note that this only fires if you change the version number for your database.
         // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
+        if (mMigrator.canMigrate(oldVersion, newVersion)) {
+            mMigrator.migrate(sqLiteDatabase, oldVersion, newVersion);
+            return;
+        }
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + PurchaseContract.CustomerEntry.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + PurchaseContract.ProductEntry.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + PurchaseContract.RelationEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + PurchaseContract.CustomerSpendEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + PurchaseContract.ProductSalesEntry.TABLE_NAME);
         onCreate(sqLiteDatabase);
     }
 }
@@ -0,0 +1,423 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.net.Uri;
+
+import com.example.android.sunshine.app.data.PurchaseContract.CustomerEntry;
+import com.example.android.sunshine.app.data.PurchaseContract.CustomerSpendEntry;
+import com.example.android.sunshine.app.data.PurchaseContract.ProductEntry;
+import com.example.android.sunshine.app.data.PurchaseContract.ProductSalesEntry;
+import com.example.android.sunshine.app.data.PurchaseContract.RelationEntry;
+
+/**
+ * Serves the purchase URIs for {@link WeatherProvider}, which owns the authority they share.
+ * <p>
+ * Customers, products and relations each map onto their table.  The two join URIs answer
+ * "products for customer" and "customers for product" from relation, through the indexes
+ * PurchaseDbHelper puts on either key.  The aggregate URIs read the tables of
+ * {@link PurchaseAggregates}, joined to the customer or product they describe, and can't be
+ * written.  Callers notify the URIs returned by {@link #getChangedUris} once a write has gone
+ * through.
+ */
+class PurchaseRoutes {
+
+    static final int CUSTOMER = 400;
+    static final int CUSTOMER_ID = 401;
+    static final int PRODUCTS_FOR_CUSTOMER = 402;
+    static final int PRODUCT = 500;
+    static final int PRODUCT_ID = 501;
+    static final int CUSTOMERS_FOR_PRODUCT = 502;
+    static final int RELATION = 600;
+    static final int CUSTOMER_SPEND = 700;
+    static final int CUSTOMER_SPEND_ID = 701;
+    static final int PRODUCT_SALES = 800;
+    static final int TOP_PRODUCTS = 801;
+
+    // The columns a bulk insert binds, in statement order.
+    private static final String[] CUSTOMER_INSERT_COLUMNS = {
+            CustomerEntry.COLUMN_CUSTOMER_NAME
+    };
+
+    private static final String[] PRODUCT_INSERT_COLUMNS = {
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_PRICE
+    };
+
+    private static final String[] RELATION_INSERT_COLUMNS = {
+            RelationEntry.COLUMN_CUSTOMER_KEY,
+            RelationEntry.COLUMN_PRODUCT_KEY
+    };
+
+    // What the join URIs return when no projection is given: the rows of the other side.
+    private static final String[] PRODUCT_COLUMNS = {
+            ProductEntry.TABLE_NAME + "." + ProductEntry._ID + " AS " + ProductEntry._ID,
+            ProductEntry.TABLE_NAME + "." + ProductEntry.COLUMN_PRODUCT_NAME + " AS " +
+                    ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.TABLE_NAME + "." + ProductEntry.COLUMN_PRODUCT_PRICE + " AS " +
+                    ProductEntry.COLUMN_PRODUCT_PRICE
+    };
+
+    private static final String[] CUSTOMER_COLUMNS = {
+            CustomerEntry.TABLE_NAME + "." + CustomerEntry._ID + " AS " + CustomerEntry._ID,
+            CustomerEntry.TABLE_NAME + "." + CustomerEntry.COLUMN_CUSTOMER_NAME + " AS " +
+                    CustomerEntry.COLUMN_CUSTOMER_NAME
+    };
+
+    private static final SQLiteQueryBuilder sProductsForCustomerQueryBuilder;
+    private static final SQLiteQueryBuilder sCustomersForProductQueryBuilder;
+    private static final SQLiteQueryBuilder sCustomerSpendQueryBuilder;
+    private static final SQLiteQueryBuilder sProductSalesQueryBuilder;
+
+    static {
+        //relation INNER JOIN product ON relation.product_id = product._id
+        sProductsForCustomerQueryBuilder = new SQLiteQueryBuilder();
+        sProductsForCustomerQueryBuilder.setTables(
+                RelationEntry.TABLE_NAME + " INNER JOIN " + ProductEntry.TABLE_NAME +
+                        " ON " + RelationEntry.TABLE_NAME + "." + RelationEntry.COLUMN_PRODUCT_KEY +
+                        " = " + ProductEntry.TABLE_NAME + "." + ProductEntry._ID);
+
+        //relation INNER JOIN customer ON relation.customer_id = customer._id
+        sCustomersForProductQueryBuilder = new SQLiteQueryBuilder();
+        sCustomersForProductQueryBuilder.setTables(
+                RelationEntry.TABLE_NAME + " INNER JOIN " + CustomerEntry.TABLE_NAME +
+                        " ON " + RelationEntry.TABLE_NAME + "." + RelationEntry.COLUMN_CUSTOMER_KEY +
+                        " = " + CustomerEntry.TABLE_NAME + "." + CustomerEntry._ID);
+
+        //customer_spend INNER JOIN customer ON customer_spend.customer_id = customer._id
+        sCustomerSpendQueryBuilder = new SQLiteQueryBuilder();
+        sCustomerSpendQueryBuilder.setTables(
+                CustomerSpendEntry.TABLE_NAME + " INNER JOIN " + CustomerEntry.TABLE_NAME +
+                        " ON " + CustomerSpendEntry.TABLE_NAME + "." +
+                        CustomerSpendEntry.COLUMN_CUSTOMER_KEY +
+                        " = " + CustomerEntry.TABLE_NAME + "." + CustomerEntry._ID);
+
+        //product_sales INNER JOIN product ON product_sales.product_id = product._id
+        sProductSalesQueryBuilder = new SQLiteQueryBuilder();
+        sProductSalesQueryBuilder.setTables(
+                ProductSalesEntry.TABLE_NAME + " INNER JOIN " + ProductEntry.TABLE_NAME +
+                        " ON " + ProductSalesEntry.TABLE_NAME + "." +
+                        ProductSalesEntry.COLUMN_PRODUCT_KEY +
+                        " = " + ProductEntry.TABLE_NAME + "." + ProductEntry._ID);
+    }
+
+    //customer_spend.customer_id = ?
+    private static final String sCustomerSpendSelection =
+            CustomerSpendEntry.TABLE_NAME + "." + CustomerSpendEntry.COLUMN_CUSTOMER_KEY + " = ?";
+
+    //relation.customer_id = ?
+    private static final String sRelationCustomerSelection =
+            RelationEntry.TABLE_NAME + "." + RelationEntry.COLUMN_CUSTOMER_KEY + " = ?";
+
+    //relation.product_id = ?
+    private static final String sRelationProductSelection =
+            RelationEntry.TABLE_NAME + "." + RelationEntry.COLUMN_PRODUCT_KEY + " = ?";
+
+    private static final String sIdSelection = "_id = ?";
+
+    static void addUris(UriMatcher matcher, String authority) {
+        matcher.addURI(authority, PurchaseContract.PATH_CUSTOMER, CUSTOMER);
+        matcher.addURI(authority, PurchaseContract.PATH_CUSTOMER + "/#", CUSTOMER_ID);
+        matcher.addURI(authority, PurchaseContract.PATH_CUSTOMER + "/#/" +
+                PurchaseContract.PATH_PRODUCT, PRODUCTS_FOR_CUSTOMER);
+        matcher.addURI(authority, PurchaseContract.PATH_PRODUCT, PRODUCT);
+        matcher.addURI(authority, PurchaseContract.PATH_PRODUCT + "/#", PRODUCT_ID);
+        matcher.addURI(authority, PurchaseContract.PATH_PRODUCT + "/#/" +
+                PurchaseContract.PATH_CUSTOMER, CUSTOMERS_FOR_PRODUCT);
+        matcher.addURI(authority, PurchaseContract.PATH_RELATION, RELATION);
+        matcher.addURI(authority, PurchaseContract.PATH_CUSTOMER_SPEND, CUSTOMER_SPEND);
+        matcher.addURI(authority, PurchaseContract.PATH_CUSTOMER_SPEND + "/#",
+                CUSTOMER_SPEND_ID);
+        matcher.addURI(authority, PurchaseContract.PATH_PRODUCT_SALES, PRODUCT_SALES);
+        matcher.addURI(authority, PurchaseContract.PATH_PRODUCT_SALES + "/" +
+                PurchaseContract.PATH_TOP + "/#", TOP_PRODUCTS);
+    }
+
+    static boolean isPurchaseMatch(int match) {
+        return match >= CUSTOMER && match <= TOP_PRODUCTS;
+    }
+
+    private final PurchaseDbHelper mOpenHelper;
+
+    PurchaseRoutes(PurchaseDbHelper openHelper) {
+        mOpenHelper = openHelper;
+    }
+
+    SQLiteDatabase getWritableDatabase() {
+        return mOpenHelper.getWritableDatabase();
+    }
+
+    void close() {
+        mOpenHelper.close();
+    }
+
+    String getType(int match) {
+        switch (match) {
+            case CUSTOMER:
+            case CUSTOMERS_FOR_PRODUCT:
+                return CustomerEntry.CONTENT_TYPE;
+            case CUSTOMER_ID:
+                return CustomerEntry.CONTENT_ITEM_TYPE;
+            case PRODUCT:
+            case PRODUCTS_FOR_CUSTOMER:
+                return ProductEntry.CONTENT_TYPE;
+            case PRODUCT_ID:
+                return ProductEntry.CONTENT_ITEM_TYPE;
+            case RELATION:
+                return RelationEntry.CONTENT_TYPE;
+            case CUSTOMER_SPEND:
+                return CustomerSpendEntry.CONTENT_TYPE;
+            case CUSTOMER_SPEND_ID:
+                return CustomerSpendEntry.CONTENT_ITEM_TYPE;
+            case PRODUCT_SALES:
+            case TOP_PRODUCTS:
+                return ProductSalesEntry.CONTENT_TYPE;
+            default:
+                throw new IllegalArgumentException("Not a purchase match: " + match);
+        }
+    }
+
+    private static String getTable(int match, Uri uri) {
+        switch (match) {
+            case CUSTOMER:
+            case CUSTOMER_ID:
+                return CustomerEntry.TABLE_NAME;
+            case PRODUCT:
+            case PRODUCT_ID:
+                return ProductEntry.TABLE_NAME;
+            case RELATION:
+                return RelationEntry.TABLE_NAME;
+            default:
+                throw new UnsupportedOperationException("Can't write to uri: " + uri);
+        }
+    }
+
+    private static boolean isItem(int match) {
+        return match == CUSTOMER_ID || match == PRODUCT_ID;
+    }
+
+    Cursor query(int match, Uri uri, String[] projection, String selection,
+                 String[] selectionArgs, String sortOrder) {
+        final SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        switch (match) {
+            case PRODUCTS_FOR_CUSTOMER:
+                return sProductsForCustomerQueryBuilder.query(db,
+                        projection != null ? projection : PRODUCT_COLUMNS,
+                        withSelection(sRelationCustomerSelection, selection),
+                        withArgs(PurchaseContract.getIdFromUri(uri), selectionArgs),
+                        null,
+                        null,
+                        sortOrder
+                );
+            case CUSTOMERS_FOR_PRODUCT:
+                return sCustomersForProductQueryBuilder.query(db,
+                        projection != null ? projection : CUSTOMER_COLUMNS,
+                        withSelection(sRelationProductSelection, selection),
+                        withArgs(PurchaseContract.getIdFromUri(uri), selectionArgs),
+                        null,
+                        null,
+                        sortOrder
+                );
+            case CUSTOMER_SPEND:
+                return sCustomerSpendQueryBuilder.query(db, projection, selection,
+                        selectionArgs, null, null, sortOrder);
+            case CUSTOMER_SPEND_ID:
+                return sCustomerSpendQueryBuilder.query(db,
+                        projection,
+                        withSelection(sCustomerSpendSelection, selection),
+                        withArgs(PurchaseContract.getIdFromUri(uri), selectionArgs),
+                        null,
+                        null,
+                        sortOrder
+                );
+            case PRODUCT_SALES:
+                return sProductSalesQueryBuilder.query(db, projection, selection,
+                        selectionArgs, null, null, sortOrder);
+            case TOP_PRODUCTS:
+                // Read from the end of product_sales_units_idx, the limit rows and no more.
+                return sProductSalesQueryBuilder.query(db, projection, selection,
+                        selectionArgs, null, null, PurchaseAggregates.TOP_PRODUCTS_ORDER,
+                        Integer.toString(ProductSalesEntry.getCountFromTopProductsUri(uri)));
+            default:
+                if (isItem(match)) {
+                    selection = withSelection(sIdSelection, selection);
+                    selectionArgs = withArgs(PurchaseContract.getIdFromUri(uri), selectionArgs);
+                }
+                return db.query(getTable(match, uri), projection, selection, selectionArgs,
+                        null, null, sortOrder);
+        }
+    }
+
+    Uri insert(int match, Uri uri, ContentValues values) {
+        // Only the table URIs take inserts; check before writing, so that a rejected URI
+        // leaves no row behind.
+        switch (match) {
+            case CUSTOMER:
+            case PRODUCT:
+            case RELATION:
+                break;
+            default:
+                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+        long _id = mOpenHelper.getWritableDatabase().insert(getTable(match, uri), null, values);
+        if (_id <= 0) {
+            throw new SQLException("Failed to insert row into " + uri);
+        }
+        switch (match) {
+            case CUSTOMER:
+                return CustomerEntry.buildCustomerUri(_id);
+            case PRODUCT:
+                return ProductEntry.buildProductUri(_id);
+            default:
+                return RelationEntry.buildRelationUri(_id);
+        }
+    }
+
+    int delete(int match, Uri uri, String selection, String[] selectionArgs) {
+        if (isItem(match)) {
+            selection = withSelection(sIdSelection, selection);
+            selectionArgs = withArgs(PurchaseContract.getIdFromUri(uri), selectionArgs);
+        } else if (null == selection) {
+            // this makes delete all rows return the number of rows deleted
+            selection = "1";
+        }
+        return mOpenHelper.getWritableDatabase().delete(getTable(match, uri), selection,
+                selectionArgs);
+    }
+
+    int update(int match, Uri uri, ContentValues values, String selection,
+               String[] selectionArgs) {
+        if (isItem(match)) {
+            selection = withSelection(sIdSelection, selection);
+            selectionArgs = withArgs(PurchaseContract.getIdFromUri(uri), selectionArgs);
+        }
+        return mOpenHelper.getWritableDatabase().update(getTable(match, uri), values, selection,
+                selectionArgs);
+    }
+
+    /*
+        The whole array goes in as one transaction, so a purchase is never left half written:
+        if any row throws, nothing is stored and the exception reaches the caller.  A row that
+        breaks a constraint is skipped, as a single insert would be.
+     */
+    int bulkInsert(int match, Uri uri, ContentValues[] values) {
+        String[] columns;
+        switch (match) {
+            case CUSTOMER:
+                columns = CUSTOMER_INSERT_COLUMNS;
+                break;
+            case PRODUCT:
+                columns = PRODUCT_INSERT_COLUMNS;
+                break;
+            case RELATION:
+                columns = RELATION_INSERT_COLUMNS;
+                break;
+            default:
+                throw new UnsupportedOperationException("Can't bulk insert into uri: " + uri);
+        }
+        BulkInserter inserter = new BulkInserter(getTable(match, uri), columns,
+                SQLiteDatabase.CONFLICT_NONE, values.length);
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        int inserted;
+        long begin = System.nanoTime();
+        db.beginTransaction();
+        try {
+            inserted = inserter.insert(db, values, 0);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        DataMetrics.getInstance().recordTransaction(System.nanoTime() - begin, inserted);
+        return inserted;
+    }
+
+    /**
+     * Recomputes the aggregate tables from relation.
+     *
+     * @return how many aggregate rows had drifted from relation.
+     */
+    int rebuildAggregates() {
+        return PurchaseAggregates.rebuild(mOpenHelper.getWritableDatabase());
+    }
+
+    /**
+     * @return the URIs whose results a write through the given match may have changed.  A
+     * change to relation also changes the join URIs under customer and product, and every
+     * write can change what the aggregate URIs show.
+     */
+    static Uri[] getChangedUris(int match) {
+        switch (match) {
+            case CUSTOMER:
+            case CUSTOMER_ID:
+                return new Uri[]{CustomerEntry.CONTENT_URI, ProductEntry.CONTENT_URI,
+                        CustomerSpendEntry.CONTENT_URI};
+            case PRODUCT:
+            case PRODUCT_ID:
+                return new Uri[]{ProductEntry.CONTENT_URI, CustomerEntry.CONTENT_URI,
+                        CustomerSpendEntry.CONTENT_URI, ProductSalesEntry.CONTENT_URI};
+            default:
+                return new Uri[]{RelationEntry.CONTENT_URI, CustomerEntry.CONTENT_URI,
+                        ProductEntry.CONTENT_URI, CustomerSpendEntry.CONTENT_URI,
+                        ProductSalesEntry.CONTENT_URI};
+        }
+    }
+
+    private static String withSelection(String where, String selection) {
+        if (selection == null || selection.length() == 0) {
+            return where;
+        }
+        return where + " AND (" + selection + ")";
+    }
+
+    private static String[] withArgs(long id, String[] selectionArgs) {
+        int extra = selectionArgs != null ? selectionArgs.length : 0;
+        String[] args = new String[extra + 1];
+        args[0] = Long.toString(id);
+        if (extra > 0) {
+            System.arraycopy(selectionArgs, 0, args, 1, extra);
+        }
+        return args;
+    }
+
+    /*
+        The SQL of the top products URI, for the query plan tests.
+     */
+    @SuppressWarnings("deprecation")
+    static String buildTopProductsQuery(int count) {
+        return sProductSalesQueryBuilder.buildQuery(null, null, null, null, null,
+                PurchaseAggregates.TOP_PRODUCTS_ORDER, Integer.toString(count));
+    }
+
+    /*
+        The SQL of the join URIs, for the query plan tests.
+     */
+    @SuppressWarnings("deprecation")
+    static String buildJoinQuery(int match) {
+        SQLiteQueryBuilder builder = match == PRODUCTS_FOR_CUSTOMER
+                ? sProductsForCustomerQueryBuilder : sCustomersForProductQueryBuilder;
+        return builder.buildQuery(
+                match == PRODUCTS_FOR_CUSTOMER ? PRODUCT_COLUMNS : CUSTOMER_COLUMNS,
+                match == PRODUCTS_FOR_CUSTOMER
+                        ? sRelationCustomerSelection : sRelationProductSelection,
+                null, null, null, null, null);
+    }
+}
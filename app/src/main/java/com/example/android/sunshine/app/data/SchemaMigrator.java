@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Upgrades a database one version at a time, keeping the data it already holds.
+ * <p>
+ * Each {@link Migration} takes the schema from the version before it to its own version.  On
+ * an upgrade every step after the old version runs in order, each in its own (nested)
+ * transaction, and the time each one took is kept and logged.  SQLiteOpenHelper already runs
+ * onUpgrade in a transaction, so a step that fails leaves the database at the old version.
+ * <p>
+ * Steps that rewrite a big table go through {@link #updateInChunks}, which works through the
+ * rows a chunk at a time by rowid, so no single statement has to hold every row of the table
+ * at once.  This is not an online migration: every chunk still runs inside onUpgrade's
+ * transaction, so the database stays locked, and nothing is committed, until the whole
+ * upgrade is done.
+ */
+class SchemaMigrator {
+
+    private static final String LOG_TAG = SchemaMigrator.class.getSimpleName();
+
+    static final int DEFAULT_CHUNK_SIZE = 1000;
+
+    /**
+     * Takes the schema from {@link #toVersion} - 1 to {@link #toVersion}.
+     */
+    abstract static class Migration {
+        final int toVersion;
+
+        Migration(int toVersion) {
+            this.toVersion = toVersion;
+        }
+
+        abstract void migrate(SQLiteDatabase db);
+    }
+
+    private final String mDatabaseName;
+    private final Migration[] mMigrations;
+    private final Map<Integer, Long> mStepMillis = new LinkedHashMap<Integer, Long>();
+
+    /**
+     * @param migrations one step for every version after the first one that can be upgraded,
+     *                   in version order.
+     */
+    SchemaMigrator(String databaseName, Migration... migrations) {
+        for (int i = 1; i < migrations.length; i++) {
+            if (migrations[i].toVersion != migrations[i - 1].toVersion + 1) {
+                throw new IllegalArgumentException("Migrations of " + databaseName +
+                        " skip from " + migrations[i - 1].toVersion + " to " +
+                        migrations[i].toVersion);
+            }
+        }
+        mDatabaseName = databaseName;
+        mMigrations = migrations;
+    }
+
+    /**
+     * @return whether there are steps all the way from the old version to the new one.  If
+     * not, the caller has to start over with an empty database.
+     */
+    boolean canMigrate(int oldVersion, int newVersion) {
+        if (oldVersion >= newVersion) {
+            return true;
+        }
+        return mMigrations.length > 0 &&
+                mMigrations[0].toVersion <= oldVersion + 1 &&
+                mMigrations[mMigrations.length - 1].toVersion >= newVersion;
+    }
+
+    /**
+     * Runs every step after the old version up to the new one.
+     */
+    void migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (!canMigrate(oldVersion, newVersion)) {
+            throw new IllegalStateException("No migration of " + mDatabaseName + " from " +
+                    oldVersion + " to " + newVersion);
+        }
+        mStepMillis.clear();
+        for (Migration migration : mMigrations) {
+            if (migration.toVersion <= oldVersion || migration.toVersion > newVersion) {
+                continue;
+            }
+            long begin = System.nanoTime();
+            db.beginTransaction();
+            try {
+                migration.migrate(db);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            long millis = (System.nanoTime() - begin) / 1000000;
+            mStepMillis.put(migration.toVersion, millis);
+            Log.i(LOG_TAG, "Migrated " + mDatabaseName + " to version " + migration.toVersion +
+                    " in " + millis + " ms");
+        }
+    }
+
+    /**
+     * @return how long each step of the last upgrade took, by the version it led to.
+     */
+    Map<Integer, Long> getStepMillis() {
+        return mStepMillis;
+    }
+
+    /**
+     * Applies the assignments to every row of the table, a chunk of rowids at a time.
+     *
+     * @return the number of chunks.
+     */
+    static int updateInChunks(SQLiteDatabase db, String table, String assignments,
+                              int chunkSize) {
+        int chunks = 0;
+        long last = 0;
+        long end;
+        while ((end = nextChunkEnd(db, table, last, chunkSize)) > last) {
+            db.execSQL("UPDATE " + table + " SET " + assignments +
+                    " WHERE rowid > ? AND rowid <= ?", new Object[]{last, end});
+            last = end;
+            chunks++;
+        }
+        return chunks;
+    }
+
+    /*
+        The last rowid of the chunk that follows the given rowid, or 0 if no rows follow it.
+        Walking the rowids themselves keeps the chunks full even where deletes left gaps.
+     */
+    private static long nextChunkEnd(SQLiteDatabase db, String table, long after,
+                                     int chunkSize) {
+        return DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX(id), 0) FROM (SELECT rowid AS id" +
+                " FROM " + table + " WHERE rowid > ? ORDER BY rowid LIMIT " + chunkSize + ")",
+                new String[]{Long.toString(after)});
+    }
+}
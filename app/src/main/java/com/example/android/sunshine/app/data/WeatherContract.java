@@ -19,7 +19,6 @@ import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
-import android.text.format.Time;
 
 /**
  * Defines table and column names for the weather database.
@@ -43,15 +42,35 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_METRICS = "metrics";
+
+    // Optional query parameter for bulkInsert: how many rows to commit per transaction.
+    // Large backfills can raise it; the provider falls back to its own default otherwise.
+    // Purchases ignore it, their bulk inserts are always one transaction.
+    public static final String PARAM_CHUNK_SIZE = "chunk_size";
+
+    // Optional query parameter for a weather bulkInsert: compare the rows with the stored ones
+    // and only write what changed.
+    public static final String PARAM_SYNC = "sync";
+
+    // Optional query parameter for a location insert: if the location setting is already
+    // stored, return its row instead of failing on the UNIQUE constraint.
+    public static final String PARAM_INSERT_OR_GET = "insert_or_get";
+
+    // Optional query parameters for a weather query by location: read one page of at most
+    // PARAM_PAGE_SIZE rows in day and date order, starting after the row whose day and date are
+    // PARAM_AFTER_DAY and PARAM_AFTER_DATE.  The next page is asked for with the day and date of
+    // the last row of this one, as stored: a day can hold more than one row, for instance when
+    // the rows were written in different time zones.
+    public static final String PARAM_AFTER_DAY = "after_day";
+    public static final String PARAM_AFTER_DATE = "after";
+    public static final String PARAM_PAGE_SIZE = "page_size";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
+    // This runs for every row written, so it avoids creating a Time each time.
     public static long normalizeDate(long startDate) {
-        // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
-        time.set(startDate);
-        int julianDay = Time.getJulianDay(startDate, time.gmtoff);
-        return time.setJulianDay(julianDay);
+        return DayNormalizer.normalize(startDate);
     }
 
     /* Inner class that defines the table contents of the location table */
@@ -81,9 +100,25 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // The validators openweathermap sent with the last forecast stored for this location.
+        // They go back on the next request, so that an unchanged forecast comes back as a
+        // 304 with no body instead of being downloaded and parsed again.
+        public static final String COLUMN_ETAG = "etag";
+        public static final String COLUMN_LAST_MODIFIED = "last_modified";
+
+        // How many days of weather to keep for this location.  Null means the maintenance
+        // job's default.
+        public static final String COLUMN_RETENTION_DAYS = "retention_days";
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
+
+        // An insert to this URI returns the existing row for the location setting if there is
+        // one, writing only the validator columns to it.
+        public static Uri buildLocationInsertOrGetUri() {
+            return CONTENT_URI.buildUpon().appendQueryParameter(PARAM_INSERT_OR_GET, "1").build();
+        }
     }
 
     /* Inner class that defines the table contents of the weather table */
@@ -103,6 +138,9 @@ public class WeatherContract {
         public static final String COLUMN_LOC_KEY = "location_id";
         // Date, stored as long in milliseconds since the epoch
         public static final String COLUMN_DATE = "date";
+        // The Julian day of the date in the local zone.  The provider fills it in from the
+        // date, and the location queries compare it instead of the millisecond value.
+        public static final String COLUMN_DAY = "day";
         // Weather id as returned by API, to identify the icon to be used
         public static final String COLUMN_WEATHER_ID = "weather_id";
 
@@ -130,6 +168,11 @@ public class WeatherContract {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
 
+        // A bulkInsert to this URI only writes the rows that are new or have changed.
+        public static Uri buildWeatherSyncUri() {
+            return CONTENT_URI.buildUpon().appendQueryParameter(PARAM_SYNC, "1").build();
+        }
+
         /*
             Student: This is the buildWeatherLocation function you filled in.
          */
@@ -144,6 +187,20 @@ public class WeatherContract {
                     .appendQueryParameter(COLUMN_DATE, Long.toString(normalizedDate)).build();
         }
 
+        // Pass 0 as the afterDate for the first page.  The day and date of the row to start
+        // after are passed on as they were read, not normalized again.
+        public static Uri buildWeatherLocationPage(String locationSetting, long startDate,
+                                                   int afterDay, long afterDate, int pageSize) {
+            Uri.Builder builder = CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(COLUMN_DATE, Long.toString(normalizeDate(startDate)))
+                    .appendQueryParameter(PARAM_PAGE_SIZE, Integer.toString(pageSize));
+            if (afterDate != 0) {
+                builder.appendQueryParameter(PARAM_AFTER_DAY, Integer.toString(afterDay))
+                        .appendQueryParameter(PARAM_AFTER_DATE, Long.toString(afterDate));
+            }
+            return builder.build();
+        }
+
         public static Uri buildWeatherLocationWithDate(String locationSetting, long date) {
             return CONTENT_URI.buildUpon().appendPath(locationSetting)
                     .appendPath(Long.toString(normalizeDate(date))).build();
@@ -164,5 +221,58 @@ public class WeatherContract {
             else
                 return 0;
         }
+
+        public static long getAfterDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_AFTER_DATE);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return 0;
+        }
+
+        public static int getAfterDayFromUri(Uri uri) {
+            String dayString = uri.getQueryParameter(PARAM_AFTER_DAY);
+            if (null != dayString && dayString.length() > 0)
+                return Integer.parseInt(dayString);
+            else
+                return 0;
+        }
+
+        public static int getPageSizeFromUri(Uri uri) {
+            String pageSize = uri.getQueryParameter(PARAM_PAGE_SIZE);
+            if (null != pageSize && pageSize.length() > 0)
+                return Integer.parseInt(pageSize);
+            else
+                return 0;
+        }
+    }
+
+    /*
+        The timings the provider and the refresh have recorded in this process, one row per
+        URI type and operation, per transaction, and per phase of a refresh.  Nothing is stored:
+        each query reads the counters as they stand.
+     */
+    public static final class MetricsEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_METRICS).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_METRICS;
+
+        // The UriMatcher code of the URI, or -1 for rows that aren't about one URI type.
+        public static final String COLUMN_MATCH = "match";
+        // "query", "insert", "update", "delete", "bulk_insert", "apply_batch", "transaction",
+        // "fetch_network", "fetch_parse" or "fetch_write".
+        public static final String COLUMN_OPERATION = "operation";
+        public static final String COLUMN_COUNT = "count";
+        // Rows read by a query, written by anything else.
+        public static final String COLUMN_ROWS = "rows";
+        // Durations, in microseconds.
+        public static final String COLUMN_MEAN = "mean_us";
+        public static final String COLUMN_P50 = "p50_us";
+        public static final String COLUMN_P90 = "p90_us";
+        public static final String COLUMN_P99 = "p99_us";
+        public static final String COLUMN_MAX = "max_us";
     }
 }
@@ -28,69 +28,180 @@ import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
     // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    private static final int DATABASE_VERSION = 7;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // Create a table to hold locations.  A location consists of the string supplied in the
+    // location setting, the city name, and the latitude and longitude
+    static final String SQL_CREATE_LOCATION_TABLE = "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
+            LocationEntry._ID + " INTEGER PRIMARY KEY," +
+            LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
+            LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
+            LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
+            LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL, " +
+            LocationEntry.COLUMN_ETAG + " TEXT, " +
+            LocationEntry.COLUMN_LAST_MODIFIED + " TEXT, " +
+            LocationEntry.COLUMN_RETENTION_DAYS + " INTEGER " +
+            " );";
+
+    static final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
+            // Why AutoIncrement here, and not above?
+            // Unique keys will be auto-generated in either case.  But for weather
+            // forecasting, it's reasonable to assume the user will want information
+            // for a certain date and all dates *following*, so the forecast data
+            // should be sorted accordingly.
+            WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+
+            // the ID of the location entry associated with this weather data
+            WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+            WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+            // filled in by the provider from the date
+            WeatherEntry.COLUMN_DAY + " INTEGER, " +
+            WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+            WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+
+            WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+
+            WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+
+            // Set up the location column as a foreign key to location table.
+            " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+
+            // To assure the application have just one weather entry per day
+            // per location, it's created a UNIQUE constraint with REPLACE strategy
+            " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
+            WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
+
+    // The forecast screens look weather up by location first and then by day, which the
+    // UNIQUE (date, location_id) index can't serve.  This index leads with the location and
+    // also carries the columns the forecast list reads, so those queries never touch the table.
+    static final String WEATHER_LOCATION_DAY_INDEX = "weather_location_day_idx";
+
+    static final String SQL_CREATE_WEATHER_LOCATION_DAY_INDEX =
+            "CREATE INDEX IF NOT EXISTS " + WEATHER_LOCATION_DAY_INDEX + " ON " +
+                    WeatherEntry.TABLE_NAME + " (" +
+                    WeatherEntry.COLUMN_LOC_KEY + ", " +
+                    WeatherEntry.COLUMN_DAY + ", " +
+                    WeatherEntry.COLUMN_DATE + ", " +
+                    WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                    WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                    WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                    WeatherEntry.COLUMN_WEATHER_ID + ");";
+
+    // The index of versions 3 and 4, which led with the date instead of the day.
+    static final String WEATHER_LOCATION_DATE_INDEX = "weather_location_date_idx";
+
+    private static WeatherDbHelper sInstance;
+
+    /**
+     * Returns the helper that the provider and the maintenance job share, so that they write
+     * through the same connection instead of fighting over the file lock.
+     */
+    public static synchronized WeatherDbHelper getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WeatherDbHelper(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
     public WeatherDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        WriteAheadLog.enable(this);
     }
 
     @Override
-    public void onCreate(SQLiteDatabase sqLiteDatabase) {
-        // Create a table to hold locations.  A location consists of the string supplied in the
-        // location setting, the city name, and the latitude and longitude
-        final String SQL_CREATE_LOCATION_TABLE = "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
-                LocationEntry._ID + " INTEGER PRIMARY KEY," +
-                LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
-                LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
-                LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
-                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL " +
-                " );";
-
-        final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
-                // Why AutoIncrement here, and not above?
-                // Unique keys will be auto-generated in either case.  But for weather
-                // forecasting, it's reasonable to assume the user will want information
-                // for a certain date and all dates *following*, so the forecast data
-                // should be sorted accordingly.
-                WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
-
-                // the ID of the location entry associated with this weather data
-                WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
-                WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
-                WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
-                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
-
-                WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
-
-                WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
-
-                // Set up the location column as a foreign key to location table.
-                " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
-                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
-
-                // To assure the application have just one weather entry per day
-                // per location, it's created a UNIQUE constraint with REPLACE strategy
-                " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
-                WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        WriteAheadLog.onOpen(db);
+    }
 
+    @Override
+    public void onCreate(SQLiteDatabase sqLiteDatabase) {
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_LOCATION_DAY_INDEX);
+        sqLiteDatabase.execSQL(WeatherPartitions.SQL_CREATE_PARTITION_TABLE);
+    }
+
+    /*
+        One step per version since 2, the first version whose data can be kept.  A new schema
+        version only needs a step appended here.
+     */
+    private final SchemaMigrator mMigrator = new SchemaMigrator(DATABASE_NAME,
+            new SchemaMigrator.Migration(3) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE INDEX IF NOT EXISTS " + WEATHER_LOCATION_DATE_INDEX +
+                            " ON " + WeatherEntry.TABLE_NAME + " (" +
+                            WeatherEntry.COLUMN_LOC_KEY + ", " +
+                            WeatherEntry.COLUMN_DATE + ", " +
+                            WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                            WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                            WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                            WeatherEntry.COLUMN_WEATHER_ID + ");");
+                }
+            },
+            new SchemaMigrator.Migration(4) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + LocationEntry.TABLE_NAME +
+                            " ADD COLUMN " + LocationEntry.COLUMN_ETAG + " TEXT");
+                    db.execSQL("ALTER TABLE " + LocationEntry.TABLE_NAME +
+                            " ADD COLUMN " + LocationEntry.COLUMN_LAST_MODIFIED + " TEXT");
+                }
+            },
+            new SchemaMigrator.Migration(5) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + WeatherEntry.TABLE_NAME +
+                            " ADD COLUMN " + WeatherEntry.COLUMN_DAY + " INTEGER");
+                    // The stored dates are local midnights, which julianday() puts half a day
+                    // before the Julian day number that Time uses.
+                    SchemaMigrator.updateInChunks(db, WeatherEntry.TABLE_NAME,
+                            WeatherEntry.COLUMN_DAY + " = CAST(julianday(" +
+                                    WeatherEntry.COLUMN_DATE + " / 1000, 'unixepoch'," +
+                                    " 'localtime') + 0.5 AS INTEGER)",
+                            SchemaMigrator.DEFAULT_CHUNK_SIZE);
+                    db.execSQL("DROP INDEX IF EXISTS " + WEATHER_LOCATION_DATE_INDEX);
+                    db.execSQL(SQL_CREATE_WEATHER_LOCATION_DAY_INDEX);
+                    db.execSQL(WeatherPartitions.SQL_CREATE_PARTITION_TABLE);
+                }
+            },
+            new SchemaMigrator.Migration(6) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + LocationEntry.TABLE_NAME +
+                            " ADD COLUMN " + LocationEntry.COLUMN_RETENTION_DAYS + " INTEGER");
+                }
+            },
+            new SchemaMigrator.Migration(7) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    WeatherPartitions.supersedeArchivedRows(db);
+                }
+            });
+
+    SchemaMigrator getMigrator() {
+        return mMigrator;
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
+        // Every version since 2 can be upgraded step by step, keeping the cached forecasts, so
+        // that a new schema doesn't send every location back to the server at once.
         // Note that this only fires if you change the version number for your database.
         // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
+        if (mMigrator.canMigrate(oldVersion, newVersion)) {
+            mMigrator.migrate(sqLiteDatabase, oldVersion, newVersion);
+            return;
+        }
+        // Anything older is only a cache for online data, so it is discarded.
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
         onCreate(sqLiteDatabase);
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a freshly parsed forecast by comparing it with what is already stored.
+ * <p>
+ * Inserting the forecast again would make the UNIQUE (date, location_id) ON CONFLICT REPLACE
+ * constraint delete and re-insert every row, giving each one a new _id and rewriting its pages
+ * even when nothing changed.  Instead, rows whose date is new are inserted, rows that differ
+ * are updated in place (keeping their _id) and identical rows are left alone.
+ */
+class WeatherDiffSync {
+
+    static final class Result {
+        int inserted;
+        int updated;
+        int unchanged;
+        // Rows without a location, date or day, which the table can't hold.
+        int skipped;
+
+        int getWrittenCount() {
+            return inserted + updated;
+        }
+
+        @Override
+        public String toString() {
+            return inserted + " inserted, " + updated + " updated, " + unchanged +
+                    " unchanged, " + skipped + " skipped";
+        }
+    }
+
+    private final String[] mColumns;
+    private final int mChunkSize;
+
+    /**
+     * @param columns the weather columns to compare and write, not including _id.
+     */
+    WeatherDiffSync(String[] columns, int chunkSize) {
+        mColumns = columns;
+        mChunkSize = chunkSize;
+    }
+
+    /**
+     * Syncs the given rows, whose dates must already be normalized and their days filled in.
+     * Everything happens in one transaction.  A row missing its location, date or day breaks
+     * the table's constraints, so it is skipped, as BulkInserter skips such a row.
+     */
+    Result sync(SQLiteDatabase db, ContentValues[] values) {
+        Result result = new Result();
+
+        // A refresh normally carries a single location, but nothing stops a caller from
+        // sending several at once.
+        Map<Long, List<ContentValues>> rowsByLocation = new HashMap<Long, List<ContentValues>>();
+        for (ContentValues value : values) {
+            Long locationId = value.getAsLong(WeatherEntry.COLUMN_LOC_KEY);
+            if (locationId == null || value.getAsLong(WeatherEntry.COLUMN_DATE) == null ||
+                    value.getAsInteger(WeatherEntry.COLUMN_DAY) == null) {
+                result.skipped++;
+                continue;
+            }
+            List<ContentValues> rows = rowsByLocation.get(locationId);
+            if (rows == null) {
+                rows = new ArrayList<ContentValues>();
+                rowsByLocation.put(locationId, rows);
+            }
+            rows.add(value);
+        }
+
+        List<ContentValues> newRows = new ArrayList<ContentValues>();
+        long begin = System.nanoTime();
+        db.beginTransaction();
+        try {
+            for (Map.Entry<Long, List<ContentValues>> entry : rowsByLocation.entrySet()) {
+                syncLocation(db, entry.getKey(), entry.getValue(), newRows, result);
+            }
+            if (!newRows.isEmpty()) {
+                BulkInserter inserter = new BulkInserter(WeatherEntry.TABLE_NAME, mColumns,
+                        SQLiteDatabase.CONFLICT_NONE, mChunkSize);
+                result.inserted = inserter.insert(db,
+                        newRows.toArray(new ContentValues[newRows.size()]), 0);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            DataMetrics.getInstance().recordTransaction(System.nanoTime() - begin,
+                    result.getWrittenCount());
+        }
+        return result;
+    }
+
+    private void syncLocation(SQLiteDatabase db, long locationId, List<ContentValues> rows,
+                              List<ContentValues> newRows, Result result) {
+        int minDay = Integer.MAX_VALUE;
+        int maxDay = Integer.MIN_VALUE;
+        for (ContentValues row : rows) {
+            int day = row.getAsInteger(WeatherEntry.COLUMN_DAY);
+            minDay = Math.min(minDay, day);
+            maxDay = Math.max(maxDay, day);
+        }
+
+        String[] projection = new String[mColumns.length + 1];
+        projection[0] = WeatherEntry._ID;
+        System.arraycopy(mColumns, 0, projection, 1, mColumns.length);
+
+        // Served by the (location_id, day, ...) index.  Only the active partition is read:
+        // a forecast is for today onwards, and archived days are never among them.
+        Cursor stored = db.query(WeatherEntry.TABLE_NAME, projection,
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                        WeatherEntry.COLUMN_DAY + " BETWEEN ? AND ?",
+                new String[]{Long.toString(locationId), Integer.toString(minDay),
+                        Integer.toString(maxDay)},
+                null, null, null);
+        int dateIndex = stored.getColumnIndex(WeatherEntry.COLUMN_DATE);
+        Map<Long, Integer> positionByDate = new HashMap<Long, Integer>();
+        try {
+            while (stored.moveToNext()) {
+                positionByDate.put(stored.getLong(dateIndex), stored.getPosition());
+            }
+
+            for (ContentValues row : rows) {
+                Integer position = positionByDate.get(row.getAsLong(WeatherEntry.COLUMN_DATE));
+                if (position == null) {
+                    newRows.add(row);
+                    continue;
+                }
+                stored.moveToPosition(position);
+                if (sameValues(stored, row)) {
+                    result.unchanged++;
+                } else {
+                    db.update(WeatherEntry.TABLE_NAME, row, WeatherEntry._ID + " = ?",
+                            new String[]{Long.toString(stored.getLong(0))});
+                    result.updated++;
+                }
+            }
+        } finally {
+            stored.close();
+        }
+    }
+
+    /*
+        Compares by value rather than by text: a humidity put in as an int comes back from its
+        REAL column as a double, and the two should still count as equal.
+     */
+    private boolean sameValues(Cursor stored, ContentValues row) {
+        for (int i = 0; i < mColumns.length; i++) {
+            Object incoming = row.get(mColumns[i]);
+            int index = i + 1;
+            if (incoming == null) {
+                if (!stored.isNull(index)) return false;
+            } else if (stored.isNull(index)) {
+                return false;
+            } else if (incoming instanceof Number) {
+                if (stored.getDouble(index) != ((Number) incoming).doubleValue()) return false;
+            } else if (!incoming.toString().equals(stored.getString(index))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
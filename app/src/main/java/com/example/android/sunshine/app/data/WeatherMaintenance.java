@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the weather database from growing forever.
+ * <p>
+ * A run archives every day before today (see {@link WeatherPartitions}), deletes the weather
+ * each location no longer keeps, and drops the archive tables that no location keeps any more.
+ * Archiving and deletes go in batches, each in its own transaction, so the provider can write
+ * in between.  If enough of the file is left free, the free pages are handed back in steps too,
+ * and the statistics are refreshed with ANALYZE.
+ * <p>
+ * Handing pages back in steps needs incremental auto-vacuum, which a database created without
+ * it only gets from a full VACUUM.  That holds the database for as long as it takes to rewrite
+ * the whole file, so a run never does it; it reports {@link Report#vacuumPending} instead, and
+ * {@link #enableIncrementalVacuum} does it when the caller can afford the wait.
+ */
+public class WeatherMaintenance {
+
+    public static final int DEFAULT_RETENTION_DAYS = 14;
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    // The share of free pages at which the file is compacted.
+    public static final double DEFAULT_VACUUM_THRESHOLD = 0.25;
+
+    // Pages freed per incremental_vacuum step.
+    private static final int VACUUM_STEP_PAGES = 256;
+
+    // PRAGMA auto_vacuum values.
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    public static class Report {
+        public int rowsArchived;
+        public int rowsPurged;
+        public int partitionsDropped;
+        public long pagesReclaimed;
+        public boolean analyzed;
+        // The file has enough free pages to compact, but needs enableIncrementalVacuum() first.
+        public boolean vacuumPending;
+        // The longest any single transaction of the run held the write lock.
+        public long longestLockHoldMillis;
+        public long elapsedMillis;
+
+        @Override
+        public String toString() {
+            return rowsArchived + " rows archived, " + rowsPurged + " purged, " +
+                    partitionsDropped + " partitions dropped, " + pagesReclaimed +
+                    " pages reclaimed in " + elapsedMillis + " ms, longest lock hold " +
+                    longestLockHoldMillis + " ms" + (vacuumPending ? ", vacuum pending" : "");
+        }
+    }
+
+    private final WeatherDbHelper mOpenHelper;
+    private final WeatherPartitions mPartitions;
+    private final int mDefaultRetentionDays;
+    private final int mBatchSize;
+    private final double mVacuumThreshold;
+
+    private long mLongestLockHoldNanos;
+
+    public WeatherMaintenance(WeatherDbHelper openHelper) {
+        this(openHelper, DEFAULT_RETENTION_DAYS, DEFAULT_BATCH_SIZE, DEFAULT_VACUUM_THRESHOLD);
+    }
+
+    public WeatherMaintenance(WeatherDbHelper openHelper, int defaultRetentionDays,
+                              int batchSize, double vacuumThreshold) {
+        mOpenHelper = openHelper;
+        mPartitions = WeatherPartitions.getInstance();
+        mDefaultRetentionDays = defaultRetentionDays;
+        mBatchSize = batchSize;
+        mVacuumThreshold = vacuumThreshold;
+    }
+
+    /**
+     * Runs the maintenance as of the given time.
+     */
+    public Report run(long nowMillis) {
+        long begin = System.nanoTime();
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        Report report = new Report();
+        mLongestLockHoldNanos = 0;
+        int today = DayNormalizer.julianDay(nowMillis);
+
+        int archived;
+        do {
+            long lockStart = System.nanoTime();
+            archived = mPartitions.archive(db, today, mBatchSize);
+            recordLockHold(lockStart);
+            report.rowsArchived += archived;
+        } while (archived > 0);
+
+        int longestRetention = mDefaultRetentionDays;
+        for (long[] location : queryRetentions(db)) {
+            int retention = (int) location[1];
+            longestRetention = Math.max(longestRetention, retention);
+            String[] args = {Long.toString(location[0]), Integer.toString(today - retention)};
+            report.rowsPurged += purge(db, WeatherEntry.TABLE_NAME, args);
+            for (String archive : mPartitions.getArchiveTables(db)) {
+                report.rowsPurged += purge(db, archive, args);
+            }
+        }
+
+        long lockStart = System.nanoTime();
+        report.partitionsDropped = mPartitions.dropBefore(db, today - longestRetention);
+        recordLockHold(lockStart);
+
+        long freePages = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+        long pages = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+        if (pages > 0 && (double) freePages / pages >= mVacuumThreshold) {
+            if (isIncrementalVacuum(db)) {
+                compact(db);
+                report.pagesReclaimed =
+                        pages - DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+            } else {
+                report.vacuumPending = true;
+            }
+            lockStart = System.nanoTime();
+            db.execSQL("ANALYZE");
+            recordLockHold(lockStart);
+            report.analyzed = true;
+        }
+
+        report.longestLockHoldMillis = mLongestLockHoldNanos / 1000000;
+        report.elapsedMillis = (System.nanoTime() - begin) / 1000000;
+        return report;
+    }
+
+    // The row id of each location and the days of weather it keeps.
+    private List<long[]> queryRetentions(SQLiteDatabase db) {
+        List<long[]> retentions = new ArrayList<long[]>();
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME,
+                new String[]{LocationEntry._ID, LocationEntry.COLUMN_RETENTION_DAYS},
+                null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                int retention = cursor.isNull(1) ? mDefaultRetentionDays : cursor.getInt(1);
+                retentions.add(new long[]{cursor.getLong(0), retention});
+            }
+        } finally {
+            cursor.close();
+        }
+        return retentions;
+    }
+
+    /*
+        Deletes the location's weather before the cutoff day from one partition, a batch per
+        transaction, until a batch comes up short.
+     */
+    private int purge(SQLiteDatabase db, String table, String[] args) {
+        String batch = WeatherEntry._ID + " IN (SELECT " + WeatherEntry._ID + " FROM " + table +
+                " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                WeatherEntry.COLUMN_DAY + " < ? LIMIT " + mBatchSize + ")";
+        int purged = 0;
+        int deleted;
+        do {
+            db.beginTransaction();
+            long lockStart = System.nanoTime();
+            try {
+                deleted = db.delete(table, batch, args);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+                recordLockHold(lockStart);
+            }
+            purged += deleted;
+        } while (deleted == mBatchSize);
+        return purged;
+    }
+
+    /**
+     * Switches the database to incremental auto-vacuum, with the one full VACUUM that takes,
+     * so that later runs can hand free pages back in steps.  Nothing else can use the database
+     * until it is done, so call it only when nobody is waiting on it.
+     *
+     * @return the number of pages the VACUUM reclaimed, or 0 if it was already switched.
+     */
+    public long enableIncrementalVacuum() {
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        if (isIncrementalVacuum(db)) {
+            return 0;
+        }
+        long pages = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+        db.execSQL("VACUUM");
+        return pages - DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+    }
+
+    private static boolean isIncrementalVacuum(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) ==
+                AUTO_VACUUM_INCREMENTAL;
+    }
+
+    /*
+        Hands the free pages back to the file system a step at a time.
+     */
+    private void compact(SQLiteDatabase db) {
+        long freePages = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+        while (freePages > 0) {
+            long lockStart = System.nanoTime();
+            // Each step of the statement frees one page, so it has to be read to the end
+            // rather than run with execSQL.
+            Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum(" + VACUUM_STEP_PAGES + ")",
+                    null);
+            try {
+                cursor.getCount();
+            } finally {
+                cursor.close();
+            }
+            recordLockHold(lockStart);
+            long left = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+            if (left >= freePages) {
+                break;
+            }
+            freePages = left;
+        }
+    }
+
+    private void recordLockHold(long startNanos) {
+        mLongestLockHoldNanos = Math.max(mLongestLockHoldNanos, System.nanoTime() - startNanos);
+    }
+}
@@ -0,0 +1,350 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Keeps old weather rows out of the table that the forecast screens read.
+ * <p>
+ * The weather table is the active partition.  {@link #archive} moves the rows of every day
+ * before a cutoff into one table per year, named weather_archive_&lt;year&gt;, and records the
+ * days each of them holds in the weather_partition table.  A query only reads the archive
+ * tables whose days it can match, so asking for today's forecast never leaves the active table,
+ * and {@link #dropBefore} gets rid of old weather a whole table at a time.
+ * <p>
+ * Rows are always written to the active table, even for a day that has been archived; the next
+ * archive moves them along with the rest.  Each archive has triggers on the weather table that
+ * delete its row of the same date and location whenever one is written there, in the same
+ * statement, so a day is never read from both.
+ */
+class WeatherPartitions {
+
+    static final String TABLE_NAME = "weather_partition";
+
+    // The archive table, and the first and last day of the rows it holds.
+    static final String COLUMN_NAME = "name";
+    static final String COLUMN_FIRST_DAY = "first_day";
+    static final String COLUMN_LAST_DAY = "last_day";
+
+    static final String ARCHIVE_PREFIX = WeatherEntry.TABLE_NAME + "_archive_";
+
+    static final String SQL_CREATE_PARTITION_TABLE = "CREATE TABLE IF NOT EXISTS " +
+            TABLE_NAME + " (" +
+            COLUMN_NAME + " TEXT PRIMARY KEY, " +
+            COLUMN_FIRST_DAY + " INTEGER NOT NULL, " +
+            COLUMN_LAST_DAY + " INTEGER NOT NULL);";
+
+    // Every weather column, in the order the archive tables store them.
+    private static final String COLUMNS = WeatherEntry._ID + ", " +
+            WeatherEntry.COLUMN_LOC_KEY + ", " +
+            WeatherEntry.COLUMN_DATE + ", " +
+            WeatherEntry.COLUMN_DAY + ", " +
+            WeatherEntry.COLUMN_SHORT_DESC + ", " +
+            WeatherEntry.COLUMN_WEATHER_ID + ", " +
+            WeatherEntry.COLUMN_MIN_TEMP + ", " +
+            WeatherEntry.COLUMN_MAX_TEMP + ", " +
+            WeatherEntry.COLUMN_HUMIDITY + ", " +
+            WeatherEntry.COLUMN_PRESSURE + ", " +
+            WeatherEntry.COLUMN_WIND_SPEED + ", " +
+            WeatherEntry.COLUMN_DEGREES;
+
+    static final class Partition {
+        final String name;
+        final int firstDay;
+        final int lastDay;
+
+        Partition(String name, int firstDay, int lastDay) {
+            this.name = name;
+            this.firstDay = firstDay;
+            this.lastDay = lastDay;
+        }
+
+        boolean overlaps(int firstDay, int lastDay) {
+            return this.firstDay <= lastDay && this.lastDay >= firstDay;
+        }
+    }
+
+    private static WeatherPartitions sInstance;
+
+    // Read from the partition table the first time it is needed.
+    private List<Partition> mPartitions;
+
+    /**
+     * Returns the process-wide catalog, so that the provider sees what maintenance archives.
+     */
+    static synchronized WeatherPartitions getInstance() {
+        if (sInstance == null) {
+            sInstance = new WeatherPartitions();
+        }
+        return sInstance;
+    }
+
+    WeatherPartitions() {
+    }
+
+    /**
+     * Forgets the catalog, so that it is read again from the next database used.
+     */
+    synchronized void reset() {
+        mPartitions = null;
+    }
+
+    synchronized List<Partition> getPartitions(SQLiteDatabase db) {
+        if (mPartitions == null) {
+            mPartitions = loadPartitions(db);
+        }
+        return mPartitions;
+    }
+
+    private static List<Partition> loadPartitions(SQLiteDatabase db) {
+        List<Partition> partitions = new ArrayList<Partition>();
+        Cursor cursor = db.query(TABLE_NAME,
+                new String[]{COLUMN_NAME, COLUMN_FIRST_DAY, COLUMN_LAST_DAY},
+                null, null, null, null, COLUMN_FIRST_DAY);
+        try {
+            while (cursor.moveToNext()) {
+                partitions.add(new Partition(cursor.getString(0), cursor.getInt(1),
+                        cursor.getInt(2)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return Collections.unmodifiableList(partitions);
+    }
+
+    /**
+     * Returns what to put in a FROM clause to read the weather of the given days: the weather
+     * table itself if no archive holds any of them, otherwise the weather table and those
+     * archives combined into a subquery that is still called weather.
+     */
+    String getTables(SQLiteDatabase db, int firstDay, int lastDay) {
+        StringBuilder union = null;
+        for (Partition partition : getPartitions(db)) {
+            if (!partition.overlaps(firstDay, lastDay)) {
+                continue;
+            }
+            if (union == null) {
+                union = new StringBuilder(256);
+                union.append("(SELECT ").append(COLUMNS)
+                        .append(" FROM ").append(WeatherEntry.TABLE_NAME);
+            }
+            union.append(" UNION ALL SELECT ").append(COLUMNS)
+                    .append(" FROM ").append(partition.name);
+        }
+        if (union == null) {
+            return WeatherEntry.TABLE_NAME;
+        }
+        return union.append(") AS ").append(WeatherEntry.TABLE_NAME).toString();
+    }
+
+    /**
+     * @return the names of the archive tables, which deletes and updates of weather rows have
+     * to be applied to as well as the weather table.
+     */
+    List<String> getArchiveTables(SQLiteDatabase db) {
+        List<Partition> partitions = getPartitions(db);
+        List<String> names = new ArrayList<String>(partitions.size());
+        for (Partition partition : partitions) {
+            names.add(partition.name);
+        }
+        return names;
+    }
+
+    /**
+     * Moves the weather of every day before the cutoff out of the weather table and into the
+     * archive table of its year, all in one transaction.
+     *
+     * @return the number of rows moved.
+     */
+    synchronized int archive(SQLiteDatabase db, int cutoffDay) {
+        return archiveBefore(db, cutoffDay);
+    }
+
+    /**
+     * Moves the oldest days before the cutoff into the archive, as many whole days as it takes
+     * to move at least batchSize rows, in one transaction.  Call it until it returns 0 to
+     * archive everything before the cutoff without holding the database for all of it.
+     *
+     * @return the number of rows moved.
+     */
+    synchronized int archive(SQLiteDatabase db, int cutoffDay, int batchSize) {
+        // The day of the batchSize-th oldest row; the batch ends with it.
+        Cursor last = db.rawQuery("SELECT " + WeatherEntry.COLUMN_DAY + " FROM " +
+                WeatherEntry.TABLE_NAME + " WHERE " + WeatherEntry.COLUMN_DAY + " < ? ORDER BY " +
+                WeatherEntry.COLUMN_DAY + " LIMIT 1 OFFSET " + (batchSize - 1),
+                new String[]{Integer.toString(cutoffDay)});
+        int endDay = cutoffDay;
+        try {
+            if (last.moveToFirst()) {
+                endDay = Math.min(cutoffDay, last.getInt(0) + 1);
+            }
+        } finally {
+            last.close();
+        }
+        return archiveBefore(db, endDay);
+    }
+
+    private int archiveBefore(SQLiteDatabase db, int cutoffDay) {
+        String[] cutoffArgs = {Integer.toString(cutoffDay)};
+        int moved = 0;
+        db.beginTransaction();
+        try {
+            // The day's Julian day number, read as a date, is noon of that day in UTC.
+            Cursor years = db.rawQuery("SELECT CAST(strftime('%Y', " + WeatherEntry.COLUMN_DAY +
+                    ") AS INTEGER), MIN(" + WeatherEntry.COLUMN_DAY + "), MAX(" +
+                    WeatherEntry.COLUMN_DAY + ") FROM " + WeatherEntry.TABLE_NAME +
+                    " WHERE " + WeatherEntry.COLUMN_DAY + " < ? GROUP BY 1", cutoffArgs);
+            try {
+                while (years.moveToNext()) {
+                    moved += archiveYear(db, years.getInt(0), years.getInt(1), years.getInt(2));
+                }
+            } finally {
+                years.close();
+            }
+            db.delete(WeatherEntry.TABLE_NAME, WeatherEntry.COLUMN_DAY + " < ?", cutoffArgs);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mPartitions = null;
+        }
+        return moved;
+    }
+
+    private static int archiveYear(SQLiteDatabase db, int year, int firstDay, int lastDay) {
+        String name = ARCHIVE_PREFIX + year;
+        db.execSQL(buildCreateArchiveSql(name));
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + name + "_location_day_idx ON " + name +
+                " (" + WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DAY + ");");
+
+        String[] dayArgs = {Integer.toString(firstDay), Integer.toString(lastDay)};
+        db.execSQL("INSERT INTO " + name + " (" + COLUMNS + ") SELECT " + COLUMNS +
+                " FROM " + WeatherEntry.TABLE_NAME +
+                " WHERE " + WeatherEntry.COLUMN_DAY + " BETWEEN ? AND ?", dayArgs);
+        Cursor count = db.rawQuery("SELECT changes()", null);
+        int moved;
+        try {
+            count.moveToFirst();
+            moved = count.getInt(0);
+        } finally {
+            count.close();
+        }
+
+        ContentValues partition = new ContentValues();
+        partition.put(COLUMN_NAME, name);
+        partition.put(COLUMN_FIRST_DAY, firstDay);
+        partition.put(COLUMN_LAST_DAY, lastDay);
+        db.insertWithOnConflict(TABLE_NAME, null, partition, SQLiteDatabase.CONFLICT_IGNORE);
+        db.execSQL("UPDATE " + TABLE_NAME + " SET " +
+                COLUMN_FIRST_DAY + " = MIN(" + COLUMN_FIRST_DAY + ", ?), " +
+                COLUMN_LAST_DAY + " = MAX(" + COLUMN_LAST_DAY + ", ?) WHERE " +
+                COLUMN_NAME + " = ?", new Object[]{firstDay, lastDay, name});
+        createSupersedeTriggers(db, name, year);
+        return moved;
+    }
+
+    /*
+        A row inserted into the weather table, or moved there to another date or location,
+        replaces the archived row of the same date and location.  Only the rows of the archive's
+        year are looked up, the same year archive() files them under.
+     */
+    private static void createSupersedeTriggers(SQLiteDatabase db, String name, int year) {
+        String when = " WHEN CAST(strftime('%Y', NEW." + WeatherEntry.COLUMN_DAY +
+                ") AS INTEGER) = " + year;
+        String body = " BEGIN DELETE FROM " + name + " WHERE " +
+                WeatherEntry.COLUMN_DATE + " = NEW." + WeatherEntry.COLUMN_DATE + " AND " +
+                WeatherEntry.COLUMN_LOC_KEY + " = NEW." + WeatherEntry.COLUMN_LOC_KEY + "; END";
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + name + "_insert AFTER INSERT ON " +
+                WeatherEntry.TABLE_NAME + when + body);
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + name + "_update AFTER UPDATE OF " +
+                WeatherEntry.COLUMN_DATE + ", " + WeatherEntry.COLUMN_DAY + ", " +
+                WeatherEntry.COLUMN_LOC_KEY + " ON " + WeatherEntry.TABLE_NAME + when + body);
+    }
+
+    private static void dropSupersedeTriggers(SQLiteDatabase db, String name) {
+        db.execSQL("DROP TRIGGER IF EXISTS " + name + "_insert");
+        db.execSQL("DROP TRIGGER IF EXISTS " + name + "_update");
+    }
+
+    /**
+     * Adds the triggers to the archives made before they existed, dropping the archived rows
+     * that were written to the weather table again in the meantime.
+     */
+    static void supersedeArchivedRows(SQLiteDatabase db) {
+        for (Partition partition : loadPartitions(db)) {
+            db.execSQL("DELETE FROM " + partition.name + " WHERE EXISTS (SELECT 1 FROM " +
+                    WeatherEntry.TABLE_NAME + " WHERE " +
+                    WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_DATE + " = " +
+                    partition.name + "." + WeatherEntry.COLUMN_DATE + " AND " +
+                    WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_LOC_KEY + " = " +
+                    partition.name + "." + WeatherEntry.COLUMN_LOC_KEY + ")");
+            createSupersedeTriggers(db, partition.name,
+                    Integer.parseInt(partition.name.substring(ARCHIVE_PREFIX.length())));
+        }
+    }
+
+    // Same columns as the weather table.  The ids are copied over, so there's no AUTOINCREMENT.
+    private static String buildCreateArchiveSql(String name) {
+        return "CREATE TABLE IF NOT EXISTS " + name + " (" +
+                WeatherEntry._ID + " INTEGER PRIMARY KEY, " +
+                WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_DAY + " INTEGER, " +
+                WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+                " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
+                WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
+    }
+
+    /**
+     * Drops every archive table whose newest day is before the given one.
+     *
+     * @return the number of tables dropped.
+     */
+    synchronized int dropBefore(SQLiteDatabase db, int day) {
+        int dropped = 0;
+        db.beginTransaction();
+        try {
+            for (Partition partition : getPartitions(db)) {
+                if (partition.lastDay < day) {
+                    dropSupersedeTriggers(db, partition.name);
+                    db.execSQL("DROP TABLE IF EXISTS " + partition.name);
+                    db.delete(TABLE_NAME, COLUMN_NAME + " = ?", new String[]{partition.name});
+                    dropped++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mPartitions = null;
+        }
+        return dropped;
+    }
+}
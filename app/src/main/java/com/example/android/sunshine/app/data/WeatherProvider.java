@@ -17,94 +17,223 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.util.Log;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayList;
 
 public class WeatherProvider extends ContentProvider {
 
+    private static final String LOG_TAG = WeatherProvider.class.getSimpleName();
+
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
+    private NotificationCoalescer mNotificationCoalescer;
+    private LocationIdCache mLocationIdCache;
+    private WeatherPartitions mPartitions;
+    private PurchaseRoutes mPurchases;
+    private volatile WeatherDiffSync.Result mLastSyncResult;
+    private final DataMetrics mMetrics = DataMetrics.getInstance();
 
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
+    static final int METRICS = 200;
     static final int LOCATION = 300;
 
     private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
 
     static{
-        sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
-        
+        sWeatherByLocationSettingQueryBuilder =
+                buildWeatherByLocationSettingQueryBuilder(WeatherContract.WeatherEntry.TABLE_NAME);
+    }
+
+    /*
+        The weather table here is either the active partition or a subquery that adds the
+        archives to it, as returned by WeatherPartitions.getTables.
+     */
+    private static SQLiteQueryBuilder buildWeatherByLocationSettingQueryBuilder(
+            String weatherTables) {
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+
         //This is an inner join which looks like
         //weather INNER JOIN location ON weather.location_id = location._id
-        sWeatherByLocationSettingQueryBuilder.setTables(
-                WeatherContract.WeatherEntry.TABLE_NAME + " INNER JOIN " +
+        builder.setTables(
+                weatherTables + " INNER JOIN " +
                         WeatherContract.LocationEntry.TABLE_NAME +
                         " ON " + WeatherContract.WeatherEntry.TABLE_NAME +
                         "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
                         " = " + WeatherContract.LocationEntry.TABLE_NAME +
                         "." + WeatherContract.LocationEntry._ID);
+        return builder;
+    }
+
+    /*
+        The location setting is looked up first, and the weather rows are selected by the id of
+        its row.  Selecting by location.location_setting would leave the join order to the
+        statistics, and once ANALYZE has run SQLite prefers to scan the small location table and
+        sort whatever it finds there.
+     */
+
+    //weather.location_id = ?
+    private static final String sLocationSelection =
+            WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? ";
+
+    //weather.location_id = ? AND day >= ?
+    private static final String sLocationWithStartDateSelection =
+            sLocationSelection + "AND " + WeatherContract.WeatherEntry.COLUMN_DAY + " >= ? ";
+
+    //weather.location_id = ? AND day >= ? AND (day > ? OR date > ?)
+    //The day and date of the row the page starts after; the first day is never before its day.
+    private static final String sLocationPageSelection =
+            sLocationWithStartDateSelection + "AND (" +
+                    WeatherContract.WeatherEntry.COLUMN_DAY + " > ? OR " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " > ?) ";
+
+    //weather.location_id = ? AND day = ?
+    private static final String sLocationAndDaySelection =
+            sLocationSelection + "AND " + WeatherContract.WeatherEntry.COLUMN_DAY + " = ? ";
+
+    private static String getLocationSettingSelection(int match, boolean hasStartDate,
+                                                      boolean hasAfterKey) {
+        if (match == WEATHER_WITH_LOCATION_AND_DATE) {
+            return sLocationAndDaySelection;
+        }
+        if (hasAfterKey) {
+            return sLocationPageSelection;
+        }
+        return hasStartDate ? sLocationWithStartDateSelection : sLocationSelection;
     }
 
-    //location.location_setting = ?
-    private static final String sLocationSettingSelection =
-            WeatherContract.LocationEntry.TABLE_NAME+
-                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
+    /*
+        Returns the SQL text that the location queries below hand to SQLite for the given URI
+        shape.  The tests run EXPLAIN QUERY PLAN over it to make sure none of them scans a table.
+     */
+    static String buildLocationSettingQuery(int match, boolean hasStartDate,
+                                            String[] projection, String sortOrder) {
+        return buildLocationSettingQuery(match, hasStartDate, false, projection, sortOrder,
+                null);
+    }
 
-    //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
-            WeatherContract.LocationEntry.TABLE_NAME+
-                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
-                    WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
+    @SuppressWarnings("deprecation")
+    static String buildLocationSettingQuery(int match, boolean hasStartDate,
+                                            boolean hasAfterKey, String[] projection,
+                                            String sortOrder, String limit) {
+        return sWeatherByLocationSettingQueryBuilder.buildQuery(projection,
+                getLocationSettingSelection(match, hasStartDate, hasAfterKey),
+                null,
+                null,
+                null,
+                sortOrder,
+                limit);
+    }
 
-    //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
-            WeatherContract.LocationEntry.TABLE_NAME +
-                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
-                    WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
+    // A page is read in day order, whatever sort order the caller asked for, with the date
+    // breaking ties between rows on the same day: the date is unique for a location, so the
+    // next page starts exactly after the last row of this one.
+    static final String PAGE_SORT_ORDER = WeatherContract.WeatherEntry.COLUMN_DAY + " ASC, " +
+            WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
 
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
-        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+        final SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        String locationId = Long.toString(getLocationId(db,
+                WeatherContract.WeatherEntry.getLocationSettingFromUri(uri)));
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+        long afterDate = WeatherContract.WeatherEntry.getAfterDateFromUri(uri);
+        int afterDay = WeatherContract.WeatherEntry.getAfterDayFromUri(uri);
+        int pageSize = WeatherContract.WeatherEntry.getPageSizeFromUri(uri);
 
-        String[] selectionArgs;
-        String selection;
+        int firstDay = Integer.MIN_VALUE;
+        if (startDate != 0) {
+            firstDay = DayNormalizer.julianDay(startDate);
+        }
+        if (afterDate != 0) {
+            firstDay = Math.max(firstDay, afterDay);
+        }
 
-        if (startDate == 0) {
-            selection = sLocationSettingSelection;
-            selectionArgs = new String[]{locationSetting};
+        String[] selectionArgs;
+        if (afterDate != 0) {
+            selectionArgs = new String[]{locationId, Integer.toString(firstDay),
+                    Integer.toString(afterDay), Long.toString(afterDate)};
+        } else if (firstDay != Integer.MIN_VALUE) {
+            selectionArgs = new String[]{locationId, Integer.toString(firstDay)};
         } else {
-            selectionArgs = new String[]{locationSetting, Long.toString(startDate)};
-            selection = sLocationSettingWithStartDateSelection;
+            selectionArgs = new String[]{locationId};
         }
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
-                projection,
-                selection,
-                selectionArgs,
-                null,
-                null,
-                sortOrder
-        );
+        String limit = null;
+        if (pageSize > 0) {
+            limit = Integer.toString(pageSize);
+            sortOrder = PAGE_SORT_ORDER;
+        }
+
+        return queryByLocationSetting(db, WEATHER_WITH_LOCATION,
+                firstDay != Integer.MIN_VALUE, afterDate != 0, firstDay, Integer.MAX_VALUE,
+                projection, selectionArgs, sortOrder, limit);
     }
 
     private Cursor getWeatherByLocationSettingAndDate(
             Uri uri, String[] projection, String sortOrder) {
-        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
-        long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
+        final SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        String locationId = Long.toString(getLocationId(db,
+                WeatherContract.WeatherEntry.getLocationSettingFromUri(uri)));
+        int day = DayNormalizer.julianDay(WeatherContract.WeatherEntry.getDateFromUri(uri));
+
+        return queryByLocationSetting(db, WEATHER_WITH_LOCATION_AND_DATE, false, false, day, day,
+                projection, new String[]{locationId, Integer.toString(day)}, sortOrder, null);
+    }
+
+    /*
+        The row id of the location setting, or -1 if it isn't stored, which matches no weather.
+        A query only reads the cache: it can't fill it without holding off a delete of the
+        location in between, as insertOrGetLocation does.
+     */
+    private long getLocationId(SQLiteDatabase db, String locationSetting) {
+        long _id = mLocationIdCache.get(locationSetting);
+        if (_id == LocationIdCache.NOT_CACHED) {
+            _id = lookupLocationId(db, locationSetting);
+        }
+        return _id;
+    }
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+    /*
+        Runs one of the location queries over the given days.  If they reach into the archives,
+        the query is built for the archives involved; otherwise it only reads the active
+        partition.
+     */
+    private Cursor queryByLocationSetting(SQLiteDatabase db, int match, boolean hasStartDate,
+                                          boolean hasAfterKey, int firstDay, int lastDay,
+                                          String[] projection, String[] selectionArgs,
+                                          String sortOrder, String limit) {
+        String weatherTables = mPartitions.getTables(db, firstDay, lastDay);
+        SQLiteQueryBuilder queryBuilder = sWeatherByLocationSettingQueryBuilder;
+        if (!WeatherContract.WeatherEntry.TABLE_NAME.equals(weatherTables)) {
+            queryBuilder = buildWeatherByLocationSettingQueryBuilder(weatherTables);
+        }
+        return queryBuilder.query(db,
                 projection,
-                sLocationSettingAndDaySelection,
-                new String[]{locationSetting, Long.toString(date)},
+                getLocationSettingSelection(match, hasStartDate, hasAfterKey),
+                selectionArgs,
                 null,
                 null,
-                sortOrder
+                sortOrder,
+                limit
         );
     }
 
@@ -130,6 +259,10 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_METRICS, METRICS);
+
+        // The purchase tables share the authority, see PurchaseRoutes.
+        PurchaseRoutes.addUris(matcher, authority);
         return matcher;
     }
 
@@ -139,7 +272,11 @@ public class WeatherProvider extends ContentProvider {
      */
     @Override
     public boolean onCreate() {
-        mOpenHelper = new WeatherDbHelper(getContext());
+        mOpenHelper = WeatherDbHelper.getInstance(getContext());
+        mNotificationCoalescer = NotificationCoalescer.getInstance(getContext());
+        mLocationIdCache = LocationIdCache.getInstance(getContext());
+        mPartitions = WeatherPartitions.getInstance();
+        mPurchases = new PurchaseRoutes(new PurchaseDbHelper(getContext()));
         return true;
     }
 
@@ -164,18 +301,37 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case METRICS:
+                return WeatherContract.MetricsEntry.CONTENT_TYPE;
             default:
+                if (PurchaseRoutes.isPurchaseMatch(match)) {
+                    return mPurchases.getType(match);
+                }
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
     }
 
+    /*
+        Every call below is timed into DataMetrics under its UriMatcher code.  A query's rows
+        are counted before it returns, so its time includes filling the cursor.
+     */
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        long begin = System.nanoTime();
+        final int match = sUriMatcher.match(uri);
+        Cursor retCursor = query(match, uri, projection, selection, selectionArgs, sortOrder);
+        mMetrics.recordOperation(match, DataMetrics.QUERY, System.nanoTime() - begin,
+                retCursor.getCount());
+        return retCursor;
+    }
+
+    private Cursor query(int match, Uri uri, String[] projection, String selection,
+                         String[] selectionArgs, String sortOrder) {
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
         Cursor retCursor;
-        switch (sUriMatcher.match(uri)) {
+        switch (match) {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
             {
@@ -189,8 +345,9 @@ public class WeatherProvider extends ContentProvider {
             }
             // "weather"
             case WEATHER: {
-                retCursor = mOpenHelper.getReadableDatabase().query(
-                        WeatherContract.WeatherEntry.TABLE_NAME,
+                SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+                retCursor = db.query(
+                        mPartitions.getTables(db, Integer.MIN_VALUE, Integer.MAX_VALUE),
                         projection,
                         selection,
                         selectionArgs,
@@ -214,20 +371,53 @@ public class WeatherProvider extends ContentProvider {
                 break;
             }
 
+            // "metrics"
+            case METRICS: {
+                retCursor = mMetrics.toCursor();
+                break;
+            }
+
             default:
-                throw new UnsupportedOperationException("Unknown uri: " + uri);
+                if (!PurchaseRoutes.isPurchaseMatch(match)) {
+                    throw new UnsupportedOperationException("Unknown uri: " + uri);
+                }
+                retCursor = mPurchases.query(match, uri, projection, selection, selectionArgs,
+                        sortOrder);
+        }
+        // The screens' own projections over the forecast come back in arrays rather than in a
+        // cursor window.  Only a bounded result is copied, a page or a single day: copying a
+        // whole unpaged forecast would hold it twice, once in the window and once in arrays.
+        if (isBoundedForecastQuery(match, uri) && ColumnarForecastCursor.supports(projection)) {
+            retCursor = ColumnarForecastCursor.copyOf(retCursor);
         }
         retCursor.setNotificationUri(getContext().getContentResolver(), uri);
         return retCursor;
     }
 
+    private static boolean isBoundedForecastQuery(int match, Uri uri) {
+        return match == WEATHER_WITH_LOCATION_AND_DATE || (match == WEATHER_WITH_LOCATION &&
+                WeatherContract.WeatherEntry.getPageSizeFromUri(uri) > 0);
+    }
+
     /*
         Student: Add the ability to insert Locations to the implementation of this function.
      */
     @Override
     public Uri insert(Uri uri, ContentValues values) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        long begin = System.nanoTime();
         final int match = sUriMatcher.match(uri);
+        Uri returnUri = insert(match, uri, values);
+        mMetrics.recordOperation(match, DataMetrics.INSERT, System.nanoTime() - begin, 1);
+        return returnUri;
+    }
+
+    private Uri insert(int match, Uri uri, ContentValues values) {
+        if (PurchaseRoutes.isPurchaseMatch(match)) {
+            Uri returnUri = mPurchases.insert(match, uri, values);
+            notifyPurchaseChange(match);
+            return returnUri;
+        }
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         Uri returnUri;
 
         switch (match) {
@@ -241,6 +431,9 @@ public class WeatherProvider extends ContentProvider {
                 break;
             }
             case LOCATION: {
+                if ("1".equals(uri.getQueryParameter(WeatherContract.PARAM_INSERT_OR_GET))) {
+                    return insertOrGetLocation(db, values);
+                }
                 long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
                 if ( _id > 0 )
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
@@ -251,95 +444,440 @@ public class WeatherProvider extends ContentProvider {
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
         return returnUri;
     }
 
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        long begin = System.nanoTime();
         final int match = sUriMatcher.match(uri);
+        int rowsDeleted = delete(match, uri, selection, selectionArgs);
+        mMetrics.recordOperation(match, DataMetrics.DELETE, System.nanoTime() - begin,
+                rowsDeleted);
+        return rowsDeleted;
+    }
+
+    private int delete(int match, Uri uri, String selection, String[] selectionArgs) {
+        if (PurchaseRoutes.isPurchaseMatch(match)) {
+            int rowsDeleted = mPurchases.delete(match, uri, selection, selectionArgs);
+            if (rowsDeleted != 0) {
+                notifyPurchaseChange(match);
+            }
+            return rowsDeleted;
+        }
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         int rowsDeleted;
         // this makes delete all rows return the number of rows deleted
         if ( null == selection ) selection = "1";
         switch (match) {
             case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                db.beginTransaction();
+                try {
+                    rowsDeleted = db.delete(
+                            WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                    for (String archive : mPartitions.getArchiveTables(db)) {
+                        rowsDeleted += db.delete(archive, selection, selectionArgs);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 break;
             case LOCATION:
-                rowsDeleted = db.delete(
-                        WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                // Forget the cached ids before anyone else can write, so nothing gets handed
+                // the id of a row that is gone.
+                db.beginTransaction();
+                try {
+                    rowsDeleted = db.delete(
+                            WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                    if (rowsDeleted != 0) {
+                        mLocationIdCache.invalidate();
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsDeleted;
     }
 
+    /*
+        Returns the row of the location setting, inserting it first if it isn't stored yet.
+        An existing row only has its validator columns written, and since nothing on screen
+        shows those, that doesn't notify anyone.  The cache is filled inside the transaction,
+        so a delete can't slip in between the lookup and the put.
+     */
+    private Uri insertOrGetLocation(SQLiteDatabase db, ContentValues values) {
+        String locationSetting =
+                values.getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        boolean inserted = false;
+        long _id;
+        db.beginTransaction();
+        try {
+            _id = mLocationIdCache.get(locationSetting);
+            if (_id == LocationIdCache.NOT_CACHED) {
+                _id = lookupLocationId(db, locationSetting);
+            }
+            if (_id == -1) {
+                _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+                if (_id <= 0) {
+                    throw new SQLException("Failed to insert location " + locationSetting);
+                }
+                inserted = true;
+            } else {
+                ContentValues validators = new ContentValues();
+                copyIfPresent(values, validators, WeatherContract.LocationEntry.COLUMN_ETAG);
+                copyIfPresent(values, validators,
+                        WeatherContract.LocationEntry.COLUMN_LAST_MODIFIED);
+                if (validators.size() > 0) {
+                    db.update(WeatherContract.LocationEntry.TABLE_NAME, validators,
+                            WeatherContract.LocationEntry._ID + " = ?",
+                            new String[]{Long.toString(_id)});
+                }
+            }
+            mLocationIdCache.put(locationSetting, _id);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (inserted) {
+            notifyChange(WeatherContract.LocationEntry.CONTENT_URI);
+        }
+        return WeatherContract.LocationEntry.buildLocationUri(_id);
+    }
+
+    private static long lookupLocationId(SQLiteDatabase db, String locationSetting) {
+        SQLiteStatement statement = db.compileStatement(
+                "SELECT " + WeatherContract.LocationEntry._ID +
+                        " FROM " + WeatherContract.LocationEntry.TABLE_NAME +
+                        " WHERE " + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?");
+        try {
+            statement.bindString(1, locationSetting);
+            return statement.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            return -1;
+        } finally {
+            statement.close();
+        }
+    }
+
+    private static void copyIfPresent(ContentValues from, ContentValues to, String column) {
+        if (from.containsKey(column)) {
+            to.put(column, from.getAsString(column));
+        }
+    }
+
     private void normalizeDate(ContentValues values) {
-        // normalize the date value
+        // normalize the date value, and derive the day from it
         if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
             long dateValue = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
-            values.put(WeatherContract.WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(dateValue));
+            long normalizedDate = WeatherContract.normalizeDate(dateValue);
+            values.put(WeatherContract.WeatherEntry.COLUMN_DATE, normalizedDate);
+            values.put(WeatherContract.WeatherEntry.COLUMN_DAY,
+                    DayNormalizer.julianDay(normalizedDate));
         }
     }
 
     @Override
     public int update(
             Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        long begin = System.nanoTime();
         final int match = sUriMatcher.match(uri);
+        int rowsUpdated = update(match, uri, values, selection, selectionArgs);
+        mMetrics.recordOperation(match, DataMetrics.UPDATE, System.nanoTime() - begin,
+                rowsUpdated);
+        return rowsUpdated;
+    }
+
+    private int update(int match, Uri uri, ContentValues values, String selection,
+                       String[] selectionArgs) {
+        if (PurchaseRoutes.isPurchaseMatch(match)) {
+            int rowsUpdated = mPurchases.update(match, uri, values, selection, selectionArgs);
+            if (rowsUpdated != 0) {
+                notifyPurchaseChange(match);
+            }
+            return rowsUpdated;
+        }
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         int rowsUpdated;
 
         switch (match) {
             case WEATHER:
                 normalizeDate(values);
-                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
+                // Rows are updated in whichever partition they are in, even if the new date
+                // belongs somewhere else.
+                db.beginTransaction();
+                try {
+                    rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values,
+                            selection, selectionArgs);
+                    for (String archive : mPartitions.getArchiveTables(db)) {
+                        rowsUpdated += db.update(archive, values, selection, selectionArgs);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 break;
             case LOCATION:
-                rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
+                db.beginTransaction();
+                try {
+                    rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values,
+                            selection, selectionArgs);
+                    if (rowsUpdated != 0 && values.containsKey(
+                            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING)) {
+                        mLocationIdCache.invalidate();
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsUpdated;
     }
 
+    // The weather columns a bulk insert binds, in statement order.
+    static final String[] WEATHER_INSERT_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_DAY,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
+    };
+
+    private static int getChunkSize(Uri uri) {
+        String chunkSize = uri.getQueryParameter(WeatherContract.PARAM_CHUNK_SIZE);
+        if (null != chunkSize && chunkSize.length() > 0)
+            return Integer.parseInt(chunkSize);
+        else
+            return BulkInserter.DEFAULT_CHUNK_SIZE;
+    }
+
+    // The location columns a bulk insert binds, in statement order.
+    private static final String[] LOCATION_INSERT_COLUMNS = {
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+    };
+
+    /*
+        Rows are committed one chunk at a time.  If a chunk fails, the chunks before it stay
+        stored and the exception is rethrown; their rows are still notified.
+     */
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        long begin = System.nanoTime();
         final int match = sUriMatcher.match(uri);
+        int returnCount = bulkInsert(match, uri, values);
+        mMetrics.recordOperation(match, DataMetrics.BULK_INSERT, System.nanoTime() - begin,
+                returnCount);
+        return returnCount;
+    }
+
+    private int bulkInsert(int match, Uri uri, ContentValues[] values) {
+        BulkInserter inserter;
         switch (match) {
             case WEATHER:
-                db.beginTransaction();
-                int returnCount = 0;
-                try {
-                    for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            returnCount++;
-                        }
-                    }
-                    db.setTransactionSuccessful();
-                } finally {
-                    db.endTransaction();
+                for (ContentValues value : values) {
+                    normalizeDate(value);
+                }
+                if ("1".equals(uri.getQueryParameter(WeatherContract.PARAM_SYNC))) {
+                    return syncWeather(uri, values);
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
-                return returnCount;
+                inserter = new BulkInserter(WeatherContract.WeatherEntry.TABLE_NAME,
+                        WEATHER_INSERT_COLUMNS, SQLiteDatabase.CONFLICT_NONE, getChunkSize(uri));
+                break;
+            case LOCATION:
+                // A location_setting that is already stored breaks its UNIQUE constraint, so
+                // that row is skipped just like a single insert would be.
+                inserter = new BulkInserter(WeatherContract.LocationEntry.TABLE_NAME,
+                        LOCATION_INSERT_COLUMNS, SQLiteDatabase.CONFLICT_NONE, getChunkSize(uri));
+                break;
             default:
+                if (PurchaseRoutes.isPurchaseMatch(match)) {
+                    int returnCount = mPurchases.bulkInsert(match, uri, values);
+                    if (returnCount > 0) {
+                        notifyPurchaseChange(match);
+                    }
+                    return returnCount;
+                }
                 return super.bulkInsert(uri, values);
         }
+
+        int returnCount;
+        try {
+            returnCount = inserter.insert(mOpenHelper.getWritableDatabase(), values, 0);
+        } catch (SQLException e) {
+            Log.e(LOG_TAG, "Bulk insert into " + uri + " stopped after row " +
+                    inserter.getCommittedCount(), e);
+            if (inserter.getInsertedCount() > 0) {
+                notifyChange(uri);
+            }
+            throw e;
+        }
+        if (returnCount > 0) {
+            notifyChange(uri);
+        }
+        return returnCount;
+    }
+
+    /*
+        Writes only the weather rows that are new or differ from the stored ones.  The count
+        returned is the number of rows inserted or updated.
+     */
+    private int syncWeather(Uri uri, ContentValues[] values) {
+        WeatherDiffSync sync = new WeatherDiffSync(WEATHER_INSERT_COLUMNS, getChunkSize(uri));
+        WeatherDiffSync.Result result = sync.sync(mOpenHelper.getWritableDatabase(), values);
+        Log.d(LOG_TAG, "Weather sync: " + result);
+        mLastSyncResult = result;
+        if (result.getWrittenCount() > 0) {
+            notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+        }
+        return result.getWrittenCount();
+    }
+
+    WeatherDiffSync.Result getLastSyncResult() {
+        return mLastSyncResult;
+    }
+
+    /*
+        Runs the whole batch in one transaction instead of one per operation.  Operations marked
+        withYieldAllowed() let other threads at the database in between.  Change notifications
+        are suspended for the duration, so each URI the batch touched is notified once.
+        A batch that writes purchases holds a transaction on that database as well; only the
+        weather database yields.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final SQLiteDatabase purchaseDb =
+                touchesPurchases(operations) ? mPurchases.getWritableDatabase() : null;
+        final ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+
+        long begin = System.nanoTime();
+        mNotificationCoalescer.suspend();
+        db.beginTransaction();
+        if (purchaseDb != null) {
+            purchaseDb.beginTransaction();
+        }
+        try {
+            for (int i = 0; i < results.length; i++) {
+                ContentProviderOperation operation = operations.get(i);
+                if (i > 0 && operation.isYieldAllowed()) {
+                    db.yieldIfContendedSafely();
+                }
+                results[i] = operation.apply(this, results, i);
+            }
+            if (purchaseDb != null) {
+                purchaseDb.setTransactionSuccessful();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            if (purchaseDb != null) {
+                purchaseDb.endTransaction();
+            }
+            db.endTransaction();
+            mMetrics.recordTransaction(System.nanoTime() - begin, operations.size());
+            mNotificationCoalescer.resume();
+        }
+        mMetrics.recordOperation(UriMatcher.NO_MATCH, DataMetrics.APPLY_BATCH,
+                System.nanoTime() - begin, operations.size());
+        return results;
+    }
+
+    /*
+        PurchaseContract.METHOD_REBUILD_AGGREGATES recomputes the purchase aggregates and
+        returns how many of their rows had drifted.
+     */
+    @Override
+    @TargetApi(11)
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (PurchaseContract.METHOD_REBUILD_AGGREGATES.equals(method)) {
+            Bundle result = new Bundle();
+            result.putInt(PurchaseContract.KEY_DRIFTED_ROWS, mPurchases.rebuildAggregates());
+            notifyChange(PurchaseContract.CustomerSpendEntry.CONTENT_URI);
+            notifyChange(PurchaseContract.ProductSalesEntry.CONTENT_URI);
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    private static boolean touchesPurchases(ArrayList<ContentProviderOperation> operations) {
+        for (ContentProviderOperation operation : operations) {
+            if (PurchaseRoutes.isPurchaseMatch(sUriMatcher.match(operation.getUri()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void notifyChange(Uri uri) {
+        mNotificationCoalescer.notifyChange(uri);
+    }
+
+    private void notifyPurchaseChange(int match) {
+        for (Uri uri : PurchaseRoutes.getChangedUris(match)) {
+            notifyChange(uri);
+        }
+    }
+
+    NotificationCoalescer getNotificationCoalescer() {
+        return mNotificationCoalescer;
+    }
+
+    LocationIdCache getLocationIdCache() {
+        return mLocationIdCache;
+    }
+
+    WeatherPartitions getPartitions() {
+        return mPartitions;
+    }
+
+    /*
+        Moves the weather of every day before the cutoff into the archive partitions.  Nothing
+        a query returns changes, so nobody is notified.
+     */
+    int archiveWeather(int cutoffDay) {
+        return mPartitions.archive(mOpenHelper.getWritableDatabase(), cutoffDay);
+    }
+
+    /*
+        Drops the archive partitions that only hold days before the given one.
+     */
+    int dropWeatherPartitionsBefore(int day) {
+        int dropped = mPartitions.dropBefore(mOpenHelper.getWritableDatabase(), day);
+        if (dropped != 0) {
+            notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+        }
+        return dropped;
+    }
+
+    // "adb shell dumpsys activity provider WeatherProvider" prints the data layer timings.
+    @Override
+    @TargetApi(18)
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        mMetrics.dump(writer);
     }
 
     // You do not need to call this method. This is a method specifically to assist the testing
@@ -348,7 +886,11 @@ public class WeatherProvider extends ContentProvider {
     @Override
     @TargetApi(11)
     public void shutdown() {
+        mNotificationCoalescer.flush();
+        mLocationIdCache.invalidate();
+        mPartitions.reset();
         mOpenHelper.close();
+        mPurchases.close();
         super.shutdown();
     }
 }
\ No newline at end of file
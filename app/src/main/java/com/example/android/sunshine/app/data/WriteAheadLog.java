@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+
+/**
+ * Opens databases in write-ahead-log mode where the platform has it.
+ * <p>
+ * With the default rollback journal, a write transaction locks readers out of the whole file
+ * and SQLiteDatabase keeps a single connection, so a long refresh stalls every loader.  In WAL
+ * mode readers see the last commit while the writer carries on, and the database keeps a pool
+ * of connections so several queries can run at once.  Writes still go one at a time.
+ * <p>
+ * Jelly Bean and later switch it on before the database is first opened; Honeycomb to ICS can
+ * only switch it on once the database is open.  Gingerbread keeps the rollback journal.
+ */
+final class WriteAheadLog {
+
+    private WriteAheadLog() {
+    }
+
+    /**
+     * Call from the helper's constructor.
+     */
+    static void enable(SQLiteOpenHelper helper) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            enableBeforeOpen(helper);
+        }
+    }
+
+    /**
+     * Call from the helper's onOpen.
+     */
+    static void onOpen(SQLiteDatabase db) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB &&
+                Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN && !db.isReadOnly()) {
+            enableAfterOpen(db);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static void enableBeforeOpen(SQLiteOpenHelper helper) {
+        helper.setWriteAheadLoggingEnabled(true);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void enableAfterOpen(SQLiteDatabase db) {
+        db.enableWriteAheadLogging();
+    }
+}
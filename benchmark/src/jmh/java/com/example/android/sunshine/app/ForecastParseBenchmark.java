@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.ContentValues;
+
+import com.example.android.sunshine.app.utils.StubForecastServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+    ForecastJsonParser's org.json path over the synthetic OpenWeatherMap responses the parser
+    tests use, from the body already read into a string.  The streaming path can't run here:
+    android-all's JsonReader calls System.arraycopy overloads that only Android's libcore has,
+    so TestForecastParserPerformance still measures it on a device.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Duser.timezone=UTC")
+public class ForecastParseBenchmark {
+
+    @Param({"14", "400"})
+    public int days;
+
+    private byte[] mPayload;
+
+    @Setup
+    public void buildPayload() throws Exception {
+        mPayload = StubForecastServer.buildForecast(days).getBytes("UTF-8");
+    }
+
+    @Benchmark
+    public int tree(Blackhole blackhole) throws Exception {
+        return ForecastJsonParser.parse(new String(mPayload, "UTF-8"),
+                new ConsumingListener(blackhole));
+    }
+
+    private static class ConsumingListener implements ForecastJsonParser.Listener {
+        private final Blackhole mBlackhole;
+
+        ConsumingListener(Blackhole blackhole) {
+            mBlackhole = blackhole;
+        }
+
+        @Override
+        public void onCity(String cityName, double latitude, double longitude) {
+            mBlackhole.consume(cityName);
+        }
+
+        @Override
+        public void onDay(int index, ContentValues dayValues) {
+            mBlackhole.consume(dayValues);
+        }
+    }
+}
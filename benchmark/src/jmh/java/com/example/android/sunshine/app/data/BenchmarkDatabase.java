@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+
+/**
+ * A weather database in a temporary file, opened through sqlite-jdbc with the schema
+ * WeatherDbHelper creates, and written the way the provider writes it.
+ */
+final class BenchmarkDatabase {
+
+    static final String LOCATION_SETTING = "94043";
+
+    // December 20th, 2014, as the stub forecast starts.
+    static final long FIRST_DATE = 1419033600000L;
+    private static final long DAY_IN_MILLIS = 24L * 60 * 60 * 1000;
+
+    private static final String[] DESCRIPTIONS = {
+            "Clear", "Clouds", "Rain", "Light Snow", "Thunderstorm"
+    };
+
+    private final File mFile;
+    final Connection connection;
+
+    BenchmarkDatabase() throws IOException, SQLException {
+        mFile = File.createTempFile("weather", ".db");
+        connection = DriverManager.getConnection("jdbc:sqlite:" + mFile.getPath());
+        Statement statement = connection.createStatement();
+        try {
+            // As WriteAheadLog sets up the app's database.
+            statement.executeQuery("PRAGMA journal_mode=WAL").close();
+            statement.executeUpdate(WeatherDbHelper.SQL_CREATE_LOCATION_TABLE);
+            statement.executeUpdate(WeatherDbHelper.SQL_CREATE_WEATHER_TABLE);
+            statement.executeUpdate(WeatherDbHelper.SQL_CREATE_WEATHER_LOCATION_DAY_INDEX);
+            statement.executeUpdate(WeatherPartitions.SQL_CREATE_PARTITION_TABLE);
+        } finally {
+            statement.close();
+        }
+    }
+
+    void close() throws SQLException {
+        connection.close();
+        mFile.delete();
+        new File(mFile.getPath() + "-wal").delete();
+        new File(mFile.getPath() + "-shm").delete();
+    }
+
+    long insertLocation(String locationSetting) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement("INSERT INTO " +
+                LocationEntry.TABLE_NAME + " (" +
+                LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+                LocationEntry.COLUMN_CITY_NAME + ", " +
+                LocationEntry.COLUMN_COORD_LAT + ", " +
+                LocationEntry.COLUMN_COORD_LONG + ") VALUES (?, ?, ?, ?)");
+        try {
+            statement.setString(1, locationSetting);
+            statement.setString(2, "Mountain View");
+            statement.setDouble(3, 37.386051);
+            statement.setDouble(4, -122.083847);
+            statement.executeUpdate();
+            ResultSet keys = statement.getGeneratedKeys();
+            try {
+                keys.next();
+                return keys.getLong(1);
+            } finally {
+                keys.close();
+            }
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * One row a day from {@link #FIRST_DATE} on, with the date normalized and the day filled in
+     * as WeatherProvider does before it inserts.
+     */
+    static ContentValues[] createWeatherValues(long locationId, int days) {
+        ContentValues[] rows = new ContentValues[days];
+        for (int i = 0; i < days; i++) {
+            ContentValues values = new ContentValues();
+            long date = WeatherContract.normalizeDate(FIRST_DATE + i * DAY_IN_MILLIS);
+            values.put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+            values.put(WeatherEntry.COLUMN_DATE, date);
+            values.put(WeatherEntry.COLUMN_DAY, DayNormalizer.julianDay(date));
+            values.put(WeatherEntry.COLUMN_SHORT_DESC, DESCRIPTIONS[i % DESCRIPTIONS.length]);
+            values.put(WeatherEntry.COLUMN_WEATHER_ID, 800 + i % 4);
+            values.put(WeatherEntry.COLUMN_MIN_TEMP, 8.31 + i % 7);
+            values.put(WeatherEntry.COLUMN_MAX_TEMP, 18.74 + i % 9);
+            values.put(WeatherEntry.COLUMN_HUMIDITY, 40.0 + i % 50);
+            values.put(WeatherEntry.COLUMN_PRESSURE, 1000.45 + i % 30);
+            values.put(WeatherEntry.COLUMN_WIND_SPEED, 0.2 + i % 12);
+            values.put(WeatherEntry.COLUMN_DEGREES, (double) (i % 360));
+            rows[i] = values;
+        }
+        return rows;
+    }
+
+    /**
+     * Inserts the rows the way BulkInserter does: one compiled statement, bound column by
+     * column, and one transaction per chunk.
+     *
+     * @return the number of rows inserted.
+     */
+    int bulkInsertWeather(ContentValues[] rows, int chunkSize) throws SQLException {
+        String[] columns = WeatherProvider.WEATHER_INSERT_COLUMNS;
+        BulkInserter inserter = new BulkInserter(WeatherEntry.TABLE_NAME, columns,
+                SQLiteDatabase.CONFLICT_NONE, chunkSize);
+        int inserted = 0;
+        PreparedStatement statement = connection.prepareStatement(inserter.getSql());
+        try {
+            for (int start = 0; start < rows.length; start += chunkSize) {
+                int end = Math.min(start + chunkSize, rows.length);
+                connection.setAutoCommit(false);
+                try {
+                    for (int i = start; i < end; i++) {
+                        bind(statement, columns, rows[i]);
+                        inserted += statement.executeUpdate();
+                    }
+                    connection.commit();
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+            }
+        } finally {
+            statement.close();
+        }
+        return inserted;
+    }
+
+    private static void bind(PreparedStatement statement, String[] columns, ContentValues row)
+            throws SQLException {
+        for (int i = 0; i < columns.length; i++) {
+            Object v = row.get(columns[i]);
+            if (v == null) {
+                statement.setNull(i + 1, Types.NULL);
+            } else if (v instanceof Double || v instanceof Float) {
+                statement.setDouble(i + 1, ((Number) v).doubleValue());
+            } else if (v instanceof Number) {
+                statement.setLong(i + 1, ((Number) v).longValue());
+            } else {
+                statement.setString(i + 1, v.toString());
+            }
+        }
+    }
+
+    void deleteWeather() throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            statement.executeUpdate("DELETE FROM " + WeatherEntry.TABLE_NAME);
+        } finally {
+            statement.close();
+        }
+    }
+}
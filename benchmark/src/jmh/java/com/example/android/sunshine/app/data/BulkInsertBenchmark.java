@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+    Inserts a refresh's worth of days, a backfill and a bulk import into an empty weather table,
+    in chunks of BulkInserter.DEFAULT_CHUNK_SIZE.  The table is emptied before every insert,
+    so each one writes new rows rather than replacing the last one's.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Duser.timezone=UTC")
+public class BulkInsertBenchmark {
+
+    @Param({"14", "500", "5000"})
+    public int rows;
+
+    private BenchmarkDatabase mDatabase;
+    private ContentValues[] mRows;
+
+    @Setup(Level.Trial)
+    public void createDatabase() throws Exception {
+        mDatabase = new BenchmarkDatabase();
+        long locationId = mDatabase.insertLocation(BenchmarkDatabase.LOCATION_SETTING);
+        mRows = BenchmarkDatabase.createWeatherValues(locationId, rows);
+    }
+
+    @Setup(Level.Invocation)
+    public void emptyTable() throws Exception {
+        mDatabase.deleteWeather();
+    }
+
+    @TearDown(Level.Trial)
+    public void closeDatabase() throws Exception {
+        mDatabase.close();
+    }
+
+    @Benchmark
+    public int bulkInsert() throws Exception {
+        return mDatabase.bulkInsertWeather(mRows, BulkInserter.DEFAULT_CHUNK_SIZE);
+    }
+}
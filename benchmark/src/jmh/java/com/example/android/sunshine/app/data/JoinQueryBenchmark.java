@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Runs the weather-location join the forecast list loads, with the SQL WeatherProvider builds
+    for it, and reads every cell of the result.  forecastFromToday reads all the days from the
+    first one on, as the list did before it paged; firstPage reads the page ForecastPager asks
+    for first.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Duser.timezone=UTC")
+public class JoinQueryBenchmark {
+
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG,
+            WeatherEntry.COLUMN_DAY
+    };
+
+    // ForecastPager.PAGE_SIZE
+    private static final String PAGE_SIZE = "30";
+
+    @Param({"14", "1000", "10000"})
+    public int days;
+
+    private BenchmarkDatabase mDatabase;
+    private PreparedStatement mForecastQuery;
+    private PreparedStatement mPageQuery;
+    private String mLocationId;
+    private String mFirstDay;
+
+    @Setup(Level.Trial)
+    public void createDatabase() throws Exception {
+        mDatabase = new BenchmarkDatabase();
+        // Another location's rows, so the query has something to skip.
+        long otherId = mDatabase.insertLocation("10001");
+        mDatabase.bulkInsertWeather(BenchmarkDatabase.createWeatherValues(otherId, days),
+                BulkInserter.DEFAULT_CHUNK_SIZE);
+        long locationId = mDatabase.insertLocation(BenchmarkDatabase.LOCATION_SETTING);
+        mLocationId = Long.toString(locationId);
+        mDatabase.bulkInsertWeather(BenchmarkDatabase.createWeatherValues(locationId, days),
+                BulkInserter.DEFAULT_CHUNK_SIZE);
+        // As WeatherMaintenance leaves the statistics.
+        Statement analyze = mDatabase.connection.createStatement();
+        analyze.execute("ANALYZE");
+        analyze.close();
+
+        mForecastQuery = mDatabase.connection.prepareStatement(
+                WeatherProvider.buildLocationSettingQuery(WeatherProvider.WEATHER_WITH_LOCATION,
+                        true, FORECAST_COLUMNS, WeatherEntry.COLUMN_DATE + " ASC"));
+        mPageQuery = mDatabase.connection.prepareStatement(
+                WeatherProvider.buildLocationSettingQuery(WeatherProvider.WEATHER_WITH_LOCATION,
+                        true, false, FORECAST_COLUMNS, WeatherProvider.PAGE_SORT_ORDER,
+                        PAGE_SIZE));
+        mFirstDay = Integer.toString(DayNormalizer.julianDay(BenchmarkDatabase.FIRST_DATE));
+    }
+
+    @TearDown(Level.Trial)
+    public void closeDatabase() throws Exception {
+        mForecastQuery.close();
+        mPageQuery.close();
+        mDatabase.close();
+    }
+
+    @Benchmark
+    public double forecastFromToday() throws SQLException {
+        return readAll(mForecastQuery);
+    }
+
+    @Benchmark
+    public double firstPage() throws SQLException {
+        return readAll(mPageQuery);
+    }
+
+    // The provider binds its selection arguments as strings, so these do too.
+    private double readAll(PreparedStatement query) throws SQLException {
+        query.setString(1, mLocationId);
+        query.setString(2, mFirstDay);
+        ResultSet rows = query.executeQuery();
+        double sum = 0;
+        try {
+            while (rows.next()) {
+                sum += rows.getLong(1) + rows.getLong(2) + rows.getString(3).length() +
+                        rows.getDouble(4) + rows.getDouble(5) + rows.getString(6).length() +
+                        rows.getInt(7) + rows.getDouble(8) + rows.getDouble(9);
+            }
+        } finally {
+            rows.close();
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Per-row cost of normalizing dates on the way into the database.  dayAfterDay is what a
+    write does, one row per day in order, so the last-day entry never helps; sameDay asks for
+    the same few days over and over, as the URI builders do, and is answered from it; scattered
+    lands on a different day almost every time.  The fork runs in UTC: around an offset change
+    DayNormalizer falls back to android.text.format.Time, whose time zone data only exists on a
+    device.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Duser.timezone=UTC")
+public class NormalizeDateBenchmark {
+
+    private static final int DATES = 1024;
+    private static final long DAY_IN_MILLIS = 24L * 60 * 60 * 1000;
+
+    private final long[] mDayAfterDay = new long[DATES];
+    private final long[] mSameDay = new long[DATES];
+    private final long[] mScattered = new long[DATES];
+
+    @Setup
+    public void createDates() {
+        Random random = new Random(42);
+        for (int i = 0; i < DATES; i++) {
+            mDayAfterDay[i] = BenchmarkDatabase.FIRST_DATE + i * DAY_IN_MILLIS +
+                    random.nextInt((int) DAY_IN_MILLIS);
+            // Sixty-four in a row a day, for sixteen days.
+            mSameDay[i] = BenchmarkDatabase.FIRST_DATE + (i / 64) * DAY_IN_MILLIS +
+                    random.nextInt((int) DAY_IN_MILLIS);
+            mScattered[i] = BenchmarkDatabase.FIRST_DATE +
+                    (long) (random.nextDouble() * 365 * DAY_IN_MILLIS);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DATES)
+    public long dayAfterDay() {
+        return normalizeAll(mDayAfterDay);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DATES)
+    public long sameDay() {
+        return normalizeAll(mSameDay);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DATES)
+    public long scattered() {
+        return normalizeAll(mScattered);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DATES)
+    public long julianDay() {
+        long sum = 0;
+        for (long date : mScattered) {
+            sum += DayNormalizer.julianDay(date);
+        }
+        return sum;
+    }
+
+    private static long normalizeAll(long[] dates) {
+        long sum = 0;
+        for (long date : dates) {
+            sum += WeatherContract.normalizeDate(date);
+        }
+        return sum;
+    }
+}
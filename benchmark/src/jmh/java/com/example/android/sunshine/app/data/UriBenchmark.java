@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.UriMatcher;
+import android.net.Uri;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+    What every provider call pays before it reaches SQLite: building the URI on the app side,
+    matching it, and reading the location and dates back out of it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Duser.timezone=UTC")
+public class UriBenchmark {
+
+    private static final long DATE = BenchmarkDatabase.FIRST_DATE;
+    private static final int DAY = DayNormalizer.julianDay(DATE);
+
+    private UriMatcher mMatcher;
+    private Uri[] mUris;
+    private Uri mPageUri;
+
+    @Setup
+    public void buildMatcher() {
+        mMatcher = WeatherProvider.buildUriMatcher();
+        mUris = new Uri[]{
+                WeatherEntry.CONTENT_URI,
+                WeatherEntry.buildWeatherLocation(BenchmarkDatabase.LOCATION_SETTING),
+                WeatherEntry.buildWeatherLocationWithStartDate(
+                        BenchmarkDatabase.LOCATION_SETTING, DATE),
+                WeatherEntry.buildWeatherLocationWithDate(BenchmarkDatabase.LOCATION_SETTING, DATE),
+                LocationEntry.CONTENT_URI,
+                PurchaseContract.CustomerEntry.buildCustomerProductsUri(7)
+        };
+        mPageUri = WeatherEntry.buildWeatherLocationPage(BenchmarkDatabase.LOCATION_SETTING,
+                DATE, DAY, DATE, 30);
+    }
+
+    @Benchmark
+    public Uri buildStartDateUri() {
+        return WeatherEntry.buildWeatherLocationWithStartDate(
+                BenchmarkDatabase.LOCATION_SETTING, DATE);
+    }
+
+    @Benchmark
+    public Uri buildPageUri() {
+        return WeatherEntry.buildWeatherLocationPage(BenchmarkDatabase.LOCATION_SETTING,
+                DATE, DAY, DATE, 30);
+    }
+
+    // A fresh Uri each time, as a query from another process arrives.
+    @Benchmark
+    public int parseAndMatch() {
+        return mMatcher.match(Uri.parse(mUris[2].toString()));
+    }
+
+    @Benchmark
+    public void matchEach(Blackhole blackhole) {
+        for (Uri uri : mUris) {
+            blackhole.consume(mMatcher.match(uri));
+        }
+    }
+
+    @Benchmark
+    public void readPageArguments(Blackhole blackhole) {
+        blackhole.consume(WeatherEntry.getLocationSettingFromUri(mPageUri));
+        blackhole.consume(WeatherEntry.getStartDateFromUri(mPageUri));
+        blackhole.consume(WeatherEntry.getAfterDayFromUri(mPageUri));
+        blackhole.consume(WeatherEntry.getAfterDateFromUri(mPageUri));
+        blackhole.consume(WeatherEntry.getPageSizeFromUri(mPageUri));
+    }
+}